@@ -0,0 +1,94 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+
+import com.thalmic.myo.Hub;
+import com.thalmic.myo.Myo;
+
+/**
+ * Simulated armbands and event handlers shared by the benchmarks.
+ *
+ */
+final class BenchmarkSupport{
+
+	static final long IMU_PERIOD_MS = 20; //The Myo streams IMU data at 50 Hz
+	private static final long AWAIT_TIMEOUT_NS = TimeUnit.SECONDS.toNanos(5);
+
+	private BenchmarkSupport(){
+	}
+
+	//Same synthetic devices as the session replays
+	static Myo[] newDevices(int count){
+		Myo[] res = new Myo[count];
+		try{
+			for(int i = 0; i < count; i++){
+				res[i] = SessionReplayer.newMyo(Hub.getInstance(), i);
+			}
+		}catch(Exception e){
+			throw new IllegalStateException("Could not create simulated Myo", e);
+		}
+		return res;
+	}
+
+	/**
+	 * Counts the results delivered to JavaScript, so that the benchmarks can wait for
+	 * the dispatcher thread. The stub PluginResult has already encoded the message.
+	 */
+	static class CountingCallbackContext extends CallbackContext{
+
+		private final AtomicLong mResults = new AtomicLong();
+
+		CountingCallbackContext(String callbackId) {
+			super(callbackId, null);
+		}
+
+		@Override
+		public void sendPluginResult(PluginResult pluginResult) {
+			mResults.incrementAndGet();
+		}
+
+		long getResults(){
+			return mResults.get();
+		}
+
+		void awaitResults(long count){
+			long deadline = System.nanoTime() + AWAIT_TIMEOUT_NS;
+			while(mResults.get() < count){
+				if(System.nanoTime() - deadline > 0){
+					throw new IllegalStateException("Timed out waiting for results: " + mResults.get() + "/" + count);
+				}
+				Thread.yield();
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,108 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cordova.PluginResult;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.thalmic.myo.Quaternion;
+
+import com.tribalyte.plugin.myo.MyoEventController.MyoWithJson;
+
+/**
+ * Cost of encoding one orientation sample, including the PluginResult, in the
+ * formats available to the event handlers.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncodingBenchmark{
+
+	private final Quaternion mRotation = new Quaternion(0.1, 0.2, 0.3, 0.927);
+	private final SensorSample mSample = new SensorSample(EventType.ORIENTATION, "rotation");
+	private final StringBuilder mJsonBuf = new StringBuilder(512);
+	private final ByteBuffer mRecordBuf = BinaryEncoder.allocate(BinaryEncoder.MAX_RECORD_SIZE);
+	private MyoWithJson mMyoWithJson;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		mMyoWithJson = new MyoWithJson(BenchmarkSupport.newDevices(1)[0], 0);
+		mSample.set(1000, mRotation);
+	}
+
+	//Generic JSON mapping of the SDK objects
+	@Benchmark
+	public PluginResult jsonMapper() throws Exception {
+		JSONObject json = new JSONObject();
+		json.put("eventName", EventType.ORIENTATION.jsName);
+		json.put("myo", mMyoWithJson.myoJson);
+		json.put("timestamp", mSample.timestamp);
+		json.put("rotation", JsonMapper.toJson(mRotation));
+		return new PluginResult(PluginResult.Status.OK, json);
+	}
+
+	//Text written directly by JsonEventWriter, as sent by the dispatcher
+	@Benchmark
+	public PluginResult jsonWriter() {
+		mJsonBuf.setLength(0);
+		JsonEventWriter.appendEvent(mJsonBuf, mMyoWithJson.myoJsonText, mSample, FieldMask.RAW | FieldMask.EULER);
+		return new PluginResult(PluginResult.Status.OK, new JsonEventWriter.EncodedJson(mJsonBuf.toString()));
+	}
+
+	//Raw fields only, as requested with the "fields" option
+	@Benchmark
+	public PluginResult jsonWriterRaw() {
+		mJsonBuf.setLength(0);
+		JsonEventWriter.appendEvent(mJsonBuf, mMyoWithJson.myoJsonText, mSample, FieldMask.RAW);
+		return new PluginResult(PluginResult.Status.OK, new JsonEventWriter.EncodedJson(mJsonBuf.toString()));
+	}
+
+	@Benchmark
+	public PluginResult binary() {
+		mRecordBuf.clear();
+		BinaryEncoder.put(mRecordBuf, mMyoWithJson.index, mSample);
+		return new PluginResult(PluginResult.Status.OK, Arrays.copyOf(mRecordBuf.array(), mRecordBuf.position()));
+	}
+
+}
@@ -0,0 +1,182 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.thalmic.myo.Myo;
+import com.thalmic.myo.Quaternion;
+import com.thalmic.myo.Vector3;
+
+import com.tribalyte.plugin.myo.BenchmarkSupport.CountingCallbackContext;
+
+/**
+ * End to end cost of the event pipeline: each operation is one IMU tick (orientation,
+ * accelerometer and gyroscope callbacks) for every simulated armband, from the SDK
+ * listener thread until the results are handed to Cordova by the dispatcher thread.
+ *
+ * The SDK objects are reused across ticks, so the allocation rate reported by the GC
+ * profiler is only the one of the plugin.
+ *
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 4)
+@Fork(1)
+public class EventPipelineBenchmark{
+
+	private static final int BATCH_SIZE = 10;
+
+	@Param({"1", "2", "4", "8"})
+	public int devices;
+
+	//json: one JSON event per sample, binary: one ArrayBuffer per sample,
+	//batch: JSON batches of 10 samples, frame: one fused motionFrame event per tick
+	@Param({"json", "binary", "batch", "frame"})
+	public String delivery;
+
+	private MyoEventController mController;
+	private Myo[] mMyos;
+	private CountingCallbackContext mCbc;
+	private final Vector3 mAccel = new Vector3(0.01, -0.02, 1.0);
+	private final Vector3 mGyro = new Vector3(1.5, -0.5, 0.25);
+	private final Quaternion mRotation = new Quaternion(0.1, 0.2, 0.3, 0.927);
+	private long mTimestamp;
+	private long mTicks;
+
+	@Setup(Level.Trial)
+	public void setUp() throws JSONException {
+		mController = new MyoEventController();
+		mMyos = BenchmarkSupport.newDevices(devices);
+		mCbc = new CountingCallbackContext("bench");
+		for(Myo myo : mMyos){
+			mController.onAttach(myo, 0);
+			mController.onConnect(myo, 0);
+		}
+		if("frame".equals(delivery)){
+			mController.setEventHandler(EventType.MOTION_FRAME.jsName, null, "frame", mCbc);
+		}else{
+			JSONObject options = new JSONObject();
+			if("binary".equals(delivery)){
+				options.put("binary", true);
+			}else if("batch".equals(delivery)){
+				options.put("batch", new JSONObject().put("size", BATCH_SIZE).put("interval", 0));
+			}
+			for(EventType type : new EventType[]{EventType.ORIENTATION, EventType.ACCELEROMETER, EventType.GYROSCOPE}){
+				mController.setEventHandler(type.jsName, options, type.jsName, mCbc);
+			}
+		}
+		mTimestamp = 0;
+		mTicks = 0;
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		mController.release();
+	}
+
+	/**
+	 * Waits for the next tick of a 50 Hz stream before each invocation, so that the
+	 * dispatcher thread is idle (parked) when the samples arrive, as on a real device.
+	 */
+	@State(Scope.Thread)
+	public static class Pacer{
+		private long mNextTickNs;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			mNextTickNs = System.nanoTime();
+		}
+
+		@Setup(Level.Invocation)
+		public void waitForTick() {
+			long remaining;
+			while((remaining = mNextTickNs - System.nanoTime()) > 0){
+				LockSupport.parkNanos(remaining);
+			}
+			mNextTickNs += TimeUnit.MILLISECONDS.toNanos(BenchmarkSupport.IMU_PERIOD_MS);
+		}
+	}
+
+	//Maximum sustained tick rate
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public long saturatedTick() {
+		return tick();
+	}
+
+	//Latency percentiles of a tick at the rate of the armbands
+	@Benchmark
+	@BenchmarkMode(Mode.SampleTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public long pacedTick(Pacer pacer) {
+		return tick();
+	}
+
+	private long tick(){
+		long expected = mCbc.getResults() + expectedResults(mTicks + 1) - expectedResults(mTicks);
+		mTimestamp += BenchmarkSupport.IMU_PERIOD_MS;
+		mTicks++;
+		for(Myo myo : mMyos){
+			mController.onOrientationData(myo, mTimestamp, mRotation);
+			mController.onAccelerometerData(myo, mTimestamp, mAccel);
+			mController.onGyroscopeData(myo, mTimestamp, mGyro);
+		}
+		mCbc.awaitResults(expected);
+		return expected;
+	}
+
+	//Results delivered after the given number of ticks
+	private long expectedResults(long ticks){
+		long res;
+		if("frame".equals(delivery)){
+			res = ticks * devices;
+		}else if("batch".equals(delivery)){
+			res = (ticks / BATCH_SIZE) * 3 * devices;
+		}else{
+			res = ticks * 3 * devices;
+		}
+		return res;
+	}
+
+}
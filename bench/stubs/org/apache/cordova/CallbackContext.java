@@ -0,0 +1,93 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.apache.cordova;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Benchmark stub. Results are discarded: benchmarks override
+ * {@link #sendPluginResult(PluginResult)} to observe them.
+ */
+public class CallbackContext{
+
+	private final String callbackId;
+	private boolean finished = false;
+
+	public CallbackContext(String callbackId, CordovaWebView webView){
+		this.callbackId = callbackId;
+	}
+
+	public boolean isFinished(){
+		return finished;
+	}
+
+	public String getCallbackId(){
+		return callbackId;
+	}
+
+	public void sendPluginResult(PluginResult pluginResult){
+		synchronized(this){
+			finished = !pluginResult.getKeepCallback();
+		}
+	}
+
+	public void success(){
+		sendPluginResult(new PluginResult(PluginResult.Status.OK));
+	}
+
+	public void success(String message){
+		sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+	}
+
+	public void success(int message){
+		sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+	}
+
+	public void success(JSONArray message){
+		sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+	}
+
+	public void success(JSONObject message){
+		sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+	}
+
+	public void success(byte[] message){
+		sendPluginResult(new PluginResult(PluginResult.Status.OK, message));
+	}
+
+	public void error(String message){
+		sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+	}
+
+	public void error(int message){
+		sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+	}
+
+	public void error(JSONObject message){
+		sendPluginResult(new PluginResult(PluginResult.Status.ERROR, message));
+	}
+
+}
@@ -0,0 +1,73 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.apache.cordova;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+
+import android.content.Intent;
+
+/**
+ * Benchmark stub.
+ */
+public class CordovaPlugin{
+
+	public CordovaInterface cordova;
+	public CordovaWebView webView;
+	protected CordovaPreferences preferences;
+
+	public void initialize(CordovaInterface cordova, CordovaWebView webView){
+		this.cordova = cordova;
+		this.webView = webView;
+		this.preferences = (webView != null) ? webView.getPreferences() : new CordovaPreferences();
+	}
+
+	public boolean execute(String action, JSONArray args, CallbackContext callbackContext) throws JSONException{
+		return false;
+	}
+
+	public void onPause(boolean multitasking){
+	}
+
+	public void onResume(boolean multitasking){
+	}
+
+	public void onNewIntent(Intent intent){
+	}
+
+	public void onDestroy(){
+	}
+
+	public Object onMessage(String id, Object data){
+		return null;
+	}
+
+	public void onReset(){
+	}
+
+	public void onActivityResult(int requestCode, int resultCode, Intent intent){
+	}
+
+}
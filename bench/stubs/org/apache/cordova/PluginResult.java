@@ -0,0 +1,139 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package org.apache.cordova;
+
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Benchmark stub which encodes the message eagerly, like the Cordova bridge does
+ * before handing it to the WebView: JSON objects to text and byte arrays to Base64.
+ */
+public class PluginResult{
+
+	public enum Status{ NO_RESULT, OK, CLASS_NOT_FOUND_EXCEPTION, ILLEGAL_ACCESS_EXCEPTION, INSTANTIATION_EXCEPTION,
+		MALFORMED_URL_EXCEPTION, IO_EXCEPTION, INVALID_ACTION, JSON_EXCEPTION, ERROR }
+
+	public static final int MESSAGE_TYPE_STRING = 1;
+	public static final int MESSAGE_TYPE_JSON = 2;
+	public static final int MESSAGE_TYPE_NUMBER = 3;
+	public static final int MESSAGE_TYPE_BOOLEAN = 4;
+	public static final int MESSAGE_TYPE_NULL = 5;
+	public static final int MESSAGE_TYPE_ARRAYBUFFER = 6;
+	public static final int MESSAGE_TYPE_BINARYSTRING = 7;
+	public static final int MESSAGE_TYPE_MULTIPART = 8;
+
+	public static String[] StatusMessages = new String[] { "No result", "OK", "Class not found", "Illegal access",
+		"Instantiation error", "Malformed url", "IO error", "Invalid action", "JSON error", "Error" };
+
+	private final Status status;
+	private final int messageType;
+	private final String strMessage;
+	private final String encodedMessage;
+	private boolean keepCallback = false;
+
+	public PluginResult(Status status){
+		this(status, StatusMessages[status.ordinal()]);
+	}
+
+	public PluginResult(Status status, String message){
+		this(status, (message == null) ? MESSAGE_TYPE_NULL : MESSAGE_TYPE_STRING, message, JSONObject.quote(message));
+	}
+
+	public PluginResult(Status status, JSONArray message){
+		this(status, MESSAGE_TYPE_JSON, null, message.toString());
+	}
+
+	public PluginResult(Status status, JSONObject message){
+		this(status, MESSAGE_TYPE_JSON, null, message.toString());
+	}
+
+	public PluginResult(Status status, int i){
+		this(status, MESSAGE_TYPE_NUMBER, null, Integer.toString(i));
+	}
+
+	public PluginResult(Status status, float f){
+		this(status, MESSAGE_TYPE_NUMBER, null, Float.toString(f));
+	}
+
+	public PluginResult(Status status, boolean b){
+		this(status, MESSAGE_TYPE_BOOLEAN, null, Boolean.toString(b));
+	}
+
+	public PluginResult(Status status, byte[] data){
+		this(status, data, false);
+	}
+
+	public PluginResult(Status status, byte[] data, boolean binaryString){
+		this(status, binaryString ? MESSAGE_TYPE_BINARYSTRING : MESSAGE_TYPE_ARRAYBUFFER, null,
+				java.util.Base64.getEncoder().encodeToString(data));
+	}
+
+	public PluginResult(Status status, List<PluginResult> multipartMessages){
+		this(status, MESSAGE_TYPE_MULTIPART, null, concat(multipartMessages));
+	}
+
+	private PluginResult(Status status, int messageType, String strMessage, String encodedMessage){
+		this.status = status;
+		this.messageType = messageType;
+		this.strMessage = strMessage;
+		this.encodedMessage = encodedMessage;
+	}
+
+	private static String concat(List<PluginResult> multipartMessages){
+		StringBuilder sb = new StringBuilder();
+		for(PluginResult result : multipartMessages){
+			sb.append(result.encodedMessage);
+		}
+		return sb.toString();
+	}
+
+	public void setKeepCallback(boolean b){
+		this.keepCallback = b;
+	}
+
+	public int getStatus(){
+		return status.ordinal();
+	}
+
+	public boolean getKeepCallback(){
+		return keepCallback;
+	}
+
+	public int getMessageType(){
+		return messageType;
+	}
+
+	public String getMessage(){
+		return encodedMessage;
+	}
+
+	public String getStrMessage(){
+		return strMessage;
+	}
+
+}
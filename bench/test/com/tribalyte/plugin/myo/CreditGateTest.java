@@ -0,0 +1,140 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.thalmic.myo.Myo;
+import com.thalmic.myo.Vector3;
+
+/**
+ * Credit based flow control of a handler: results are sent while there are
+ * credits, and then only the latest one of each Myo is kept until "ack".
+ *
+ */
+public class CreditGateTest{
+
+	private static final String EVENT = "accelerometerData";
+	private static final String ID = "1";
+	private static final long TIMEOUT_NS = TimeUnit.SECONDS.toNanos(5);
+
+	private MyoEventController mController;
+	private Myo[] mDevices;
+
+	@Before
+	public void setUp(){
+		mController = new MyoEventController();
+		mDevices = BenchmarkSupport.newDevices(2);
+		for(Myo myo : mDevices){
+			mController.onAttach(myo, 0);
+			mController.onConnect(myo, 0);
+		}
+	}
+
+	@After
+	public void tearDown(){
+		mController.release();
+	}
+
+	@Test
+	public void latestResultOfEachMyoIsSentOnAck() throws Exception {
+		RecordingCallbackContext cbc = subscribe(2);
+		send(0, 0);
+		send(1, 0);
+		cbc.awaitResults(2); //No credits left
+		send(0, 1);
+		send(0, 2);
+		send(1, 1);
+		send(0, 3);
+		send(1, 2);
+		awaitStats(4, 3); //Kept results count as delivered, the replaced ones as dropped
+		cbc.assertNoMoreResults(2);
+
+		mController.ack(EVENT, ID, 1); //Only for the kept result of the first Myo
+		cbc.awaitResults(3);
+		cbc.assertNoMoreResults(3);
+		mController.ack(EVENT, ID, 5);
+		send(0, 4);
+		cbc.awaitResults(5);
+		cbc.assertNoMoreResults(5);
+
+		int[][] expected = {{0, 0}, {1, 0}, {0, 3}, {1, 2}, {0, 4}}; //Myo, sample
+		for(int i = 0; i < expected.length; i++){
+			JSONObject event = cbc.getJson(i);
+			assertEquals(expected[i][0], event.getJSONArray("myo").getInt(3));
+			assertEquals(timestampOf(expected[i][1]), event.getLong("timestamp"));
+		}
+		JSONObject stats = awaitStats(5, 3);
+		assertEquals(3, stats.getInt("credits"));
+	}
+
+	@Test
+	public void creditsAreLimited() throws Exception {
+		subscribe(1);
+		mController.ack(EVENT, ID, Integer.MAX_VALUE);
+		mController.ack(EVENT, ID, Integer.MAX_VALUE);
+		assertEquals(CreditGate.MAX_CREDITS, getStats().getInt("credits"));
+	}
+
+	private RecordingCallbackContext subscribe(int credits) throws Exception {
+		RecordingCallbackContext cbc = new RecordingCallbackContext("accel");
+		mController.setEventHandler(EVENT, new JSONObject().put("credits", credits), ID, cbc);
+		return cbc;
+	}
+
+	private void send(int myo, int sample){
+		mController.onAccelerometerData(mDevices[myo], timestampOf(sample), new Vector3(sample, 0, 0));
+	}
+
+	private JSONObject getStats() throws Exception {
+		return mController.getSubscriptionStats().getJSONObject(0);
+	}
+
+	//Waits for the dispatcher thread to process the samples
+	private JSONObject awaitStats(int delivered, int dropped) throws Exception {
+		long deadline = System.nanoTime() + TIMEOUT_NS;
+		JSONObject res = getStats();
+		while((res.getInt("delivered") != delivered || res.getInt("dropped") != dropped)
+				&& System.nanoTime() < deadline){
+			Thread.sleep(10);
+			res = getStats();
+		}
+		assertEquals(delivered, res.getInt("delivered"));
+		assertEquals(dropped, res.getInt("dropped"));
+		return res;
+	}
+
+	private static long timestampOf(int sample){
+		return sample * BenchmarkSupport.IMU_PERIOD_MS;
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.thalmic.myo.Myo;
+import com.thalmic.myo.Vector3;
+
+/**
+ * Sliding-window "features" events, checked against values computed by hand.
+ *
+ */
+public class FeatureExtractorTest{
+
+	private static final double DELTA = 1e-9;
+
+	private MyoEventController mController;
+	private Myo mMyo;
+
+	@Before
+	public void setUp(){
+		mController = new MyoEventController();
+		mMyo = BenchmarkSupport.newDevices(1)[0];
+		mController.onAttach(mMyo, 0);
+		mController.onConnect(mMyo, 0);
+	}
+
+	@After
+	public void tearDown(){
+		mController.release();
+	}
+
+	@Test
+	public void featuresOfSlidingWindows() throws Exception {
+		JSONObject options = new JSONObject().put("streams", new JSONArray().put("accel")).put("window", 8)
+				.put("hop", 4).put("bands", 2).put("features", new JSONArray().put("mean").put("rms")
+						.put("variance").put("zeroCrossings").put("peak").put("bands"));
+		RecordingCallbackContext cbc = new RecordingCallbackContext("features");
+		mController.setEventHandler("features", options, "1", cbc);
+		//x alternates between 3 and 0 for the first 8 samples and is 0 afterwards, z is always 4
+		for(int i = 0; i < 12; i++){
+			mController.onAccelerometerData(mMyo, timestampOf(i), new Vector3((i < 8 && i % 2 == 0) ? 3 : 0, 0, 4));
+		}
+		cbc.awaitResults(2); //When the window is full, and a hop later
+		cbc.assertNoMoreResults(2);
+
+		JSONObject event = cbc.getJson(0);
+		assertEquals(timestampOf(7), event.getLong("timestamp"));
+		assertEquals(8, event.getInt("window"));
+		assertFalse(event.has("gyro"));
+		JSONObject x = event.getJSONObject("accel").getJSONObject("x");
+		assertEquals(1.5, x.getDouble("mean"), DELTA);
+		assertEquals(Math.sqrt(4.5), x.getDouble("rms"), DELTA);
+		assertEquals(2.25, x.getDouble("variance"), DELTA);
+		assertEquals(7, x.getInt("zeroCrossings"));
+		assertEquals(3, x.getDouble("peak"), DELTA);
+		assertFalse(x.has("bands")); //Only for the magnitude
+		JSONObject y = event.getJSONObject("accel").getJSONObject("y");
+		assertEquals(0, y.getDouble("variance"), DELTA);
+		assertEquals(0, y.getInt("zeroCrossings"));
+		//The magnitude alternates between 5 and 4: all its energy is at the Nyquist frequency
+		JSONObject magnitude = event.getJSONObject("accel").getJSONObject("magnitude");
+		assertEquals(4.5, magnitude.getDouble("mean"), DELTA);
+		assertEquals(0.25, magnitude.getDouble("variance"), DELTA);
+		assertEquals(5, magnitude.getDouble("peak"), DELTA);
+		JSONArray bands = magnitude.getJSONArray("bands");
+		assertEquals(2, bands.length());
+		assertEquals(0, bands.getDouble(0), DELTA);
+		assertEquals(2, bands.getDouble(1), DELTA); //|X[4]|^2 / N = (8 * 0.5)^2 / 8
+
+		//Samples 4 to 11: 3, 0, 3, 0, 0, 0, 0, 0
+		event = cbc.getJson(1);
+		assertEquals(timestampOf(11), event.getLong("timestamp"));
+		x = event.getJSONObject("accel").getJSONObject("x");
+		assertEquals(0.75, x.getDouble("mean"), DELTA);
+		assertEquals(2.25 - 0.75 * 0.75, x.getDouble("variance"), DELTA);
+		assertEquals(3, x.getInt("zeroCrossings"));
+		assertEquals(3, x.getDouble("peak"), DELTA);
+	}
+
+	private static long timestampOf(int sample){
+		return sample * BenchmarkSupport.IMU_PERIOD_MS;
+	}
+
+}
@@ -0,0 +1,129 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.thalmic.myo.Myo;
+import com.thalmic.myo.Quaternion;
+import com.thalmic.myo.Vector3;
+
+/**
+ * "syncFrame" events of two devices whose samples are not aligned. There's no
+ * Hub, so the timestamps are not shifted by a clock offset.
+ *
+ */
+public class FrameSynchronizerTest{
+
+	private static final double DELTA = 1e-6;
+
+	private MyoEventController mController;
+	private Myo[] mDevices;
+
+	@Before
+	public void setUp(){
+		mController = new MyoEventController();
+		mDevices = BenchmarkSupport.newDevices(2);
+		for(Myo myo : mDevices){
+			mController.onAttach(myo, 0);
+			mController.onConnect(myo, 0);
+		}
+	}
+
+	@After
+	public void tearDown(){
+		mController.release();
+	}
+
+	@Test
+	public void samplesAreInterpolatedAtEachTick() throws Exception {
+		JSONObject options = new JSONObject().put("streams", new JSONArray().put("accel").put("rotation"))
+				.put("fields", new JSONArray().put("euler")).put("interval", 20).put("maxSkew", 40);
+		RecordingCallbackContext cbc = new RecordingCallbackContext("syncFrame");
+		mController.setEventHandler("syncFrame", options, "1", cbc);
+		//The first device every 20 ms from 0 to 240, the second one 10 ms later until 90
+		for(long t = 0; t <= 240; t += 20){
+			send(0, t);
+			if(t + 10 <= 90){
+				send(1, t + 10);
+			}
+		}
+		//Ticks from the first sample minus the skew, until the newest sample minus the skew
+		int ticks = 13;
+		cbc.awaitResults(ticks);
+		cbc.assertNoMoreResults(ticks);
+		for(int i = 0; i < ticks; i++){
+			JSONObject frame = cbc.getJson(i);
+			assertEquals(-40 + 20 * i, frame.getLong("timestamp"));
+			assertEquals(2, frame.getJSONArray("devices").length());
+		}
+
+		JSONArray devices = cbc.getJson(4).getJSONArray("devices"); //Tick 40
+		JSONObject first = devices.getJSONObject(0);
+		assertEquals(0, first.getJSONArray("myo").getInt(3));
+		assertEquals(40, first.getJSONObject("accel").getDouble("x"), DELTA);
+		assertEquals(yawAt(0, 40), first.getJSONObject("rotation").getDouble("yaw"), DELTA);
+		JSONObject second = devices.getJSONObject(1); //Between its samples at 30 and 50
+		assertEquals(1, second.getJSONArray("myo").getInt(3));
+		assertEquals(40, second.getJSONObject("accel").getDouble("x"), DELTA);
+		assertEquals(yawAt(1, 40), second.getJSONObject("rotation").getDouble("yaw"), DELTA); //SLERP
+
+		devices = cbc.getJson(10).getJSONArray("devices"); //Tick 160
+		assertEquals(160, devices.getJSONObject(0).getJSONObject("accel").getDouble("x"), DELTA);
+		second = devices.getJSONObject(1); //No samples within the skew
+		assertTrue(second.isNull("accel"));
+		assertTrue(second.isNull("rotation"));
+	}
+
+	@Test
+	public void clockOffsetFollowsTheMinimumDelay(){
+		MyoEventController.MyoWithJson myoWithJson = new MyoEventController.MyoWithJson(mDevices[0], 0);
+		FrameSynchronizer.updateClockOffset(myoWithJson, 100, 150);
+		assertEquals(50, myoWithJson.clockOffset, DELTA);
+		FrameSynchronizer.updateClockOffset(myoWithJson, 120, 180); //Queued for longer: followed slowly
+		assertEquals(50.1, myoWithJson.clockOffset, DELTA);
+		FrameSynchronizer.updateClockOffset(myoWithJson, 140, 170); //Less delay than ever seen
+		assertEquals(30, myoWithJson.clockOffset, DELTA);
+	}
+
+	//Accelerometer x is the timestamp, and orientations turn around Z in opposite directions
+	private void send(int myo, long t){
+		double yaw = yawAt(myo, t);
+		mController.onAccelerometerData(mDevices[myo], t, new Vector3(t, 0, 0));
+		mController.onOrientationData(mDevices[myo], t, new Quaternion(0, 0, Math.sin(yaw / 2), Math.cos(yaw / 2)));
+	}
+
+	private static double yawAt(int myo, long t){
+		return ((myo == 0) ? 1 : -1) * t / 100.0;
+	}
+
+}
@@ -0,0 +1,125 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import static org.junit.Assert.assertEquals;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.thalmic.myo.Myo;
+import com.thalmic.myo.Pose;
+import com.thalmic.myo.Quaternion;
+
+/**
+ * Gestures detected from the pose events: hold times, gaps between the steps
+ * of a sequence and orientation ranges.
+ *
+ */
+public class GestureDetectorTest{
+
+	private MyoEventController mController;
+	private Myo mMyo;
+	private RecordingCallbackContext mGestures;
+
+	@Before
+	public void setUp(){
+		mController = new MyoEventController();
+		mMyo = BenchmarkSupport.newDevices(1)[0];
+		mController.onAttach(mMyo, 0);
+		mController.onConnect(mMyo, 0);
+		mGestures = new RecordingCallbackContext("gesture");
+		mController.setEventHandler("gesture", null, "1", mGestures);
+	}
+
+	@After
+	public void tearDown(){
+		mController.release();
+	}
+
+	@Test
+	public void sequenceIsDetectedWhenItsLastPoseIsHeld() throws Exception {
+		setGestures(new JSONObject().put("name", "fistThenSpread")
+				.put("poses", new JSONArray().put("FIST").put("FINGERS_SPREAD")).put("hold", 200).put("gap", 1000));
+		hold(Pose.FIST, 0, 100); //Too short
+		hold(Pose.FIST, 1000, 300); //First step completed at 1200
+		hold(Pose.FINGERS_SPREAD, 2500, 300); //Too late after the first step
+		hold(Pose.FIST, 3000, 300); //First step completed at 3200
+		hold(Pose.FINGERS_SPREAD, 3500, 300); //Completed at 3700
+		mGestures.awaitResults(1);
+		mGestures.assertNoMoreResults(1);
+		JSONObject event = mGestures.getJson(0);
+		assertEquals("fistThenSpread", event.getString("gesture"));
+		assertEquals(3700, event.getLong("timestamp"));
+		assertEquals(0, event.getJSONArray("myo").getInt(3));
+	}
+
+	@Test
+	public void orientationRangeIsCheckedWhenCompleted() throws Exception {
+		setGestures(new JSONObject().put("name", "raisedFist").put("poses", new JSONArray().put("FIST"))
+				.put("pitch", new JSONArray().put(0.5).put(1.5)));
+		RecordingCallbackContext orientation = new RecordingCallbackContext("orientation");
+		mController.setEventHandler("orientationData", null, "2", orientation);
+
+		sendPitch(0, 5, 1.0);
+		orientation.awaitResults(5); //So that the pose waits for the next sample
+		mController.onPose(mMyo, 100, Pose.FIST);
+		sendPitch(5, 1, 1.0);
+		mGestures.awaitResults(1);
+		mController.onPose(mMyo, 120, Pose.REST);
+
+		sendPitch(6, 5, 0);
+		orientation.awaitResults(11);
+		mController.onPose(mMyo, 220, Pose.FIST); //Not raised
+		sendPitch(11, 1, 0);
+		orientation.awaitResults(12);
+		mGestures.assertNoMoreResults(1);
+		assertEquals("raisedFist", mGestures.getJson(0).getString("gesture"));
+		assertEquals(100, mGestures.getJson(0).getLong("timestamp"));
+	}
+
+	private void setGestures(JSONObject definition) throws Exception {
+		RecordingCallbackContext cbc = new RecordingCallbackContext("setGestures");
+		mController.setGestures(new JSONArray().put(definition), cbc);
+		assertEquals(1, cbc.size());
+	}
+
+	private void hold(Pose pose, long start, long duration){
+		mController.onPose(mMyo, start, pose);
+		mController.onPose(mMyo, start + duration, Pose.REST);
+	}
+
+	//Orientation samples every 20 ms, rotated around the Y axis
+	private void sendPitch(int first, int count, double pitch){
+		for(int i = first; i < first + count; i++){
+			mController.onOrientationData(mMyo, i * BenchmarkSupport.IMU_PERIOD_MS,
+					new Quaternion(0, Math.sin(pitch / 2), 0, Math.cos(pitch / 2)));
+		}
+	}
+
+}
@@ -0,0 +1,264 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import com.thalmic.myo.Myo;
+import com.thalmic.myo.Vector3;
+
+/**
+ * Loopback WebSocket server, with a minimal client written against RFC 6455
+ * over a plain socket, so that no WebSocket library is needed.
+ *
+ */
+public class LoopbackStreamServerTest{
+
+	private static final int SOCKET_TIMEOUT_MS = 5000;
+	//Example of RFC 6455, section 1.3
+	private static final String WS_KEY = "dGhlIHNhbXBsZSBub25jZQ==";
+	private static final String WS_ACCEPT = "s3pPLMBiTxaQ9kYGzzhZRbK+xOo=";
+
+	private MyoEventController mController = null;
+	private LoopbackStreamServer mServer = null;
+
+	@After
+	public void tearDown(){
+		if(mController != null){
+			mController.release();
+		}
+		if(mServer != null){
+			mServer.stop();
+		}
+	}
+
+	@Test
+	public void streamsSensorSamplesAsBinaryRecords() throws Exception {
+		mController = new MyoEventController();
+		Myo myo = BenchmarkSupport.newDevices(1)[0];
+		mController.onAttach(myo, 0);
+		mController.onConnect(myo, 0);
+		RecordingCallbackContext cbc = new RecordingCallbackContext("streaming");
+		mController.startStreaming(new JSONObject().put("streams", new JSONArray().put("accel")), cbc);
+		cbc.awaitResults(1);
+		String url = cbc.getJson(0).getString("url");
+		int port = Integer.parseInt(url.substring("ws://127.0.0.1:".length(), url.lastIndexOf('/')));
+		WsClient client = new WsClient(port);
+		String response = client.handshake(url.substring(url.lastIndexOf('/')));
+		assertTrue(response, response.startsWith("HTTP/1.1 101 "));
+		assertTrue(response, response.contains("Sec-WebSocket-Accept: " + WS_ACCEPT + "\r\n"));
+
+		int count = 3;
+		for(int i = 0; i < count; i++){
+			mController.onAccelerometerData(myo, i * BenchmarkSupport.IMU_PERIOD_MS, new Vector3(i, -i, 0.5));
+			mController.onGyroscopeData(myo, i * BenchmarkSupport.IMU_PERIOD_MS, new Vector3(1, 1, 1)); //Not streamed
+		}
+		ByteBuffer records = client.readRecords(count * (BinaryEncoder.HEADER_SIZE + 3 * 4));
+		for(int i = 0; i < count; i++){
+			assertEquals(BinaryEncoder.TYPE_ACCELEROMETER, records.get());
+			assertEquals(0, records.get()); //Myo index
+			assertEquals(3, records.get()); //Components
+			assertEquals(0, records.get());
+			assertEquals(i * BenchmarkSupport.IMU_PERIOD_MS, records.getDouble(), 0);
+			assertEquals(i, records.getFloat(), 0);
+			assertEquals(-i, records.getFloat(), 0);
+			assertEquals(0.5, records.getFloat(), 0);
+		}
+		assertEquals(0, records.remaining());
+		client.close();
+	}
+
+	@Test
+	public void closeFrameIsEchoedAndConnectionClosed() throws Exception {
+		mServer = LoopbackStreamServer.start(null);
+		WsClient client = connect();
+		client.sendFrame(0x8, new byte[]{0x03, (byte)0xE8}); //Normal closure (1000)
+		Frame frame = client.readFrame();
+		assertEquals(0x8, frame.opcode);
+		assertEquals(2, frame.payload.length);
+		assertEquals(1000, ((frame.payload[0] & 0xFF) << 8) | (frame.payload[1] & 0xFF));
+		assertTrue(client.isClosedByServer());
+	}
+
+	@Test
+	public void pingIsAnswered() throws Exception {
+		mServer = LoopbackStreamServer.start(null);
+		WsClient client = connect();
+		client.sendFrame(0x9, new byte[]{1, 2, 3});
+		Frame frame = client.readFrame();
+		assertEquals(0xA, frame.opcode);
+		assertEquals(3, frame.payload.length);
+		assertEquals(3, frame.payload[2]);
+		client.close();
+	}
+
+	@Test
+	public void wrongTokenIsRejected() throws Exception {
+		mServer = LoopbackStreamServer.start(null);
+		WsClient client = new WsClient(mServer.getPort());
+		String response = client.handshake("/wrong");
+		assertTrue(response, response.startsWith("HTTP/1.1 403 "));
+		assertTrue(client.isClosedByServer());
+		assertEquals(0, mServer.getSummary().getInt("clients"));
+	}
+
+	@Test
+	public void malformedFrameOnlyClosesItsClient() throws Exception {
+		mServer = LoopbackStreamServer.start(null);
+		WsClient good = connect();
+		WsClient bad = connect();
+		//Ping with a 64-bit length which is negative as a signed long
+		bad.sendRaw(new byte[]{(byte)0x89, (byte)0xFF, -1, -1, -1, -1, -1, -1, -1, -1, 1, 2, 3, 4});
+		assertTrue(bad.isClosedByServer());
+
+		ByteBuffer record = BinaryEncoder.allocate(BinaryEncoder.MAX_RECORD_SIZE);
+		SensorSample sample = new SensorSample(EventType.GYROSCOPE, "gyro");
+		sample.set(40, 3, 1, 2, 3, 0);
+		BinaryEncoder.put(record, 1, sample);
+		record.flip();
+		mServer.offer(record);
+		ByteBuffer records = good.readRecords(BinaryEncoder.HEADER_SIZE + 3 * 4);
+		assertEquals(BinaryEncoder.TYPE_GYROSCOPE, records.get());
+		assertEquals(1, records.get());
+		assertEquals(1, mServer.getSummary().getInt("clients"));
+		good.close();
+	}
+
+	private WsClient connect() throws Exception {
+		String url = mServer.getSummary().getString("url");
+		WsClient res = new WsClient(mServer.getPort());
+		String response = res.handshake(url.substring(url.lastIndexOf('/')));
+		assertTrue(response, response.startsWith("HTTP/1.1 101 "));
+		return res;
+	}
+
+	private static class Frame{
+		final int opcode;
+		final byte[] payload;
+		Frame(int opcode, byte[] payload) {
+			this.opcode = opcode;
+			this.payload = payload;
+		}
+	}
+
+	private static class WsClient{
+
+		private static final byte[] MASK = {0x11, 0x22, 0x33, 0x44};
+
+		private final Socket mSocket;
+		private final DataInputStream mIn;
+		private final OutputStream mOut;
+
+		WsClient(int port) throws IOException {
+			mSocket = new Socket("127.0.0.1", port);
+			mSocket.setSoTimeout(SOCKET_TIMEOUT_MS);
+			mIn = new DataInputStream(mSocket.getInputStream());
+			mOut = mSocket.getOutputStream();
+		}
+
+		//Returns the response headers
+		String handshake(String path) throws IOException {
+			String request = "GET " + path + " HTTP/1.1\r\nHost: 127.0.0.1\r\nUpgrade: websocket\r\n"
+					+ "Connection: Upgrade\r\nSec-WebSocket-Key: " + WS_KEY + "\r\nSec-WebSocket-Version: 13\r\n\r\n";
+			sendRaw(request.getBytes("ISO-8859-1"));
+			ByteArrayOutputStream response = new ByteArrayOutputStream();
+			while(!response.toString("ISO-8859-1").endsWith("\r\n\r\n")){
+				response.write(mIn.readUnsignedByte());
+			}
+			return response.toString("ISO-8859-1");
+		}
+
+		//Server frames are not masked
+		Frame readFrame() throws IOException {
+			int opcode = mIn.readUnsignedByte() & 0x0F;
+			long length = mIn.readUnsignedByte() & 0x7F;
+			if(length == 126){
+				length = mIn.readUnsignedShort();
+			}else if(length == 127){
+				length = mIn.readLong();
+			}
+			byte[] payload = new byte[(int)length];
+			mIn.readFully(payload);
+			return new Frame(opcode, payload);
+		}
+
+		//Reads binary messages until the given number of bytes of records
+		ByteBuffer readRecords(int size) throws IOException {
+			ByteArrayOutputStream records = new ByteArrayOutputStream();
+			while(records.size() < size){
+				Frame frame = readFrame();
+				assertEquals(0x2, frame.opcode);
+				records.write(frame.payload);
+			}
+			return ByteBuffer.wrap(records.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+		}
+
+		//Client frames must be masked
+		void sendFrame(int opcode, byte[] payload) throws IOException {
+			byte[] frame = new byte[6 + payload.length];
+			frame[0] = (byte)(0x80 | opcode);
+			frame[1] = (byte)(0x80 | payload.length);
+			System.arraycopy(MASK, 0, frame, 2, 4);
+			for(int i = 0; i < payload.length; i++){
+				frame[6 + i] = (byte)(payload[i] ^ MASK[i & 3]);
+			}
+			sendRaw(frame);
+		}
+
+		void sendRaw(byte[] data) throws IOException {
+			mOut.write(data);
+			mOut.flush();
+		}
+
+		boolean isClosedByServer() throws IOException {
+			try{
+				return mIn.read() < 0;
+			}catch(SocketException e){ //Reset
+				return true;
+			}
+		}
+
+		void close() throws IOException {
+			mSocket.close();
+		}
+
+	}
+
+}
@@ -0,0 +1,108 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import static org.junit.Assert.assertEquals;
+
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.thalmic.myo.Myo;
+import com.thalmic.myo.Quaternion;
+
+/**
+ * Relative and smoothed orientations delivered through the MyoEventController,
+ * alone and together with the other per-handler filters.
+ *
+ */
+public class OrientationFilterTest{
+
+	private static final double EPSILON = 1e-9;
+	private static final double HALF_SQRT2 = Math.sqrt(0.5);
+
+	private MyoEventController mController;
+	private Myo mMyo;
+
+	@Before
+	public void setUp(){
+		mController = new MyoEventController();
+		mMyo = BenchmarkSupport.newDevices(1)[0];
+		mController.onAttach(mMyo, 0);
+		mController.onConnect(mMyo, 0);
+	}
+
+	@After
+	public void tearDown(){
+		mController.release();
+	}
+
+	@Test
+	public void relativeOrientationIsRateLimited() throws Exception {
+		RecordingCallbackContext cbc = subscribe(new JSONObject().put("relative", true).put("rate", 10));
+		sendReferenceSamples(10);
+		cbc.awaitResults(2); //One per window of 100 ms
+		cbc.assertNoMoreResults(2);
+		for(int i = 0; i < 2; i++){
+			assertIdentity(cbc.getJson(i));
+			assertEquals(100L * i, cbc.getJson(i).getLong("timestamp"));
+		}
+	}
+
+	@Test
+	public void smoothedRelativeOrientationIsAveraged() throws Exception {
+		RecordingCallbackContext cbc = subscribe(new JSONObject().put("relative", true).put("smoothing", 0.5)
+				.put("rate", 10).put("policy", "average"));
+		sendReferenceSamples(10);
+		cbc.awaitResults(1); //The average of a window is delivered with the first sample of the next one
+		cbc.assertNoMoreResults(1);
+		assertIdentity(cbc.getJson(0));
+	}
+
+	private RecordingCallbackContext subscribe(JSONObject options) throws Exception {
+		RecordingCallbackContext cbc = new RecordingCallbackContext("orientation");
+		mController.setEventHandler("orientationData", options, "1", cbc);
+		mController.setReferenceOrientation(mMyo, new JSONObject().put("x", 0).put("y", 0).put("z", HALF_SQRT2)
+				.put("w", HALF_SQRT2), new RecordingCallbackContext("reference"));
+		return cbc;
+	}
+
+	//Samples equal to the reference, so the relative orientation is the identity
+	private void sendReferenceSamples(int count){
+		for(int i = 0; i < count; i++){
+			mController.onOrientationData(mMyo, i * BenchmarkSupport.IMU_PERIOD_MS, new Quaternion(0, 0, HALF_SQRT2, HALF_SQRT2));
+		}
+	}
+
+	private static void assertIdentity(JSONObject event) throws Exception {
+		JSONObject rotation = event.getJSONObject("rotation");
+		assertEquals(0, rotation.getDouble("x"), EPSILON);
+		assertEquals(0, rotation.getDouble("y"), EPSILON);
+		assertEquals(0, rotation.getDouble("z"), EPSILON);
+		assertEquals(1, Math.abs(rotation.getDouble("w")), EPSILON);
+	}
+
+}
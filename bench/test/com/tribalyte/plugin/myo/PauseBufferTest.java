@@ -0,0 +1,142 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.thalmic.myo.Myo;
+import com.thalmic.myo.Vector3;
+
+/**
+ * Pause policies of the sensor handlers, through the MyoEventController.
+ *
+ */
+public class PauseBufferTest{
+
+	private MyoEventController mController;
+	private Myo mMyo;
+
+	@Before
+	public void setUp(){
+		mController = new MyoEventController();
+		mMyo = BenchmarkSupport.newDevices(1)[0];
+		mController.onAttach(mMyo, 0);
+		mController.onConnect(mMyo, 0);
+	}
+
+	@After
+	public void tearDown(){
+		mController.release();
+	}
+
+	@Test
+	public void bufferedSamplesAreDeliveredBeforeLiveOnes() throws Exception {
+		RecordingCallbackContext cbc = subscribe("buffer");
+		mController.setPaused(true);
+		sendSamples(0, 5);
+		mController.setPaused(false);
+		sendSamples(5, 2);
+		cbc.awaitResults(3);
+		cbc.assertNoMoreResults(3);
+		JSONArray samples = cbc.getJson(0).getJSONArray("samples");
+		assertEquals(5, samples.length());
+		for(int i = 0; i < samples.length(); i++){
+			assertEquals(timestampOf(i), samples.getJSONObject(i).getLong("timestamp"));
+		}
+		assertEquals(timestampOf(5), cbc.getJson(1).getLong("timestamp"));
+		assertEquals(timestampOf(6), cbc.getJson(2).getLong("timestamp"));
+	}
+
+	@Test
+	public void bufferIsEmptyAfterResume() throws Exception {
+		RecordingCallbackContext cbc = subscribe("buffer");
+		mController.setPaused(true);
+		sendSamples(0, 3);
+		mController.setPaused(false);
+		cbc.awaitResults(1);
+		mController.setPaused(true);
+		mController.setPaused(false);
+		cbc.assertNoMoreResults(1); //Nothing was left behind by the first flush
+	}
+
+	@Test
+	public void droppedSamplesAreNotDelivered() throws Exception {
+		RecordingCallbackContext cbc = subscribe("drop");
+		mController.setPaused(true);
+		sendSamples(0, 3);
+		mController.setPaused(false);
+		sendSamples(3, 1);
+		cbc.awaitResults(1);
+		cbc.assertNoMoreResults(1);
+		assertEquals(timestampOf(3), cbc.getJson(0).getLong("timestamp"));
+		assertFalse(cbc.getJson(0).has("samples"));
+	}
+
+	@Test
+	public void samplesOfReplacedDeviceAreDelivered() throws Exception {
+		RecordingCallbackContext cbc = subscribe("buffer");
+		mController.setPaused(true);
+		sendSamples(0, 2);
+		mController.onDisconnect(mMyo, timestampOf(2));
+		mController.onDetach(mMyo, timestampOf(2));
+		Myo other = BenchmarkSupport.newDevices(1)[0]; //Takes the free slot
+		mController.onAttach(other, timestampOf(3));
+		mController.onConnect(other, timestampOf(3));
+		mController.onAccelerometerData(other, timestampOf(4), new Vector3(4, 0, 0));
+		mController.setPaused(false);
+		cbc.awaitResults(2);
+		cbc.assertNoMoreResults(2);
+		JSONArray samples = cbc.getJson(0).getJSONArray("samples");
+		assertEquals(2, samples.length());
+		assertEquals(timestampOf(1), samples.getJSONObject(1).getLong("timestamp"));
+		samples = cbc.getJson(1).getJSONArray("samples");
+		assertEquals(1, samples.length());
+		assertEquals(timestampOf(4), samples.getJSONObject(0).getLong("timestamp"));
+	}
+
+	private RecordingCallbackContext subscribe(String policy) throws Exception {
+		RecordingCallbackContext cbc = new RecordingCallbackContext("accel");
+		mController.setEventHandler("accelerometerData", new JSONObject().put("onPause", policy), "1", cbc);
+		return cbc;
+	}
+
+	private void sendSamples(int first, int count){
+		for(int i = first; i < first + count; i++){
+			mController.onAccelerometerData(mMyo, timestampOf(i), new Vector3(i, 0, 0));
+		}
+	}
+
+	private static long timestampOf(int sample){
+		return sample * BenchmarkSupport.IMU_PERIOD_MS;
+	}
+
+}
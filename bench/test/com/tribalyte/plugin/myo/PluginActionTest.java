@@ -0,0 +1,143 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.cordova.CallbackContext;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Test;
+
+import com.thalmic.myo.Myo;
+
+/**
+ * The "batch" action and the "*" target of the Myo actions, whose results
+ * are collected by PluginAction.ResultCollector.
+ *
+ */
+public class PluginActionTest{
+
+	private MyoApi mPlugin = null;
+	private MyoEventController mController = null;
+
+	@After
+	public void tearDown(){
+		if(mPlugin != null){
+			mPlugin.onDestroy();
+		}
+		if(mController != null){
+			mController.release();
+		}
+	}
+
+	@Test
+	public void batchCollectsTheResultOfEachCommand() throws Exception {
+		mPlugin = new MyoApi();
+		mPlugin.initialize(null, null);
+		JSONArray commands = new JSONArray()
+				.put(command("setMetricsEnabled", new JSONArray().put(false))) //Only a status
+				.put(command("setLogLevel", new JSONArray().put("loud"))) //Error message
+				.put(command("getDispatchStats", null)) //JSON result
+				.put(command("myo_isConnected", new JSONArray().put(PluginAction.ALL_MYOS))) //No devices
+				.put(command("on", new JSONArray().put("pose"))) //Keeps its callback
+				.put(command("unknown", null));
+		RecordingCallbackContext cbc = new RecordingCallbackContext("batch");
+		assertTrue(mPlugin.execute("batch", new JSONArray().put(commands), cbc));
+		assertEquals(1, cbc.size());
+		JSONArray results = new JSONArray(cbc.get(0).getMessage());
+		assertEquals(commands.length(), results.length());
+
+		assertTrue(results.getJSONObject(0).getBoolean("ok"));
+		assertFalse(results.getJSONObject(0).has("result"));
+		assertFalse(results.getJSONObject(1).getBoolean("ok"));
+		assertEquals("Unsupported log level loud", results.getJSONObject(1).getString("error"));
+		assertTrue(results.getJSONObject(2).getBoolean("ok"));
+		assertTrue(results.getJSONObject(2).get("result") instanceof JSONObject);
+		assertTrue(results.getJSONObject(3).getBoolean("ok"));
+		assertEquals(0, results.getJSONObject(3).getJSONArray("result").length());
+		assertEquals("Action not supported in batch: on", results.getJSONObject(4).getString("error"));
+		assertEquals("Action not supported in batch: unknown", results.getJSONObject(5).getString("error"));
+	}
+
+	@Test
+	public void allMyosTargetRunsOnEachConnectedDevice() throws Exception {
+		mController = new MyoEventController();
+		Myo[] devices = BenchmarkSupport.newDevices(3);
+		for(int i = 0; i < devices.length; i++){
+			mController.onAttach(devices[i], 0);
+		}
+		mController.onConnect(devices[0], 0);
+		mController.onConnect(devices[2], 0);
+		PluginAction action = new PluginAction.MyoAction(PluginAction.ExecMode.INLINE, mController) {
+			void run(Myo myo, JSONArray args, CallbackContext cbc) {
+				String result = args.optString(1);
+				if(result.equals("name")){
+					cbc.success(myo.getName());
+				}else if(result.equals("binary")){
+					cbc.success(new byte[]{1, 2, 3});
+				}else if(result.equals("error")){
+					cbc.error(myo.getMacAddress());
+				}else{
+					cbc.success();
+				}
+			}
+		};
+
+		JSONArray results = runOnAll(action, "name");
+		assertEquals(2, results.length());
+		assertEquals(0, results.getJSONObject(0).getInt("index"));
+		assertEquals(devices[0].getName(), results.getJSONObject(0).getString("result"));
+		assertEquals(2, results.getJSONObject(1).getInt("index"));
+		assertEquals(devices[2].getName(), results.getJSONObject(1).getString("result"));
+
+		results = runOnAll(action, "binary");
+		assertEquals("AQID", results.getJSONObject(0).getString("result")); //Base64
+
+		results = runOnAll(action, "error");
+		assertFalse(results.getJSONObject(1).getBoolean("ok"));
+		assertEquals(devices[2].getMacAddress(), results.getJSONObject(1).getString("error"));
+
+		results = runOnAll(action, "status");
+		assertTrue(results.getJSONObject(0).getBoolean("ok"));
+		assertFalse(results.getJSONObject(0).has("result"));
+	}
+
+	private static JSONObject command(String action, JSONArray args) throws Exception {
+		JSONObject res = new JSONObject().put("action", action);
+		return (args != null) ? res.put("args", args) : res;
+	}
+
+	private static JSONArray runOnAll(PluginAction action, String result) throws Exception {
+		RecordingCallbackContext cbc = new RecordingCallbackContext("all");
+		action.run(new JSONArray().put(PluginAction.ALL_MYOS).put(result), cbc);
+		assertEquals(1, cbc.size());
+		return new JSONArray(cbc.get(0).getMessage());
+	}
+
+}
@@ -0,0 +1,93 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Keeps the results delivered to a handler, so that tests can wait for the
+ * dispatcher thread and check them. The stub PluginResult has already encoded
+ * the message: JSON as text and binary results as Base64.
+ *
+ */
+class RecordingCallbackContext extends CallbackContext{
+
+	private static final long AWAIT_TIMEOUT_MS = 5000;
+
+	private final List<PluginResult> mResults = new ArrayList<PluginResult>();
+
+	RecordingCallbackContext(String callbackId) {
+		super(callbackId, null);
+	}
+
+	@Override
+	public void sendPluginResult(PluginResult pluginResult) {
+		super.sendPluginResult(pluginResult);
+		synchronized(this){
+			mResults.add(pluginResult);
+			notifyAll();
+		}
+	}
+
+	synchronized int size(){
+		return mResults.size();
+	}
+
+	synchronized PluginResult get(int index){
+		return mResults.get(index);
+	}
+
+	JSONObject getJson(int index) throws JSONException {
+		return new JSONObject(get(index).getMessage());
+	}
+
+	//Waits until at least the given number of results has been delivered
+	synchronized void awaitResults(int count) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(AWAIT_TIMEOUT_MS);
+		while(mResults.size() < count){
+			long left = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+			if(left <= 0){
+				throw new AssertionError("Timed out waiting for results: " + mResults.size() + "/" + count);
+			}
+			wait(left);
+		}
+	}
+
+	//Waits a little to make sure that no more results are delivered
+	void assertNoMoreResults(int count) throws InterruptedException {
+		Thread.sleep(100);
+		if(size() != count){
+			throw new AssertionError("Expected " + count + " results but got " + size());
+		}
+	}
+
+}
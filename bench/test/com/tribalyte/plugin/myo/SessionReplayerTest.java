@@ -0,0 +1,141 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.thalmic.myo.Hub;
+import com.thalmic.myo.Myo;
+import com.thalmic.myo.Pose;
+import com.thalmic.myo.Vector3;
+
+/**
+ * Round trip of a session: recorded by SessionRecorder, replayed through a
+ * MyoEventController by SessionReplayer and delivered to the event handlers.
+ *
+ */
+public class SessionReplayerTest{
+
+	private static final int SAMPLES = 10;
+	private static final long FIRST_TIMESTAMP = 1000;
+	private static final long POSE_TIMESTAMP = FIRST_TIMESTAMP + SAMPLES * BenchmarkSupport.IMU_PERIOD_MS;
+
+	private File mFile;
+	private MyoEventController mController;
+
+	@Before
+	public void setUp() throws Exception {
+		mFile = File.createTempFile("session", ".myorec");
+		MyoEventController recorded = new MyoEventController();
+		Myo myo = BenchmarkSupport.newDevices(1)[0];
+		recorded.onAttach(myo, 0);
+		recorded.onConnect(myo, 0);
+		JSONObject options = new JSONObject().put("path", mFile.getPath())
+				.put("events", new JSONArray().put("accelerometerData").put("pose"));
+		SessionRecorder recorder = SessionRecorder.start(recorded.getMyoRegistry(), null, FIRST_TIMESTAMP, options);
+		for(int i = 0; i < SAMPLES; i++){
+			recorder.onAccelerometerData(myo, timestampOf(i), new Vector3(i, -i, 0.5));
+			recorder.onGyroscopeData(myo, timestampOf(i), new Vector3(1, 1, 1)); //Not recorded
+		}
+		recorder.onPose(myo, POSE_TIMESTAMP, Pose.FIST);
+		assertEquals(SAMPLES + 1, recorder.stop().getInt("records"));
+		recorded.release();
+		mController = new MyoEventController();
+	}
+
+	@After
+	public void tearDown(){
+		mController.release();
+		mFile.delete();
+	}
+
+	@Test
+	public void replaysAsFastAsPossible() throws Exception {
+		replayAndCheck(0);
+	}
+
+	@Test
+	public void replaysInRealTime() throws Exception {
+		long startNs = System.nanoTime();
+		replayAndCheck(1);
+		long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
+		assertTrue("Replayed in " + elapsedMs + " ms", elapsedMs >= POSE_TIMESTAMP - FIRST_TIMESTAMP);
+	}
+
+	private void replayAndCheck(double speed) throws Exception {
+		RecordingCallbackContext accel = new RecordingCallbackContext("accel");
+		mController.setEventHandler("accelerometerData", null, "1", accel);
+		RecordingCallbackContext gyro = new RecordingCallbackContext("gyro");
+		mController.setEventHandler("gyroscopeData", null, "2", gyro);
+		RecordingCallbackContext pose = new RecordingCallbackContext("pose");
+		mController.setEventHandler("pose", null, "3", pose);
+
+		final CountDownLatch finished = new CountDownLatch(1);
+		SessionReplayer replayer = SessionReplayer.open(mController, Hub.getInstance(),
+				new JSONObject().put("path", mFile.getPath()).put("speed", speed));
+		replayer.start(new Runnable() {
+			public void run() {
+				finished.countDown();
+			}
+		});
+		assertTrue(finished.await(5, TimeUnit.SECONDS));
+		assertEquals(SAMPLES + 1, replayer.getSummary().getLong("replayed"));
+
+		accel.awaitResults(SAMPLES);
+		pose.awaitResults(1);
+		accel.assertNoMoreResults(SAMPLES);
+		pose.assertNoMoreResults(1);
+		gyro.assertNoMoreResults(0);
+		//Timestamps are shifted to the Hub clock, keeping the recorded intervals
+		long offset = accel.getJson(0).getLong("timestamp") - FIRST_TIMESTAMP;
+		for(int i = 0; i < SAMPLES; i++){
+			JSONObject event = accel.getJson(i);
+			assertEquals("02:00:00:00:00:00", event.getJSONArray("myo").getString(1));
+			assertEquals(timestampOf(i) + offset, event.getLong("timestamp"));
+			JSONObject values = event.getJSONObject("accel");
+			assertEquals(i, values.getDouble("x"), 0);
+			assertEquals(-i, values.getDouble("y"), 0);
+			assertEquals(0.5, values.getDouble("z"), 0);
+		}
+		assertEquals(POSE_TIMESTAMP + offset, pose.getJson(0).getLong("timestamp"));
+		assertEquals(Pose.FIST.name(), pose.getJson(0).getString("pose"));
+	}
+
+	private static long timestampOf(int sample){
+		return FIRST_TIMESTAMP + sample * BenchmarkSupport.IMU_PERIOD_MS;
+	}
+
+}
@@ -0,0 +1,71 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+/**
+ * Counters of the objects allocated by the sensor event path. Apart from the
+ * payloads sent to JavaScript, the number of allocations is expected to stay
+ * constant once the buffers have reached their working size.
+ *
+ */
+final class AllocationStats{
+
+	private static final AtomicLong sPayloads = new AtomicLong();
+	private static final AtomicLong sBuffers = new AtomicLong();
+
+	private AllocationStats(){
+	}
+
+	//Payload (and its PluginResult) sent through the bridge
+	static void payloadAllocated(){
+		sPayloads.incrementAndGet();
+	}
+
+	//Buffer created or grown, including the batches created for a new Myo
+	static void bufferAllocated(){
+		sBuffers.incrementAndGet();
+	}
+
+	static JSONObject toJson(){
+		JSONObject res = new JSONObject();
+		try{
+			res.put("payloads", sPayloads.get());
+			res.put("buffers", sBuffers.get());
+		}catch(Exception e){
+			//Not expected, as all the values are numbers
+		}
+		return res;
+	}
+
+	static void reset(){
+		sPayloads.set(0);
+		sBuffers.set(0);
+	}
+
+}
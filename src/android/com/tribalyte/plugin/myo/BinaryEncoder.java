@@ -0,0 +1,113 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Library class which writes the sensor events in a compact binary format,
+ * delivered to JavaScript as an ArrayBuffer instead of a JSON object.
+ *
+ * Each event is a little endian record with the following layout:
+ * <pre>
+ * offset  size  content
+ * 0       1     event type (one of the TYPE_* constants)
+ * 1       1     index of the Myo which originated the event
+ * 2       1     number of components (N)
+ * 3       1     reserved (0)
+ * 4       8     timestamp in milliseconds (float64)
+ * 12      4*N   components (float32): x, y, z for vectors, x, y, z, w for
+ *               quaternions and the value itself for RSSI
+ * </pre>
+ * Batches are just the concatenation of several records, and so are motion
+ * frames (one record per stream, with the same timestamp).
+ *
+ */
+final class BinaryEncoder{
+
+	static final int TYPE_ACCELEROMETER = 1;
+	static final int TYPE_GYROSCOPE = 2;
+	static final int TYPE_ORIENTATION = 3;
+	static final int TYPE_RSSI = 4;
+	static final int TYPE_POSE = 5; //Only in recordings. The value is the ordinal of the Pose
+
+	static final int HEADER_SIZE = 12;
+	static final int MAX_RECORD_SIZE = HEADER_SIZE + 4 * 4;
+	static final int MAX_FRAME_SIZE = 3 * MAX_RECORD_SIZE; //Motion frames are one record per stream
+
+	private BinaryEncoder(){
+	}
+
+	//Returns 0 if the event type has no binary representation
+	static int typeOf(EventType type){
+		int res = 0;
+		switch(type){
+		case ACCELEROMETER:
+			res = TYPE_ACCELEROMETER;
+			break;
+		case GYROSCOPE:
+			res = TYPE_GYROSCOPE;
+			break;
+		case ORIENTATION:
+			res = TYPE_ORIENTATION;
+			break;
+		case RSSI:
+			res = TYPE_RSSI;
+			break;
+		case POSE:
+			res = TYPE_POSE;
+			break;
+		default:
+			break;
+		}
+		return res;
+	}
+
+	static ByteBuffer allocate(int capacity){
+		return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	static void put(ByteBuffer dst, int myoIndex, SensorSample sample){
+		putHeader(dst, sample.binaryType, myoIndex, sample.count, sample.timestamp);
+		dst.putFloat((float)sample.x);
+		if(sample.count > 1){
+			dst.putFloat((float)sample.y);
+			dst.putFloat((float)sample.z);
+		}
+		if(sample.count > 3){
+			dst.putFloat((float)sample.w);
+		}
+	}
+
+	private static void putHeader(ByteBuffer dst, int type, int myoIndex, int count, long timestamp){
+		dst.put((byte)type);
+		dst.put((byte)myoIndex);
+		dst.put((byte)count);
+		dst.put((byte)0);
+		dst.putDouble(timestamp);
+	}
+
+}
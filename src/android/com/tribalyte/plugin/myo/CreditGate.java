@@ -0,0 +1,122 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import java.util.Arrays;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+
+/**
+ * Credit based flow control of a subscription. Each result sent to
+ * JavaScript (an event or a batch) consumes a credit, and the listener
+ * grants more through the "ack" action once it has processed them.
+ *
+ * Without credits, results are not queued in the bridge: only the latest one
+ * of each key (Myo slot index, or 0 for events of all devices) is kept, and
+ * it replaces the previous one. Kept results are sent as soon as credits are
+ * granted. Results are sent holding the lock, so that a kept result is never
+ * delivered after a newer one of the same subscription.
+ *
+ */
+class CreditGate{
+
+	private static final String TAG = CreditGate.class.getSimpleName();
+	private static final PluginLog.Sampler SEND_ERROR_LOG = new PluginLog.Sampler(1000);
+
+	static final int MAX_CREDITS = 1 << 20;
+
+	private final EventType mType;
+	private final CallbackContext mCbc;
+	private int mCredits; //Guarded by this
+	private PluginResult[] mLatest = new PluginResult[0]; //Kept results, indexed by key. Guarded by this
+	private int mLatestCount = 0; //Guarded by this
+
+	CreditGate(EventType type, CallbackContext cbc, int credits) {
+		mType = type;
+		mCbc = cbc;
+		mCredits = credits;
+	}
+
+	/**
+	 * Sends the result if there are credits, or keeps it as the latest one of its key otherwise.
+	 * @return Whether a kept result was replaced, i.e. dropped
+	 */
+	synchronized boolean send(int key, PluginResult pResult){
+		boolean res = false;
+		if(key < mLatest.length && mLatest[key] != null){ //Older than this one
+			mLatest[key] = null;
+			mLatestCount--;
+			res = true;
+		}
+		if(mCredits > 0){
+			mCredits--;
+			deliver(pResult);
+		}else{
+			if(key >= mLatest.length){
+				mLatest = Arrays.copyOf(mLatest, key + 1);
+			}
+			mLatest[key] = pResult;
+			mLatestCount++;
+		}
+		return res;
+	}
+
+	//Adds credits, sending the kept results first
+	synchronized void grant(int credits){
+		mCredits = (int)Math.min(MAX_CREDITS, (long)mCredits + credits);
+		for(int key = 0; key < mLatest.length && mLatestCount > 0 && mCredits > 0; key++){
+			if(mLatest[key] != null){
+				PluginResult pResult = mLatest[key];
+				mLatest[key] = null;
+				mLatestCount--;
+				mCredits--;
+				deliver(pResult);
+			}
+		}
+	}
+
+	synchronized int getCredits(){
+		return mCredits;
+	}
+
+	//Must be called holding the lock
+	private void deliver(PluginResult pResult){
+		try{
+			long startNs = PipelineMetrics.start();
+			mCbc.sendPluginResult(pResult);
+			PipelineMetrics.record(PipelineMetrics.Stage.SEND, startNs);
+			PipelineMetrics.delivered(mType);
+		}catch(Exception e){
+			SEND_ERROR_LOG.e(TAG, "Exception while calling handler: ", e);
+		}
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "CreditGate [credits=" + mCredits + ", kept=" + mLatestCount + "]";
+	}
+
+}
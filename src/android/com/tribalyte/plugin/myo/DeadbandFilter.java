@@ -0,0 +1,107 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import com.tribalyte.plugin.myo.MyoEventController.MyoWithJson;
+
+/**
+ * Change-threshold (deadband) filter for the sensor samples delivered to a
+ * handler, per Myo device. A sample is only delivered if the Euclidean
+ * distance between its components and the ones of the last delivered sample
+ * is greater than the threshold. Quaternions q and -q represent the same
+ * rotation, so the smallest of both distances is used.
+ *
+ * If a heartbeat interval is set, a sample is delivered anyway when no other
+ * has been delivered during that interval, so that consumers can tell a
+ * resting device from a disconnected one.
+ *
+ */
+class DeadbandFilter{
+
+	final double threshold;
+	final long heartbeatMs;
+	private final SlotStates<State> mStates = new SlotStates<State>() {
+		State newState(MyoWithJson myoWithJson, SensorSample sample) {
+			return new State();
+		}
+	};
+
+	private static class State{
+		boolean delivered = false;
+		long timestamp;
+		double x;
+		double y;
+		double z;
+		double w;
+	}
+
+	/**
+	 * @param threshold Minimum distance to the last delivered sample
+	 * @param heartbeatMs Maximum time without delivering a sample. 0 means no heartbeat
+	 */
+	DeadbandFilter(double threshold, long heartbeatMs) {
+		this.threshold = threshold;
+		this.heartbeatMs = heartbeatMs;
+	}
+
+	//Returns true if the sample has to be delivered
+	boolean accept(MyoWithJson myoWithJson, SensorSample sample){
+		State state = mStates.get(myoWithJson, sample);
+		boolean res = !state.delivered
+				|| (heartbeatMs > 0 && sample.timestamp - state.timestamp >= heartbeatMs)
+				|| distanceSquared(state, sample) > threshold * threshold;
+		if(res){
+			state.delivered = true;
+			state.timestamp = sample.timestamp;
+			state.x = sample.x;
+			state.y = sample.y;
+			state.z = sample.z;
+			state.w = sample.w;
+		}
+		return res;
+	}
+
+	private static double distanceSquared(State state, SensorSample sample){
+		double dx = sample.x - state.x;
+		double dy = sample.y - state.y;
+		double dz = sample.z - state.z;
+		double dw = sample.w - state.w;
+		double res = dx * dx + dy * dy + dz * dz + dw * dw;
+		if(sample.count == 4){
+			double sx = sample.x + state.x;
+			double sy = sample.y + state.y;
+			double sz = sample.z + state.z;
+			double sw = sample.w + state.w;
+			res = Math.min(res, sx * sx + sy * sy + sz * sz + sw * sw);
+		}
+		return res;
+	}
+
+	@Override
+	public String toString() {
+		return "DeadbandFilter [threshold=" + threshold + ", heartbeatMs=" + heartbeatMs + "]";
+	}
+
+}
@@ -0,0 +1,287 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.tribalyte.plugin.myo.MyoEventController.MyoWithJson;
+
+/**
+ * Moves the encoding and delivery of events from the Myo SDK listener thread
+ * to a dedicated dispatcher thread, so that a slow WebView doesn't back-pressure
+ * the SDK.
+ *
+ * Sensor samples go through a bounded {@link SampleRing}, whose overflow policy
+ * is configurable. Control events (attach, pose, lock...) are rare, so they go
+ * through an unbounded priority lane which is always drained first. As an
+ * exception, the samples posted before a detach event are delivered before it.
+ * Tasks which must be serialized with the samples, e.g. changes of the state
+ * read while dispatching them, go through the priority lane too, and also run
+ * after the samples posted before them.
+ *
+ * Events must be posted from a single thread (the listener thread), while
+ * tasks can be posted from any thread.
+ *
+ */
+class EventDispatcher{
+
+	private static final String TAG = EventDispatcher.class.getSimpleName();
+	private static final PluginLog.Sampler DISPATCH_ERROR_LOG = new PluginLog.Sampler(1000);
+
+	static final int DEFAULT_CAPACITY = 1024;
+	private static final long IDLE_PARK_NS = TimeUnit.MILLISECONDS.toNanos(100); //Guards against missed wakeups
+
+	//What to discard when the sample ring is full
+	enum OverflowPolicy{
+		DROP_OLDEST("dropOldest"),
+		DROP_NEWEST("dropNewest");
+
+		final String jsName;
+
+		OverflowPolicy(String jsName) {
+			this.jsName = jsName;
+		}
+
+		static OverflowPolicy fromName(String name){
+			for(OverflowPolicy policy : values()){
+				if(policy.jsName.equals(name)){
+					return policy;
+				}
+			}
+			return null;
+		}
+	}
+
+	//Receives the events on the dispatcher thread
+	interface Handler{
+		void onControlEvent(ControlEvent ev);
+		void onSensorSample(MyoWithJson myoWithJson, SensorSample sample);
+	}
+
+	static final class ControlEvent{
+		final EventType type;
+		final MyoWithJson myoWithJson; //Resolved when posted, as the Myo may be removed from the registry meanwhile
+		final long timestamp;
+		final Object[] extras;
+		final long samplesBefore; //Number of samples published to the ring before this event
+		final long postedNs; //PipelineMetrics start time, 0 if not collected
+		final Runnable task; //Run instead of handing the event to the Handler. Null for actual events
+		ControlEvent(EventType type, MyoWithJson myoWithJson, long timestamp, Object[] extras, long samplesBefore,
+				long postedNs) {
+			this(type, myoWithJson, timestamp, extras, samplesBefore, postedNs, null);
+		}
+		private ControlEvent(EventType type, MyoWithJson myoWithJson, long timestamp, Object[] extras,
+				long samplesBefore, long postedNs, Runnable task) {
+			this.type = type;
+			this.myoWithJson = myoWithJson;
+			this.timestamp = timestamp;
+			this.extras = extras;
+			this.samplesBefore = samplesBefore;
+			this.postedNs = postedNs;
+			this.task = task;
+		}
+	}
+
+	private final Handler mHandler;
+	private final SampleRing mRing;
+	private final Queue<ControlEvent> mControlLane = new ConcurrentLinkedQueue<ControlEvent>();
+	private final AtomicInteger mControlDepth = new AtomicInteger();
+	private volatile OverflowPolicy mOverflowPolicy = OverflowPolicy.DROP_OLDEST;
+	private volatile Thread mThread = null;
+	private volatile boolean mWaiting = false;
+
+	//Only used from the dispatcher thread
+	private final SampleRing.Entry mEntry = new SampleRing.Entry();
+	private final SensorSample[] mSamples = new SensorSample[EventType.COUNT]; //Indexed by event type ordinal
+
+	EventDispatcher(Handler handler, int capacity) {
+		mHandler = handler;
+		mRing = new SampleRing(capacity);
+		mSamples[EventType.ACCELEROMETER.ordinal()] = new SensorSample(EventType.ACCELEROMETER, "accel");
+		mSamples[EventType.GYROSCOPE.ordinal()] = new SensorSample(EventType.GYROSCOPE, "gyro");
+		mSamples[EventType.ORIENTATION.ordinal()] = new SensorSample(EventType.ORIENTATION, "rotation");
+		mSamples[EventType.RSSI.ordinal()] = new SensorSample(EventType.RSSI, "rssi");
+	}
+
+	//Starts the dispatcher thread, if not running
+	synchronized void start(){
+		if(mThread == null){
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					dispatchLoop();
+				}
+			}, "MyoEventDispatcher");
+			thread.setDaemon(true);
+			mThread = thread;
+			thread.start();
+		}
+	}
+
+	//Stops the dispatcher thread. Pending events are discarded
+	void stop(){
+		Thread thread = null;
+		synchronized(this){
+			thread = mThread;
+			mThread = null;
+		}
+		if(thread != null){
+			LockSupport.unpark(thread);
+			try{
+				thread.join(500);
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+			while(!thread.isAlive() && mRing.poll(mEntry)){
+				//Discard, so that stale samples are not delivered if restarted
+			}
+		}
+		mControlLane.clear();
+		mControlDepth.set(0);
+	}
+
+	void setOverflowPolicy(OverflowPolicy policy){
+		mOverflowPolicy = policy;
+	}
+
+	void postControlEvent(EventType type, MyoWithJson myoWithJson, long timestamp, Object[] extras){
+		mControlLane.offer(new ControlEvent(type, myoWithJson, timestamp, extras, mRing.published(),
+				PipelineMetrics.start()));
+		mControlDepth.incrementAndGet();
+		wakeUp();
+	}
+
+	//Runs the task on the dispatcher thread, after the samples already posted. Discarded if the dispatcher is stopped first
+	void postTask(Runnable task){
+		mControlLane.offer(new ControlEvent(null, null, 0, null, mRing.published(), 0, task));
+		mControlDepth.incrementAndGet();
+		wakeUp();
+	}
+
+	//Returns false if the sample was discarded because the ring is full
+	boolean postSample(MyoWithJson myoWithJson, EventType type, long timestamp, int count,
+			double x, double y, double z, double w){
+		SampleRing.Entry entry = mRing.claim(mOverflowPolicy == OverflowPolicy.DROP_OLDEST);
+		if(entry != null){
+			entry.myoWithJson = myoWithJson;
+			entry.type = type;
+			entry.timestamp = timestamp;
+			entry.count = count;
+			entry.x = x;
+			entry.y = y;
+			entry.z = z;
+			entry.w = w;
+			entry.postedNs = PipelineMetrics.start();
+			mRing.publish();
+			wakeUp();
+		}
+		return entry != null;
+	}
+
+	//Queue depths and overflow counters, for the "getDispatchStats" action
+	JSONObject getStats(){
+		JSONObject res = new JSONObject();
+		try{
+			res.put("running", mThread != null);
+			res.put("capacity", mRing.capacity());
+			res.put("queueDepth", mRing.depth());
+			res.put("maxQueueDepth", mRing.maxDepth());
+			res.put("controlQueueDepth", mControlDepth.get());
+			res.put("overflows", mRing.overflows());
+			res.put("overflowPolicy", mOverflowPolicy.jsName);
+		}catch(JSONException e){
+			//Not expected, as all the values are valid
+		}
+		return res;
+	}
+
+	private void wakeUp(){
+		Thread thread = mThread;
+		if(mWaiting && thread != null){
+			LockSupport.unpark(thread);
+		}
+	}
+
+	private void dispatchLoop(){
+		PluginLog.d(TAG, "Dispatcher thread started");
+		Thread self = Thread.currentThread();
+		while(mThread == self){
+			ControlEvent ev = mControlLane.poll();
+			if(ev != null){
+				mControlDepth.decrementAndGet();
+				while((ev.type == EventType.DETACH || ev.task != null) && mRing.consumed() < ev.samplesBefore
+						&& mRing.poll(mEntry)){
+					dispatchSample(); //E.g. the last samples of a detached device
+				}
+				if(ev.task != null){
+					try{
+						ev.task.run();
+					}catch(Exception e){
+						DISPATCH_ERROR_LOG.e(TAG, "Exception while running task: ", e);
+					}
+					continue;
+				}
+				PipelineMetrics.record(PipelineMetrics.Stage.QUEUE, ev.postedNs);
+				long startNs = PipelineMetrics.start();
+				try{
+					mHandler.onControlEvent(ev);
+				}catch(Exception e){
+					DISPATCH_ERROR_LOG.e(TAG, "Exception while dispatching control event: ", e);
+				}
+				PipelineMetrics.record(PipelineMetrics.Stage.DISPATCH, startNs);
+			}else if(mRing.poll(mEntry)){
+				dispatchSample();
+			}else{
+				mWaiting = true;
+				if(mControlLane.isEmpty() && mRing.isEmpty() && mThread == self){
+					LockSupport.parkNanos(this, IDLE_PARK_NS);
+				}
+				mWaiting = false;
+			}
+		}
+		PluginLog.d(TAG, "Dispatcher thread stopped");
+	}
+
+	//Delivers the sample just polled into mEntry
+	private void dispatchSample(){
+		SensorSample sample = mSamples[mEntry.type.ordinal()];
+		sample.set(mEntry.timestamp, mEntry.count, mEntry.x, mEntry.y, mEntry.z, mEntry.w);
+		PipelineMetrics.record(PipelineMetrics.Stage.QUEUE, mEntry.postedNs);
+		long startNs = PipelineMetrics.start();
+		try{
+			mHandler.onSensorSample(mEntry.myoWithJson, sample);
+		}catch(Exception e){
+			DISPATCH_ERROR_LOG.e(TAG, "Exception while dispatching sensor sample: ", e);
+		}
+		PipelineMetrics.record(PipelineMetrics.Stage.DISPATCH, startNs);
+	}
+
+}
@@ -0,0 +1,228 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import java.util.Locale;
+
+import org.apache.cordova.CallbackContext;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Event handler registered from JavaScript through the "on" action, together
+ * with its delivery options.
+ *
+ */
+class EventSubscription{
+
+	//What to do with the events while the application is paused
+	enum PausePolicy{
+		DELIVER("deliver"),
+		DROP("drop"),
+		BUFFER("buffer"); //Keep the last ones in a PauseBuffer, delivered on resume
+
+		final String jsName;
+
+		PausePolicy(String jsName) {
+			this.jsName = jsName;
+		}
+
+		static PausePolicy fromName(String name){
+			for(PausePolicy policy : values()){
+				if(policy.jsName.equals(name)){
+					return policy;
+				}
+			}
+			return null;
+		}
+	}
+
+	final EventType type;
+	final String id; //Identifies the handler among the ones registered for the same event type
+	final CallbackContext cbc;
+	final boolean binary;
+	final int fields; //FieldMask flags of the JSON payloads
+	final int streams; //MotionFrameJoiner streams mask, only for motion and sync frames
+	final RateLimiter rateLimiter; //Null if the rate is not limited
+	final DeadbandFilter deadband; //Null if samples are not filtered by change threshold
+	final OrientationFilter orientation; //Null if orientation samples are delivered as they are
+	final FeatureExtractor features; //Only for feature events
+	final FrameSynchronizer synchronizer; //Only for sync frame events
+	final PausePolicy pausePolicy;
+	final PauseBuffer pauseBuffer; //Only for the BUFFER pause policy
+	final CreditGate credits; //Null if the handler has no flow control
+	volatile SampleBatcher batcher = null; //Modified holding the MyoEventController handlers lock
+	
+	//Written only from the dispatcher thread
+	volatile long delivered = 0;
+	volatile long dropped = 0;
+
+	EventSubscription(EventType type, String id, CallbackContext cbc, boolean binary, int fields, int streams,
+			RateLimiter rateLimiter, DeadbandFilter deadband, OrientationFilter orientation, FeatureExtractor features,
+			FrameSynchronizer synchronizer, PausePolicy pausePolicy, double pauseSeconds, int credits) {
+		this.type = type;
+		this.id = id;
+		this.cbc = cbc;
+		this.binary = binary;
+		this.fields = fields;
+		this.streams = streams;
+		this.rateLimiter = rateLimiter;
+		this.deadband = deadband;
+		this.orientation = orientation;
+		this.features = features;
+		this.synchronizer = synchronizer;
+		this.pausePolicy = pausePolicy;
+		this.credits = (credits > 0) ? new CreditGate(type, cbc, credits) : null;
+		this.pauseBuffer = (pausePolicy == PausePolicy.BUFFER)
+				? new PauseBuffer(type, cbc, binary, fields, pauseSeconds, this.credits) : null;
+	}
+
+	/**
+	 * Options format: {binary: boolean, batch: {size: number, interval: number},
+	 * rate: number (Hz), policy: "drop" | "latest" | "average", deadband: number, heartbeat: number (ms),
+	 * fields: ["raw" | "euler" | "matrix" | "linear", ...], streams: ["accel" | "gyro" | "rotation", ...],
+	 * relative: boolean, smoothing: number [0, 1), onPause: "deliver" | "drop" | "buffer", pauseBuffer: number (s),
+	 * credits: number}, plus the ones of {@link FeatureExtractor#fromJson} for feature events
+	 * and {@link FrameSynchronizer#fromJson} for sync frames.
+	 * Options can be null
+	 * @throws IllegalArgumentException if the options are not valid
+	 */
+	static EventSubscription fromJson(EventType type, String id, CallbackContext cbc, JSONObject options){
+		boolean binary = false;
+		int fields = FieldMask.defaultFor(type);
+		int streams = MotionFrameJoiner.ALL_STREAMS;
+		RateLimiter rateLimiter = null;
+		DeadbandFilter deadband = null;
+		OrientationFilter orientation = null;
+		PausePolicy pausePolicy = type.isStream() ? PausePolicy.DROP : PausePolicy.DELIVER;
+		double pauseSeconds = PauseBuffer.DEFAULT_SECONDS;
+		int credits = 0;
+		FeatureExtractor features = (type == EventType.FEATURES) ? FeatureExtractor.fromJson(options) : null;
+		if(options != null){
+			binary = options.optBoolean("binary", false);
+			double rate = options.optDouble("rate", 0);
+			if(rate > 0){
+				String policy = options.optString("policy", "drop");
+				try{
+					rateLimiter = new RateLimiter(rate, RateLimiter.Policy.valueOf(policy.toUpperCase(Locale.US)));
+				}catch(IllegalArgumentException e){
+					throw new IllegalArgumentException("Unsupported rate policy: " + policy);
+				}
+			}
+			double threshold = options.optDouble("deadband", 0);
+			if(threshold > 0){
+				deadband = new DeadbandFilter(threshold, Math.max(0, options.optLong("heartbeat", 0)));
+			}
+			boolean relative = options.optBoolean("relative", false);
+			double smoothing = options.optDouble("smoothing", 0);
+			if(!(smoothing >= 0 && smoothing < 1)){
+				throw new IllegalArgumentException("Smoothing must be in the range [0, 1): " + smoothing);
+			}
+			if(relative || smoothing > 0){
+				orientation = new OrientationFilter(relative, smoothing);
+			}
+			String pauseName = options.optString("onPause", pausePolicy.jsName);
+			pausePolicy = PausePolicy.fromName(pauseName);
+			if(pausePolicy == null){
+				throw new IllegalArgumentException("Unsupported pause policy: " + pauseName);
+			}
+			pauseSeconds = options.optDouble("pauseBuffer", PauseBuffer.DEFAULT_SECONDS);
+			if(!(pauseSeconds > 0 && pauseSeconds <= PauseBuffer.MAX_SECONDS)){
+				throw new IllegalArgumentException("Pause buffer must be between 0 and " + PauseBuffer.MAX_SECONDS + " s: "
+						+ pauseSeconds);
+			}
+			if(options.has("credits")){
+				credits = options.optInt("credits", 0);
+				if(credits <= 0 || credits > CreditGate.MAX_CREDITS){
+					throw new IllegalArgumentException("Credits must be between 1 and " + CreditGate.MAX_CREDITS + ": "
+							+ options.opt("credits"));
+				}
+			}
+			JSONArray names = options.optJSONArray("fields");
+			if(names != null){
+				fields = FieldMask.parse(type, names);
+				if(binary && fields != FieldMask.RAW){
+					throw new IllegalArgumentException("Only raw fields are supported in binary format");
+				}
+			}
+			names = options.optJSONArray("streams");
+			if(names != null && type != EventType.FEATURES){ //Already parsed by the feature extractor
+				if(type != EventType.MOTION_FRAME && type != EventType.SYNC_FRAME){
+					throw new IllegalArgumentException("Streams not supported for event type " + type.jsName);
+				}
+				streams = MotionFrameJoiner.parseStreams(names);
+			}
+		}
+		FrameSynchronizer synchronizer = (type == EventType.SYNC_FRAME) ? FrameSynchronizer.fromJson(streams, options) : null;
+		return new EventSubscription(type, id, cbc, binary, fields, streams, rateLimiter, deadband, orientation, features,
+				synchronizer, pausePolicy, pauseSeconds, credits);
+	}
+
+	//Whether the event type supports the options set. Fields and streams are already checked when parsed
+	boolean hasValidOptions(){
+		boolean res = true;
+		if(rateLimiter != null || deadband != null){
+			res = type.isSensor();
+		}
+		if(orientation != null){
+			res = res && type == EventType.ORIENTATION;
+		}
+		if(binary){
+			res = res && (type.isSensor() || type == EventType.MOTION_FRAME);
+		}
+		if(pausePolicy != PausePolicy.DELIVER){ //Control events are always delivered
+			res = res && (pausePolicy == PausePolicy.BUFFER ? type.isSensor() : type.isStream());
+		}
+		if(credits != null){ //Control events are never coalesced
+			res = res && type.isStream();
+		}
+		return res;
+	}
+
+	//Counters for the "getSubscriptionStats" action
+	JSONObject getStats(){
+		JSONObject res = new JSONObject();
+		try{
+			res.put("eventName", type.jsName);
+			res.put("id", id);
+			res.put("delivered", delivered);
+			res.put("dropped", dropped);
+			if(credits != null){
+				res.put("credits", credits.getCredits());
+			}
+		}catch(JSONException e){
+			//Not expected, as all the values are valid
+		}
+		return res;
+	}
+
+	@Override
+	public String toString() {
+		return "EventSubscription [type=" + type + ", id=" + id + ", binary=" + binary + ", fields=" + fields + ", rateLimiter=" + rateLimiter
+				+ ", deadband=" + deadband + ", orientation=" + orientation + ", features=" + features + ", pausePolicy=" + pausePolicy + ", credits=" + credits + ", batched=" + (batcher != null) + "]";
+	}
+
+}
@@ -0,0 +1,89 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+/**
+ * Types of events which can be listened to from JavaScript. The ordinal is
+ * used as index in the handler registry.
+ *
+ */
+enum EventType{
+
+	ATTACH("attach"),
+	DETACH("detach"),
+	CONNECT("connect"),
+	DISCONNECT("disconnect"),
+	ARM_SYNC("armSync"),
+	ARM_UNSYNC("armUnsync"),
+	LOCK("lock"),
+	UNLOCK("unlock"),
+	POSE("pose"),
+	ORIENTATION("orientationData"),
+	ACCELEROMETER("accelerometerData"),
+	GYROSCOPE("gyroscopeData"),
+	RSSI("rssi"),
+	MOTION_FRAME("motionFrame"), //Synthetic: accelerometer, gyroscope and orientation samples of the same tick
+	DEVICES_CHANGED("devicesChanged"), //Synthetic: the list of connected devices changed
+	GESTURE("gesture"), //Synthetic: a gesture of the GestureDetector was completed
+	FEATURES("features"), //Synthetic: features of the accelerometer and gyroscope windows, see FeatureExtractor
+	SYNC_FRAME("syncFrame"); //Synthetic: time-aligned samples of all the connected devices, see FrameSynchronizer
+
+	static final int COUNT = values().length;
+
+	/** Name of the event in the JavaScript API */
+	final String jsName;
+
+	EventType(String jsName) {
+		this.jsName = jsName;
+	}
+
+	//Returns null if the name doesn't correspond to any event type
+	static EventType fromName(String jsName){
+		EventType res = null;
+		for(EventType type : values()){
+			if(type.jsName.equals(jsName)){
+				res = type;
+				break;
+			}
+		}
+		return res;
+	}
+
+	//Events with numeric samples (IMU and RSSI), which support the binary format, rate limiting and filtering
+	boolean isSensor(){
+		return isBatchable() || this == RSSI;
+	}
+
+	//Events produced continuously from the sensor samples, which are not delivered while the application is paused
+	boolean isStream(){
+		return isSensor() || this == MOTION_FRAME || this == FEATURES || this == SYNC_FRAME;
+	}
+
+	//IMU events, whose samples can be delivered in batches
+	boolean isBatchable(){
+		return this == ORIENTATION || this == ACCELEROMETER || this == GYROSCOPE;
+	}
+
+}
@@ -0,0 +1,383 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import java.util.Arrays;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.tribalyte.plugin.myo.MyoEventController.MyoWithJson;
+
+/**
+ * Sliding-window feature extraction over the accelerometer and gyroscope
+ * samples of each Myo device, for the "features" event. The last samples of
+ * each stream are kept in circular windows of primitive values (x, y, z and
+ * magnitude), and an event with the features of the windows is produced every
+ * hop, counted in samples of the first requested stream.
+ *
+ * Sums are updated incrementally as samples enter and leave the windows (and
+ * recomputed on every wrap, so that rounding errors don't accumulate); the
+ * rest of the features are computed once per hop.
+ *
+ */
+class FeatureExtractor{
+
+	static final int DEFAULT_WINDOW = 50; //One second of IMU data
+	static final int MAX_WINDOW = 1024;
+	static final int DEFAULT_BANDS = 4;
+
+	//Feature masks are combinations of the following flags
+	static final int MEAN = 1;
+	static final int RMS = 1 << 1;
+	static final int VARIANCE = 1 << 2;
+	static final int ZERO_CROSSINGS = 1 << 3; //Sign changes around the mean of the window
+	static final int PEAK = 1 << 4; //Maximum absolute value
+	static final int BANDS = 1 << 5; //Spectral energy bands of the magnitude
+	static final int DEFAULT_FEATURES = MEAN | RMS | VARIANCE;
+
+	private static final String[] FEATURE_NAMES = {"mean", "rms", "variance", "zeroCrossings", "peak", "bands"};
+	private static final String[] CHANNEL_NAMES = {"x", "y", "z", "magnitude"};
+	private static final int MAGNITUDE = 3;
+
+	private static final class Channel{
+		final double[] values;
+		double sum = 0;
+		double sumSq = 0;
+		Channel(int window) {
+			values = new double[window];
+		}
+	}
+
+	private static final class StreamWindow{
+		final String name;
+		final Channel[] channels = new Channel[CHANNEL_NAMES.length];
+		int next = 0; //Position of the next sample, which is also the oldest one when the window is full
+		int count = 0;
+		StreamWindow(String name, int window) {
+			this.name = name;
+			for(int i = 0; i < channels.length; i++){
+				channels[i] = new Channel(window);
+			}
+		}
+	}
+
+	static final class State{
+		final MyoWithJson myoWithJson;
+		final StreamWindow accel; //Null if not requested
+		final StreamWindow gyro; //Null if not requested
+		int sinceEvent = 0; //Samples of the first stream since the last event
+		long timestamp;
+		State(MyoWithJson myoWithJson, int streams, int window) {
+			this.myoWithJson = myoWithJson;
+			accel = ((streams & MotionFrameJoiner.ACCEL) != 0) ? new StreamWindow("accel", window) : null;
+			gyro = ((streams & MotionFrameJoiner.GYRO) != 0) ? new StreamWindow("gyro", window) : null;
+		}
+	}
+
+	final int streams; //MotionFrameJoiner.ACCEL and/or MotionFrameJoiner.GYRO
+	final int window;
+	final int hop;
+	final int features;
+	final int bands;
+	private final EventType mFirstStream;
+	private final double[] mRe; //FFT buffers, null if no bands are computed
+	private final double[] mIm;
+	private final SlotStates<State> mStates = new SlotStates<State>() {
+		State newState(MyoWithJson myoWithJson, SensorSample sample) {
+			return new State(myoWithJson, streams, window);
+		}
+	};
+
+	FeatureExtractor(int streams, int window, int hop, int features, int bands) {
+		this.streams = streams;
+		this.window = window;
+		this.hop = hop;
+		this.features = features;
+		this.bands = bands;
+		mFirstStream = ((streams & MotionFrameJoiner.ACCEL) != 0) ? EventType.ACCELEROMETER : EventType.GYROSCOPE;
+		mRe = ((features & BANDS) != 0) ? new double[window] : null;
+		mIm = ((features & BANDS) != 0) ? new double[window] : null;
+	}
+
+	/**
+	 * Options format: {streams: ["accel" | "gyro", ...], window: number (samples), hop: number (samples),
+	 * features: ["mean" | "rms" | "variance" | "zeroCrossings" | "peak" | "bands", ...], bands: number}.
+	 * Options can be null. Bands require a window which is a power of 2
+	 * @throws IllegalArgumentException if the options are not valid
+	 */
+	static FeatureExtractor fromJson(JSONObject options){
+		int streams = MotionFrameJoiner.ACCEL | MotionFrameJoiner.GYRO;
+		int window = DEFAULT_WINDOW;
+		int features = DEFAULT_FEATURES;
+		int bands = DEFAULT_BANDS;
+		int hop = 0;
+		if(options != null){
+			JSONArray names = options.optJSONArray("streams");
+			if(names != null){
+				streams = MotionFrameJoiner.parseStreams(names);
+				if((streams & MotionFrameJoiner.ORIENTATION) != 0){
+					throw new IllegalArgumentException("Features are only computed for the accel and gyro streams");
+				}
+			}
+			window = options.optInt("window", DEFAULT_WINDOW);
+			hop = options.optInt("hop", 0);
+			bands = options.optInt("bands", DEFAULT_BANDS);
+			names = options.optJSONArray("features");
+			if(names != null){
+				features = parseFeatures(names);
+			}
+		}
+		if(window < 2 || window > MAX_WINDOW){
+			throw new IllegalArgumentException("Window must be between 2 and " + MAX_WINDOW + " samples: " + window);
+		}
+		hop = (hop > 0) ? hop : Math.max(1, window / 2);
+		if(hop > window){
+			throw new IllegalArgumentException("Hop can't be greater than the window: " + hop);
+		}
+		if((features & BANDS) != 0 && ((window & (window - 1)) != 0 || bands < 1 || bands > window / 2)){
+			throw new IllegalArgumentException("Bands require a window which is a power of 2, and between 1 and window / 2 bands");
+		}
+		return new FeatureExtractor(streams, window, hop, features, bands);
+	}
+
+	private static int parseFeatures(JSONArray names){
+		int res = 0;
+		for(int i = 0; i < names.length(); i++){
+			int index = Arrays.asList(FEATURE_NAMES).indexOf(names.optString(i));
+			if(index < 0){
+				throw new IllegalArgumentException("Unsupported feature: " + names.optString(i));
+			}
+			res |= 1 << index;
+		}
+		if(res == 0){
+			throw new IllegalArgumentException("No features requested");
+		}
+		return res;
+	}
+
+	/**
+	 * Adds an accelerometer or gyroscope sample to the windows of its Myo.
+	 * @return The state to be passed to appendEvent if an event is due, null otherwise
+	 */
+	State add(MyoWithJson myoWithJson, SensorSample sample){
+		StreamWindow stream = null;
+		State state = mStates.get(myoWithJson, sample);
+		if(sample.type == EventType.ACCELEROMETER){
+			stream = state.accel;
+		}else if(sample.type == EventType.GYROSCOPE){
+			stream = state.gyro;
+		}
+		if(stream == null){
+			return null;
+		}
+		int pos = stream.next;
+		put(stream.channels[0], pos, sample.x);
+		put(stream.channels[1], pos, sample.y);
+		put(stream.channels[2], pos, sample.z);
+		put(stream.channels[MAGNITUDE], pos, Math.sqrt(sample.x * sample.x + sample.y * sample.y + sample.z * sample.z));
+		stream.next = (pos + 1) % window;
+		stream.count = Math.min(stream.count + 1, window);
+		if(stream.next == 0){
+			for(Channel channel : stream.channels){
+				resync(channel);
+			}
+		}
+		State res = null;
+		if(sample.type == mFirstStream){
+			state.sinceEvent++;
+			if(stream.count == window && state.sinceEvent >= hop){
+				state.sinceEvent = 0;
+				state.timestamp = sample.timestamp;
+				res = state;
+			}
+		}
+		return res;
+	}
+
+	//Discards the windows of a Myo, e.g. when it's detached
+	void clear(int myoIndex){
+		mStates.clear(myoIndex);
+	}
+
+	//{"eventName":"features","myo":[...],"timestamp":...,"window":...,"accel":{"x":{...},...},"gyro":{...}}
+	StringBuilder appendEvent(StringBuilder sb, State state){
+		sb.append("{\"eventName\":\"").append(EventType.FEATURES.jsName).append("\",\"myo\":")
+				.append(state.myoWithJson.myoJsonText).append(",\"timestamp\":").append(state.timestamp)
+				.append(",\"window\":").append(window);
+		appendStream(sb, state.accel);
+		appendStream(sb, state.gyro);
+		return sb.append('}');
+	}
+
+	private void appendStream(StringBuilder sb, StreamWindow stream){
+		if(stream == null){
+			return;
+		}
+		sb.append(",\"").append(stream.name).append("\":");
+		if(stream.count == 0){
+			sb.append("null");
+			return;
+		}
+		sb.append('{');
+		for(int i = 0; i < stream.channels.length; i++){
+			sb.append((i > 0) ? ",\"" : "\"").append(CHANNEL_NAMES[i]).append("\":{");
+			appendChannel(sb, stream, stream.channels[i], i == MAGNITUDE);
+			sb.append('}');
+		}
+		sb.append('}');
+	}
+
+	private void appendChannel(StringBuilder sb, StreamWindow stream, Channel channel, boolean magnitude){
+		int n = stream.count;
+		double mean = channel.sum / n;
+		int len = sb.length();
+		if((features & MEAN) != 0){
+			sb.append("\"mean\":");
+			JsonEventWriter.appendNumber(sb, mean);
+		}
+		if((features & RMS) != 0){
+			sb.append((sb.length() > len) ? "," : "").append("\"rms\":");
+			JsonEventWriter.appendNumber(sb, Math.sqrt(Math.max(0, channel.sumSq / n)));
+		}
+		if((features & VARIANCE) != 0){
+			sb.append((sb.length() > len) ? "," : "").append("\"variance\":");
+			JsonEventWriter.appendNumber(sb, Math.max(0, channel.sumSq / n - mean * mean));
+		}
+		if((features & (ZERO_CROSSINGS | PEAK)) != 0){
+			int crossings = 0;
+			double peak = 0;
+			int lastSign = 0;
+			int start = (n == window) ? stream.next : 0; //Oldest sample
+			for(int i = 0; i < n; i++){
+				double value = channel.values[(start + i) % window];
+				peak = Math.max(peak, Math.abs(value));
+				int sign = (value > mean) ? 1 : ((value < mean) ? -1 : 0);
+				if(sign != 0){
+					crossings += (lastSign != 0 && sign != lastSign) ? 1 : 0;
+					lastSign = sign;
+				}
+			}
+			if((features & ZERO_CROSSINGS) != 0){
+				sb.append((sb.length() > len) ? "," : "").append("\"zeroCrossings\":").append(crossings);
+			}
+			if((features & PEAK) != 0){
+				sb.append((sb.length() > len) ? "," : "").append("\"peak\":");
+				JsonEventWriter.appendNumber(sb, peak);
+			}
+		}
+		if(magnitude && (features & BANDS) != 0 && n == window){
+			sb.append((sb.length() > len) ? "," : "").append("\"bands\":[");
+			appendBands(sb, stream, channel, mean);
+			sb.append(']');
+		}
+	}
+
+	//Energy of the magnitude (without its mean) in equal-width frequency bands, from DC to the Nyquist frequency
+	private void appendBands(StringBuilder sb, StreamWindow stream, Channel channel, double mean){
+		for(int i = 0; i < window; i++){
+			mRe[i] = channel.values[(stream.next + i) % window] - mean;
+			mIm[i] = 0;
+		}
+		fft(mRe, mIm);
+		int bins = window / 2;
+		for(int b = 0; b < bands; b++){
+			double energy = 0;
+			for(int k = 1 + b * bins / bands; k <= (b + 1) * bins / bands; k++){
+				energy += (mRe[k] * mRe[k] + mIm[k] * mIm[k]) / window;
+			}
+			sb.append((b > 0) ? "," : "");
+			JsonEventWriter.appendNumber(sb, energy);
+		}
+	}
+
+	//In-place iterative radix-2 FFT. The length must be a power of 2
+	private static void fft(double[] re, double[] im){
+		int n = re.length;
+		for(int i = 1, j = 0; i < n; i++){
+			int bit = n >> 1;
+			for(; (j & bit) != 0; bit >>= 1){
+				j ^= bit;
+			}
+			j ^= bit;
+			if(i < j){
+				double t = re[i];
+				re[i] = re[j];
+				re[j] = t;
+				t = im[i];
+				im[i] = im[j];
+				im[j] = t;
+			}
+		}
+		for(int len = 2; len <= n; len <<= 1){
+			double angle = -2 * Math.PI / len;
+			double wRe = Math.cos(angle);
+			double wIm = Math.sin(angle);
+			for(int i = 0; i < n; i += len){
+				double curRe = 1;
+				double curIm = 0;
+				for(int k = 0; k < len / 2; k++){
+					int a = i + k;
+					int b = a + len / 2;
+					double tRe = re[b] * curRe - im[b] * curIm;
+					double tIm = re[b] * curIm + im[b] * curRe;
+					re[b] = re[a] - tRe;
+					im[b] = im[a] - tIm;
+					re[a] += tRe;
+					im[a] += tIm;
+					double nextRe = curRe * wRe - curIm * wIm;
+					curIm = curRe * wIm + curIm * wRe;
+					curRe = nextRe;
+				}
+			}
+		}
+	}
+
+	//Replaces the value at a position of the window, updating the sums
+	private static void put(Channel channel, int pos, double value){
+		double old = channel.values[pos];
+		channel.sum += value - old;
+		channel.sumSq += value * value - old * old;
+		channel.values[pos] = value;
+	}
+
+	private static void resync(Channel channel){
+		double sum = 0;
+		double sumSq = 0;
+		for(double value : channel.values){
+			sum += value;
+			sumSq += value * value;
+		}
+		channel.sum = sum;
+		channel.sumSq = sumSq;
+	}
+
+	@Override
+	public String toString() {
+		return "FeatureExtractor [streams=" + streams + ", window=" + window + ", hop=" + hop + ", features=" + features
+				+ ", bands=" + bands + "]";
+	}
+
+}
@@ -0,0 +1,100 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import org.json.JSONArray;
+
+/**
+ * Library class with the fields which can be requested for the payloads of
+ * the sensor events, so that only the ones used by the application are
+ * computed. Masks are combinations of the RAW, EULER, MATRIX and LINEAR flags.
+ *
+ */
+final class FieldMask{
+
+	static final int RAW = 1; //Components as delivered by the SDK (x, y, z and w)
+	static final int EULER = 1 << 1; //Roll, pitch and yaw of the orientation
+	static final int MATRIX = 1 << 2; //Rotation matrix of the orientation
+	static final int LINEAR = 1 << 3; //Acceleration without gravity. Requires orientation data
+
+	private static final String[] NAMES = {"raw", "euler", "matrix", "linear"};
+
+	private FieldMask(){
+	}
+
+	//Fields delivered when none are requested. Orientation includes the Euler angles for compatibility
+	static int defaultFor(EventType type){
+		return (type == EventType.ORIENTATION || type == EventType.MOTION_FRAME || type == EventType.SYNC_FRAME) ? (RAW | EULER) : RAW;
+	}
+
+	static int supportedBy(EventType type){
+		int res = 0;
+		switch(type){
+		case ORIENTATION:
+			res = RAW | EULER | MATRIX;
+			break;
+		case ACCELEROMETER:
+			res = RAW | LINEAR;
+			break;
+		case GYROSCOPE:
+		case RSSI:
+			res = RAW;
+			break;
+		case MOTION_FRAME: //Applied to each of the joined streams
+		case SYNC_FRAME:
+			res = RAW | EULER | MATRIX | LINEAR;
+			break;
+		default:
+			break;
+		}
+		return res;
+	}
+
+	/**
+	 * @param names Array of field names: "raw", "euler", "matrix", "linear"
+	 * @throws IllegalArgumentException if a field is unknown or not supported by the event type
+	 */
+	static int parse(EventType type, JSONArray names){
+		int res = 0;
+		for(int i = 0; i < names.length(); i++){
+			String name = names.optString(i);
+			int field = 0;
+			for(int j = 0; j < NAMES.length && field == 0; j++){
+				if(NAMES[j].equals(name)){
+					field = 1 << j;
+				}
+			}
+			if((field & supportedBy(type)) == 0){
+				throw new IllegalArgumentException("Unsupported field for event type " + type.jsName + ": " + name);
+			}
+			res |= field;
+		}
+		if(res == 0){
+			throw new IllegalArgumentException("No fields requested for event type " + type.jsName);
+		}
+		return res;
+	}
+
+}
@@ -0,0 +1,287 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import java.util.Arrays;
+
+import org.json.JSONObject;
+
+import com.tribalyte.plugin.myo.MotionFrameJoiner.Frame;
+import com.tribalyte.plugin.myo.MyoEventController.MyoWithJson;
+
+/**
+ * Aligns the IMU samples of all the connected Myo devices into a single
+ * frame per tick, for the "syncFrame" event.
+ *
+ * Timestamps are first normalized to the Hub clock: the offset of each device
+ * is estimated on the listener thread as the minimum delay between the
+ * timestamp of its samples and their reception (see {@link #updateClockOffset}).
+ * The last samples of each stream and device are kept in short rings, and the
+ * value at each tick is interpolated (SLERP for orientations) from the samples
+ * around it. A tick is delivered when every connected device has samples
+ * past it, or when some device is ahead of it by more than the maximum skew;
+ * devices without samples within the skew have null streams.
+ *
+ * Only used from the dispatcher thread, so devices need no locks. Slots are
+ * indexed like the MyoRegistry, so any number of attached devices is supported.
+ *
+ */
+class FrameSynchronizer{
+
+	static final long DEFAULT_INTERVAL_MS = 20; //The IMU rate of the Myo
+	static final long DEFAULT_MAX_SKEW_MS = 40;
+	static final long MAX_INTERVAL_MS = 1000;
+	private static final int HISTORY = 16; //Samples per stream and device. Must be a power of 2
+	private static final long MAX_CATCH_UP_MS = 1000; //Older ticks are skipped, not delivered
+	private static final double OFFSET_GAIN = 0.01; //How fast the offset follows increasing delays (clock drift)
+
+	private static final EventType[] STREAM_TYPES = {EventType.ACCELEROMETER, EventType.GYROSCOPE, EventType.ORIENTATION};
+
+	//Last samples of a stream, with normalized timestamps
+	private static final class Track{
+		final long[] timestamps = new long[HISTORY];
+		final double[] values = new double[4 * HISTORY];
+		int next = 0;
+		int count = 0;
+	}
+
+	private static final class State{
+		final MyoWithJson myoWithJson;
+		final Track[] tracks = new Track[STREAM_TYPES.length]; //Null if not requested
+		State(MyoWithJson myoWithJson, int streams) {
+			this.myoWithJson = myoWithJson;
+			for(int i = 0; i < STREAM_TYPES.length; i++){
+				if((streams & (1 << STREAM_TYPES[i].ordinal())) != 0){
+					tracks[i] = new Track();
+				}
+			}
+		}
+	}
+
+	final int streams; //MotionFrameJoiner streams mask
+	final long intervalMs;
+	final long maxSkewMs;
+	private final SlotStates<State> mStates = new SlotStates<State>() {
+		State newState(MyoWithJson myoWithJson, SensorSample sample) {
+			return new State(myoWithJson, streams);
+		}
+	};
+	private Frame[] mFrames = new Frame[0]; //Frame of each device in the last tick, in the order of the connected devices
+	private int mFrameCount = 0;
+	private long mTimestamp; //Of the last tick
+	private long mNextTick = Long.MIN_VALUE; //Not started
+	private long mNewest = Long.MIN_VALUE; //Newest normalized timestamp of any device
+
+	FrameSynchronizer(int streams, long intervalMs, long maxSkewMs) {
+		this.streams = streams;
+		this.intervalMs = intervalMs;
+		this.maxSkewMs = maxSkewMs;
+	}
+
+	/**
+	 * Options format: {interval: number (ms), maxSkew: number (ms)}. Options can be null
+	 * @param streams Streams to be synchronized (mask of the requested ones)
+	 * @throws IllegalArgumentException if the options are not valid
+	 */
+	static FrameSynchronizer fromJson(int streams, JSONObject options){
+		long intervalMs = DEFAULT_INTERVAL_MS;
+		long maxSkewMs = DEFAULT_MAX_SKEW_MS;
+		if(options != null){
+			intervalMs = options.optLong("interval", DEFAULT_INTERVAL_MS);
+			maxSkewMs = options.optLong("maxSkew", DEFAULT_MAX_SKEW_MS);
+		}
+		if(intervalMs < 1 || intervalMs > MAX_INTERVAL_MS){
+			throw new IllegalArgumentException("Interval must be between 1 and " + MAX_INTERVAL_MS + " ms: " + intervalMs);
+		}
+		if(maxSkewMs < 0 || maxSkewMs > MAX_CATCH_UP_MS){
+			throw new IllegalArgumentException("Max skew must be between 0 and " + MAX_CATCH_UP_MS + " ms: " + maxSkewMs);
+		}
+		return new FrameSynchronizer(streams, intervalMs, maxSkewMs);
+	}
+
+	/**
+	 * Updates the estimated offset between the Hub clock and the timestamps of a device.
+	 * Called from the listener thread on reception of each sample
+	 * @param now Current time of the Hub
+	 */
+	static void updateClockOffset(MyoWithJson myoWithJson, long timestamp, long now){
+		double delay = now - timestamp;
+		if(!myoWithJson.hasClockOffset || delay < myoWithJson.clockOffset){
+			myoWithJson.clockOffset = delay; //Less queuing than ever seen
+			myoWithJson.hasClockOffset = true;
+		}else{
+			myoWithJson.clockOffset += OFFSET_GAIN * (delay - myoWithJson.clockOffset);
+		}
+	}
+
+	//Stores an accelerometer, gyroscope or orientation sample. Frames are then retrieved with nextFrame
+	void add(MyoWithJson myoWithJson, SensorSample sample){
+		int stream = 1 << sample.type.ordinal();
+		if((streams & stream) == 0){
+			return;
+		}
+		Track track = mStates.get(myoWithJson, sample).tracks[indexOf(sample.type)];
+		long timestamp = sample.timestamp + Math.round(myoWithJson.clockOffset);
+		if(track.count > 0 && timestamp < track.timestamps[(track.next - 1) & (HISTORY - 1)]){
+			return; //Out of order, e.g. after a jump of the estimated offset
+		}
+		int pos = track.next;
+		track.timestamps[pos] = timestamp;
+		track.values[4 * pos] = sample.x;
+		track.values[4 * pos + 1] = sample.y;
+		track.values[4 * pos + 2] = sample.z;
+		track.values[4 * pos + 3] = sample.w;
+		track.next = (pos + 1) & (HISTORY - 1);
+		track.count = Math.min(track.count + 1, HISTORY);
+		mNewest = Math.max(mNewest, timestamp);
+		if(mNextTick == Long.MIN_VALUE || mNewest - mNextTick > MAX_CATCH_UP_MS){
+			mNextTick = ((mNewest - maxSkewMs) / intervalMs) * intervalMs;
+		}
+	}
+
+	/**
+	 * Computes the frame of the next tick, if it's due.
+	 * @param connected Devices to be included in the frame
+	 * @return Whether there was a tick to be delivered, which can be written with appendFrame
+	 */
+	boolean nextFrame(MyoWithJson[] connected){
+		while(mNextTick != Long.MIN_VALUE && isDue(mNextTick, connected)){
+			long tick = mNextTick;
+			mNextTick += intervalMs;
+			if(buildFrame(tick, connected)){
+				return true;
+			}
+			//Nobody has samples around this tick, e.g. all the devices were paused
+		}
+		return false;
+	}
+
+	//{"eventName":"syncFrame","timestamp":...,"devices":[{"myo":[...],"accel":{...},"gyro":{...},"rotation":{...}}, ...]}
+	StringBuilder appendFrame(StringBuilder sb, int fields){
+		return JsonEventWriter.appendSyncFrame(sb, mTimestamp, mFrames, mFrameCount, streams, fields);
+	}
+
+	//Discards the samples of a Myo, e.g. when it's detached
+	void clear(int myoIndex){
+		mStates.clear(myoIndex);
+	}
+
+	private boolean isDue(long tick, MyoWithJson[] connected){
+		if(mNewest - tick >= maxSkewMs){
+			return true; //Lagging devices are not waited for any longer
+		}
+		boolean res = connected.length > 0;
+		for(int i = 0; res && i < connected.length; i++){
+			State state = mStates.find(connected[i]);
+			for(int j = 0; res && j < STREAM_TYPES.length; j++){
+				Track track = (state != null) ? state.tracks[j] : null;
+				res = (track == null && state != null)
+						|| (track != null && track.count > 0 && track.timestamps[(track.next - 1) & (HISTORY - 1)] >= tick);
+			}
+		}
+		return res;
+	}
+
+	//Returns false if no device has any stream at the tick
+	private boolean buildFrame(long tick, MyoWithJson[] connected){
+		if(mFrames.length < connected.length){
+			int length = mFrames.length;
+			mFrames = Arrays.copyOf(mFrames, connected.length);
+			for(int i = length; i < mFrames.length; i++){
+				mFrames[i] = new Frame();
+			}
+			AllocationStats.bufferAllocated();
+		}
+		boolean res = false;
+		for(int i = 0; i < connected.length; i++){
+			Frame frame = mFrames[i];
+			frame.myoWithJson = connected[i];
+			frame.timestamp = tick;
+			frame.present = 0;
+			State state = mStates.find(connected[i]);
+			for(int j = 0; state != null && j < STREAM_TYPES.length; j++){
+				if(state.tracks[j] != null && interpolate(state.tracks[j], tick, frame.get(STREAM_TYPES[j]))){
+					frame.present |= 1 << STREAM_TYPES[j].ordinal();
+				}
+			}
+			SensorSample q = frame.orientation;
+			boolean hasOrientation = (frame.present & MotionFrameJoiner.ORIENTATION) != 0;
+			frame.accel.setOrientation(hasOrientation, q.x, q.y, q.z, q.w); //For the linear acceleration
+			res = res || frame.present != 0;
+		}
+		mFrameCount = connected.length;
+		mTimestamp = tick;
+		return res;
+	}
+
+	/**
+	 * Writes into out the value of the track at the given time: interpolated between the samples around it,
+	 * or the nearest one if only one side is within the maximum skew.
+	 * @return false if there are no samples within the maximum skew
+	 */
+	private boolean interpolate(Track track, long tick, SensorSample out){
+		int before = -1;
+		int after = -1;
+		for(int i = 1; i <= track.count; i++){ //From the newest to the oldest
+			int pos = (track.next - i) & (HISTORY - 1);
+			if(track.timestamps[pos] >= tick){
+				after = pos;
+			}else{
+				before = pos;
+				break;
+			}
+		}
+		boolean useBefore = before >= 0 && tick - track.timestamps[before] <= maxSkewMs;
+		boolean useAfter = after >= 0 && track.timestamps[after] - tick <= maxSkewMs;
+		if(!useBefore && !useAfter){
+			return false;
+		}
+		int first = useBefore ? before : after;
+		double[] v = track.values;
+		out.set(tick, (out.type == EventType.ORIENTATION) ? 4 : 3, v[4 * first], v[4 * first + 1], v[4 * first + 2],
+				v[4 * first + 3]);
+		if(useBefore && useAfter){
+			double t = (double)(tick - track.timestamps[before]) / (track.timestamps[after] - track.timestamps[before]);
+			if(out.count == 4){
+				OrientationFilter.slerp(out, v[4 * after], v[4 * after + 1], v[4 * after + 2], v[4 * after + 3], t);
+			}else{
+				out.x += t * (v[4 * after] - out.x);
+				out.y += t * (v[4 * after + 1] - out.y);
+				out.z += t * (v[4 * after + 2] - out.z);
+			}
+		}
+		return true;
+	}
+
+	private static int indexOf(EventType type){
+		return (type == EventType.ACCELEROMETER) ? 0 : ((type == EventType.GYROSCOPE) ? 1 : 2);
+	}
+
+	@Override
+	public String toString() {
+		return "FrameSynchronizer [streams=" + streams + ", intervalMs=" + intervalMs + ", maxSkewMs=" + maxSkewMs + "]";
+	}
+
+}
@@ -0,0 +1,274 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import com.thalmic.myo.Pose;
+import com.tribalyte.plugin.myo.MyoEventController.MyoWithJson;
+
+/**
+ * Native gesture layer on top of the pose events, per Myo device. A gesture
+ * is a sequence of one or more poses, each of them held for a minimum time,
+ * optionally constrained to an orientation range of the device when it's
+ * completed. REST and UNKNOWN poses between the steps of a sequence are
+ * ignored.
+ *
+ * Only the completed gestures are delivered, as "gesture" events. Hold times
+ * are measured with the timestamps of the events, and are checked when a pose
+ * or an orientation sample arrives, so the orientation stream acts as a 50 Hz
+ * clock while a pose is held. As the dispatcher delivers the pose events ahead
+ * of the queued samples, a pose also counts if it was held for long enough
+ * when it ends, and orientation ranges are checked with the first sample taken
+ * at or after the completion. Only used from the dispatcher thread, apart from
+ * the configuration.
+ *
+ */
+class GestureDetector{
+
+	static final long DEFAULT_GAP_MS = 1000;
+
+	interface Listener{
+		void onGesture(MyoWithJson myoWithJson, Gesture gesture, long timestamp);
+	}
+
+	static final class Gesture{
+		final String name;
+		final Pose[] poses;
+		final long holdMs; //Minimum time each pose of the sequence must be held
+		final long gapMs; //Maximum time between the completion of a step and the start of the next one
+		final double[] ranges; //Roll, pitch and yaw ranges in radians (min, max), null if not constrained
+
+		Gesture(String name, Pose[] poses, long holdMs, long gapMs, double[] ranges) {
+			this.name = name;
+			this.poses = poses;
+			this.holdMs = holdMs;
+			this.gapMs = gapMs;
+			this.ranges = ranges;
+		}
+
+		/**
+		 * Format: {name: string, poses: [Pose name, ...], hold: number (ms), gap: number (ms),
+		 * roll: [min, max], pitch: [min, max], yaw: [min, max]} (angles in radians)
+		 * @throws IllegalArgumentException if the definition is not valid
+		 */
+		static Gesture fromJson(JSONObject json){
+			String name = json.optString("name", null);
+			JSONArray names = json.optJSONArray("poses");
+			if(name == null || names == null || names.length() == 0){
+				throw new IllegalArgumentException("A gesture needs a name and at least one pose: " + json);
+			}
+			Pose[] poses = new Pose[names.length()];
+			for(int i = 0; i < poses.length; i++){
+				try{
+					poses[i] = Pose.valueOf(names.optString(i).toUpperCase(Locale.US));
+				}catch(IllegalArgumentException e){
+					poses[i] = null;
+				}
+				if(poses[i] == null || poses[i] == Pose.REST || poses[i] == Pose.UNKNOWN){
+					throw new IllegalArgumentException("Unsupported pose in gesture " + name + ": " + names.optString(i));
+				}
+			}
+			double[] ranges = null;
+			String[] angles = {"roll", "pitch", "yaw"};
+			for(int i = 0; i < angles.length; i++){
+				JSONArray range = json.optJSONArray(angles[i]);
+				if(range != null){
+					if(ranges == null){
+						ranges = new double[]{-Math.PI, Math.PI, -Math.PI, Math.PI, -Math.PI, Math.PI};
+					}
+					ranges[2 * i] = range.optDouble(0, -Math.PI);
+					ranges[2 * i + 1] = range.optDouble(1, Math.PI);
+				}
+			}
+			return new Gesture(name, poses, Math.max(0, json.optLong("hold", 0)),
+					Math.max(0, json.optLong("gap", DEFAULT_GAP_MS)), ranges);
+		}
+
+		boolean acceptsOrientation(State state){
+			boolean res = true;
+			if(ranges != null){
+				SensorSample q = state.orientation;
+				res = state.hasOrientation
+						&& inRange(q.roll(), ranges[0], ranges[1])
+						&& inRange(q.pitch(), ranges[2], ranges[3])
+						&& inRange(q.yaw(), ranges[4], ranges[5]);
+			}
+			return res;
+		}
+
+		//Ranges whose minimum is greater than the maximum wrap around, e.g. [3, -3] for yaw
+		private static boolean inRange(double value, double min, double max){
+			return (min <= max) ? (value >= min && value <= max) : (value >= min || value <= max);
+		}
+	}
+
+	private static final class State{
+		final MyoWithJson myoWithJson;
+		final Gesture[] gestures; //Configuration the progress refers to
+		Pose pose = Pose.REST;
+		long poseStart = 0;
+		final boolean[] consumed; //Whether the current pose has already been handled, per gesture
+		final int[] step; //Next step of the sequence, per gesture
+		final long[] stepEnd; //Completion time of the last step, per gesture
+		final long[] pending; //Completion time of a gesture waiting for its orientation, -1 if none
+		final SensorSample orientation = new SensorSample(EventType.ORIENTATION, "rotation");
+		boolean hasOrientation = false;
+		State(MyoWithJson myoWithJson, Gesture[] gestures) {
+			this.myoWithJson = myoWithJson;
+			this.gestures = gestures;
+			consumed = new boolean[gestures.length];
+			step = new int[gestures.length];
+			stepEnd = new long[gestures.length];
+			pending = new long[gestures.length];
+			Arrays.fill(consumed, true);
+			Arrays.fill(pending, -1);
+		}
+	}
+
+	private final Listener mListener;
+	private volatile Gesture[] mGestures = new Gesture[0];
+	private volatile boolean mNeedsOrientation = false;
+	private State[] mStates = new State[0]; //Indexed by Myo slot index
+
+	GestureDetector(Listener listener) {
+		mListener = listener;
+	}
+
+	//The progress of the previous gestures is discarded
+	void setGestures(Gesture[] gestures){
+		boolean needsOrientation = false;
+		for(Gesture gesture : gestures){
+			needsOrientation = needsOrientation || gesture.holdMs > 0 || gesture.ranges != null;
+		}
+		mGestures = gestures;
+		mNeedsOrientation = needsOrientation;
+	}
+
+	boolean isActive(){
+		return mGestures.length > 0;
+	}
+
+	//Whether the orientation samples must be delivered, as a clock for hold times or for the ranges
+	boolean needsOrientation(){
+		return mNeedsOrientation;
+	}
+
+	void onPose(MyoWithJson myoWithJson, Pose pose, long timestamp){
+		State state = getState(myoWithJson);
+		if(state != null && pose != state.pose){
+			check(state, timestamp); //The previous pose may have been held for long enough
+			state.pose = pose;
+			state.poseStart = timestamp;
+			Arrays.fill(state.consumed, false);
+			check(state, timestamp);
+		}
+	}
+
+	void onOrientation(MyoWithJson myoWithJson, SensorSample sample){
+		State state = getState(myoWithJson);
+		if(state != null){
+			state.orientation.copy(sample);
+			state.hasOrientation = true;
+			for(int i = 0; i < state.pending.length; i++){
+				if(state.pending[i] >= 0 && sample.timestamp >= state.pending[i]){
+					long completion = state.pending[i];
+					state.pending[i] = -1;
+					if(state.gestures[i].acceptsOrientation(state)){
+						mListener.onGesture(state.myoWithJson, state.gestures[i], completion);
+					}
+				}
+			}
+			check(state, sample.timestamp);
+		}
+	}
+
+	//Forgets the progress of a detached Myo
+	void clear(int myoIndex){
+		if(myoIndex < mStates.length){
+			mStates[myoIndex] = null;
+		}
+	}
+
+	//Returns null if there are no gestures
+	private State getState(MyoWithJson myoWithJson){
+		Gesture[] gestures = mGestures;
+		State res = null;
+		if(gestures.length > 0){
+			int index = myoWithJson.index;
+			if(index >= mStates.length){
+				mStates = Arrays.copyOf(mStates, index + 1);
+			}
+			res = mStates[index];
+			if(res == null || res.myoWithJson != myoWithJson || res.gestures != gestures){
+				res = new State(myoWithJson, gestures);
+				mStates[index] = res;
+			}
+		}
+		return res;
+	}
+
+	private void check(State state, long timestamp){
+		for(int i = 0; i < state.gestures.length; i++){
+			Gesture gesture = state.gestures[i];
+			if(state.consumed[i]){
+				continue;
+			}
+			if(state.pose == Pose.REST || state.pose == Pose.UNKNOWN){
+				state.consumed[i] = true;
+			}else if(timestamp - state.poseStart >= gesture.holdMs){
+				state.consumed[i] = true;
+				advance(state, i, state.poseStart + gesture.holdMs);
+			}
+		}
+	}
+
+	//Called when the current pose has been held for long enough for the gesture. The timestamp is when that happened
+	private void advance(State state, int i, long timestamp){
+		Gesture gesture = state.gestures[i];
+		if(state.step[i] > 0 && state.poseStart - state.stepEnd[i] > gesture.gapMs){
+			state.step[i] = 0;
+		}
+		if(state.pose == gesture.poses[state.step[i]]){
+			state.step[i]++;
+		}else{
+			state.step[i] = (state.pose == gesture.poses[0]) ? 1 : 0;
+		}
+		state.stepEnd[i] = timestamp;
+		if(state.step[i] == gesture.poses.length){
+			state.step[i] = 0;
+			if(gesture.ranges != null && !(state.hasOrientation && state.orientation.timestamp >= timestamp)){
+				state.pending[i] = timestamp;
+			}else if(gesture.acceptsOrientation(state)){
+				mListener.onGesture(state.myoWithJson, gesture, timestamp);
+			}
+		}
+	}
+
+}
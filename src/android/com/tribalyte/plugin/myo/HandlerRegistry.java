@@ -0,0 +1,104 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Registry of the event handlers, indexed by event type. Several handlers can
+ * be registered for the same type of event.
+ *
+ * Lookups don't take any lock: every modification replaces the array of
+ * handlers of the affected event type (copy-on-write), so the listener and
+ * dispatcher threads always read an immutable snapshot and don't contend with the JavaScript
+ * thread registering or unregistering handlers.
+ *
+ */
+class HandlerRegistry{
+
+	private static final EventSubscription[] NONE = new EventSubscription[0];
+
+	private final AtomicReferenceArray<EventSubscription[]> mSubs =
+			new AtomicReferenceArray<EventSubscription[]>(EventType.COUNT);
+
+	HandlerRegistry() {
+		for(int i = 0; i < EventType.COUNT; i++){
+			mSubs.set(i, NONE);
+		}
+	}
+
+	//The returned array must not be modified
+	EventSubscription[] get(EventType type){
+		return mSubs.get(type.ordinal());
+	}
+
+	//Returns the handler with the same id which has been replaced, if any
+	synchronized EventSubscription add(EventSubscription sub){
+		EventSubscription replaced = null;
+		EventSubscription[] current = mSubs.get(sub.type.ordinal());
+		List<EventSubscription> updated = new ArrayList<EventSubscription>(current.length + 1);
+		for(EventSubscription existing : current){
+			if(existing.id.equals(sub.id)){
+				replaced = existing;
+			}else{
+				updated.add(existing);
+			}
+		}
+		updated.add(sub);
+		mSubs.set(sub.type.ordinal(), updated.toArray(new EventSubscription[updated.size()]));
+		return replaced;
+	}
+
+	//Removes the handler with the given id, or all the handlers of the type if id is null
+	synchronized List<EventSubscription> remove(EventType type, String id){
+		List<EventSubscription> removed = new ArrayList<EventSubscription>();
+		EventSubscription[] current = mSubs.get(type.ordinal());
+		List<EventSubscription> updated = new ArrayList<EventSubscription>(current.length);
+		for(EventSubscription existing : current){
+			if(id == null || existing.id.equals(id)){
+				removed.add(existing);
+			}else{
+				updated.add(existing);
+			}
+		}
+		if(!removed.isEmpty()){
+			mSubs.set(type.ordinal(), updated.isEmpty() ? NONE : updated.toArray(new EventSubscription[updated.size()]));
+		}
+		return removed;
+	}
+
+	List<EventSubscription> getAll(){
+		List<EventSubscription> res = new ArrayList<EventSubscription>();
+		for(int i = 0; i < EventType.COUNT; i++){
+			for(EventSubscription sub : mSubs.get(i)){
+				res.add(sub);
+			}
+		}
+		return res;
+	}
+
+}
@@ -0,0 +1,220 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Library class which writes the sensor events as JSON text into reusable
+ * StringBuilders, using primitive values, so that no intermediate JSONObject
+ * nor boxed numbers are created per sample. The output is equivalent to the
+ * one produced through {@link JsonMapper}.
+ *
+ */
+final class JsonEventWriter{
+
+	private JsonEventWriter(){
+	}
+
+	/**
+	 * JSONObject whose serialized form is already known. PluginResult only
+	 * calls toString() on the JSON objects it receives, so this allows sending
+	 * JSON text as an object (instead of as a string) to JavaScript.
+	 */
+	static final class EncodedJson extends JSONObject{
+		private final String mJson;
+		EncodedJson(String json) {
+			mJson = json;
+		}
+		@Override
+		public String toString() {
+			return mJson;
+		}
+		@Override
+		public String toString(int indentSpaces) {
+			return mJson;
+		}
+	}
+
+	/**
+	 * Same as {@link EncodedJson}, for arrays. Only valid as the message of a
+	 * PluginResult, as JSONObject and JSONArray don't call toString() on the
+	 * values they contain.
+	 */
+	static final class EncodedJsonArray extends JSONArray{
+		private final String mJson;
+		EncodedJsonArray(String json) {
+			mJson = json;
+		}
+		@Override
+		public String toString() {
+			return mJson;
+		}
+		@Override
+		public String toString(int indentSpaces) {
+			return mJson;
+		}
+	}
+
+	//{"eventName":"...","myo":[...],"timestamp":...,"<key>":<value>}. Fields is a combination of FieldMask flags
+	static StringBuilder appendEvent(StringBuilder sb, String myoJson, SensorSample sample, int fields){
+		sb.append("{\"eventName\":\"").append(sample.evType).append("\",\"myo\":").append(myoJson).append(',');
+		appendFields(sb, sample, fields);
+		return sb.append('}');
+	}
+
+	//{"timestamp":...,"<key>":<value>}
+	static StringBuilder appendSample(StringBuilder sb, SensorSample sample, int fields){
+		sb.append('{');
+		appendFields(sb, sample, fields);
+		return sb.append('}');
+	}
+
+	//{"eventName":"motionFrame","myo":[...],"timestamp":...,"accel":{...},"gyro":{...},"rotation":{...}}
+	//Only the requested streams are written, as null if missing in the frame
+	static StringBuilder appendFrame(StringBuilder sb, String myoJson, MotionFrameJoiner.Frame frame, int streams,
+			int fields){
+		sb.append("{\"eventName\":\"").append(EventType.MOTION_FRAME.jsName).append("\",\"myo\":").append(myoJson);
+		sb.append(",\"timestamp\":").append(frame.timestamp);
+		appendStream(sb, frame, frame.accel, streams, fields);
+		appendStream(sb, frame, frame.gyro, streams, fields);
+		appendStream(sb, frame, frame.orientation, streams, fields);
+		return sb.append('}');
+	}
+
+	//{"eventName":"syncFrame","timestamp":...,"devices":[{"myo":[...],"accel":{...},"gyro":{...},"rotation":{...}}, ...]}
+	static StringBuilder appendSyncFrame(StringBuilder sb, long timestamp, MotionFrameJoiner.Frame[] frames, int count,
+			int streams, int fields){
+		sb.append("{\"eventName\":\"").append(EventType.SYNC_FRAME.jsName).append("\",\"timestamp\":").append(timestamp);
+		sb.append(",\"devices\":[");
+		for(int i = 0; i < count; i++){
+			MotionFrameJoiner.Frame frame = frames[i];
+			sb.append((i > 0) ? ",{\"myo\":" : "{\"myo\":").append(frame.myoWithJson.myoJsonText);
+			appendStream(sb, frame, frame.accel, streams, fields);
+			appendStream(sb, frame, frame.gyro, streams, fields);
+			appendStream(sb, frame, frame.orientation, streams, fields);
+			sb.append('}');
+		}
+		return sb.append("]}");
+	}
+
+	//{"eventName":"...","myo":[...],"samples":[<samples>]}
+	static StringBuilder appendBatch(StringBuilder sb, String evType, String myoJson, CharSequence samples){
+		sb.append("{\"eventName\":\"").append(evType).append("\",\"myo\":").append(myoJson);
+		return sb.append(",\"samples\":[").append(samples).append("]}");
+	}
+
+	private static void appendFields(StringBuilder sb, SensorSample sample, int fields){
+		sb.append("\"timestamp\":").append(sample.timestamp);
+		appendValues(sb, sample, fields);
+	}
+
+	private static void appendStream(StringBuilder sb, MotionFrameJoiner.Frame frame, SensorSample sample, int streams,
+			int fields){
+		int stream = 1 << sample.type.ordinal();
+		if((streams & stream) != 0){
+			if((frame.present & stream) != 0){
+				int sampleFields = fields & FieldMask.supportedBy(sample.type);
+				appendValues(sb, sample, (sampleFields != 0) ? sampleFields : FieldMask.RAW);
+			}else{
+				sb.append(",\"").append(sample.key).append("\":null");
+			}
+		}
+	}
+
+	//,"<key>":<value>... Only the requested fields are computed. Orientation fields go into the "rotation" object
+	private static void appendValues(StringBuilder sb, SensorSample sample, int fields){
+		if(sample.count == 1){
+			sb.append(",\"").append(sample.key).append("\":");
+			appendNumber(sb, sample.x);
+		}else if(sample.count == 4){
+			sb.append(",\"").append(sample.key).append("\":{");
+			int len = sb.length();
+			if((fields & FieldMask.RAW) != 0){
+				appendXyz(sb, sample.x, sample.y, sample.z);
+				sb.append(",\"w\":");
+				appendNumber(sb, sample.w);
+			}
+			if((fields & FieldMask.EULER) != 0){
+				sb.append((sb.length() > len) ? "," : "").append("\"roll\":");
+				appendNumber(sb, sample.roll());
+				sb.append(",\"pitch\":");
+				appendNumber(sb, sample.pitch());
+				sb.append(",\"yaw\":");
+				appendNumber(sb, sample.yaw());
+			}
+			if((fields & FieldMask.MATRIX) != 0){
+				sb.append((sb.length() > len) ? "," : "").append("\"matrix\":[");
+				for(int i = 0; i < 9; i++){
+					if(i > 0){
+						sb.append(',');
+					}
+					appendNumber(sb, sample.matrix(i / 3, i % 3));
+				}
+				sb.append(']');
+			}
+			sb.append('}');
+		}else{
+			if((fields & FieldMask.RAW) != 0){
+				sb.append(",\"").append(sample.key).append("\":{");
+				appendXyz(sb, sample.x, sample.y, sample.z);
+				sb.append('}');
+			}
+			if((fields & FieldMask.LINEAR) != 0){
+				sb.append(",\"linearAccel\":");
+				if(sample.hasOrientation){
+					sb.append('{');
+					appendXyz(sb, sample.linearX(), sample.linearY(), sample.linearZ());
+					sb.append('}');
+				}else{
+					sb.append("null");
+				}
+			}
+		}
+	}
+
+	//"x":...,"y":...,"z":...
+	private static void appendXyz(StringBuilder sb, double x, double y, double z){
+		sb.append("\"x\":");
+		appendNumber(sb, x);
+		sb.append(",\"y\":");
+		appendNumber(sb, y);
+		sb.append(",\"z\":");
+		appendNumber(sb, z);
+	}
+
+	//JSON has no representation for NaN nor infinity
+	static void appendNumber(StringBuilder sb, double value){
+		if(Double.isNaN(value) || Double.isInfinite(value)){
+			sb.append("null");
+		}else if(value == (long)value){
+			sb.append((long)value);
+		}else{
+			sb.append(value);
+		}
+	}
+
+}
@@ -28,8 +28,6 @@ package com.tribalyte.plugin.myo;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
-import android.util.Log;
-
 import com.thalmic.myo.Myo;
 import com.thalmic.myo.Quaternion;
 import com.thalmic.myo.Vector3;
@@ -60,7 +58,7 @@ public class JsonMapper{
 			v3Json.put("y", v3.y());
 			v3Json.put("z", v3.z());
 		}catch(Exception e){
-			loge("ERROR mapping Vector3", e);
+			PluginLog.e(TAG, "ERROR mapping Vector3", e);
 		}
 		return v3Json;
 	}
@@ -77,15 +75,9 @@ public class JsonMapper{
 			res.put("pitch", Quaternion.pitch(q));
 			res.put("yaw", Quaternion.yaw(q));
 		}catch(Exception e){
-			loge("ERROR mapping Quaternion", e);
+			PluginLog.e(TAG, "ERROR mapping Quaternion", e);
 		}
 		return res;
 	}
-	
-	private static void loge(String msg, Throwable t) {
-		if(MyoApi.LOG_ENABLED){
-			Log.d(TAG, msg, t);
-		}
-	}
 
 }
@@ -0,0 +1,137 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Lock-free histogram of durations in nanoseconds, with log-linear buckets in
+ * the style of HdrHistogram: 32 linear sub-buckets per power of two, so the
+ * relative error of the percentiles is below 3%. Values up to about 137 seconds
+ * (2^37 ns) are tracked; longer ones are counted in the last bucket.
+ *
+ * Recording never blocks nor allocates. Snapshots are not atomic, which is
+ * fine for monitoring purposes.
+ *
+ */
+final class LatencyHistogram{
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_MAGNITUDE = 36; //2^36 ns
+	private static final int BUCKETS = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+	private static final long MAX_TRACKED_NS = (1L << (MAX_MAGNITUDE + 1)) - 1;
+	private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+	private static final String[] PERCENTILE_KEYS = {"p50", "p90", "p99", "p999"};
+
+	private final AtomicLongArray mCounts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong mCount = new AtomicLong();
+	private final AtomicLong mTotalNs = new AtomicLong();
+	private final AtomicLong mMaxNs = new AtomicLong();
+
+	void record(long ns){
+		if(ns < 0){
+			ns = 0;
+		}
+		mCounts.incrementAndGet(indexOf(ns));
+		mCount.incrementAndGet();
+		mTotalNs.addAndGet(ns);
+		long max = mMaxNs.get();
+		while(ns > max && !mMaxNs.compareAndSet(max, ns)){
+			max = mMaxNs.get();
+		}
+	}
+
+	void reset(){
+		for(int i = 0; i < BUCKETS; i++){
+			mCounts.set(i, 0);
+		}
+		mCount.set(0);
+		mTotalNs.set(0);
+		mMaxNs.set(0);
+	}
+
+	//{count, mean, p50, p90, p99, p999, max}, durations in microseconds
+	JSONObject toJson(){
+		JSONObject res = new JSONObject();
+		long[] counts = new long[BUCKETS];
+		long count = 0;
+		for(int i = 0; i < BUCKETS; i++){
+			counts[i] = mCounts.get(i);
+			count += counts[i];
+		}
+		try{
+			res.put("count", count);
+			res.put("mean", (count > 0) ? toMicros(mTotalNs.get() / (double)count) : 0);
+			int bucket = 0;
+			long seen = 0;
+			for(int p = 0; p < PERCENTILES.length; p++){
+				long rank = (long)Math.ceil(PERCENTILES[p] / 100 * count);
+				while(bucket < BUCKETS - 1 && seen + counts[bucket] < rank){
+					seen += counts[bucket];
+					bucket++;
+				}
+				res.put(PERCENTILE_KEYS[p], (count > 0) ? toMicros(Math.min(valueOf(bucket), mMaxNs.get())) : 0);
+			}
+			res.put("max", toMicros(mMaxNs.get()));
+		}catch(JSONException e){
+			//Not expected, as all the values are numbers
+		}
+		return res;
+	}
+
+	private static int indexOf(long ns){
+		int res;
+		if(ns < 2 * SUB_BUCKETS){
+			res = (int)ns;
+		}else{
+			long value = Math.min(ns, MAX_TRACKED_NS);
+			int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+			res = shift * SUB_BUCKETS + (int)(value >>> shift);
+		}
+		return res;
+	}
+
+	//Highest value which falls in the bucket
+	private static long valueOf(int index){
+		long res;
+		if(index < 2 * SUB_BUCKETS){
+			res = index;
+		}else{
+			int shift = index / SUB_BUCKETS - 1;
+			res = ((long)(index - shift * SUB_BUCKETS + 1) << shift) - 1;
+		}
+		return res;
+	}
+
+	private static double toMicros(double ns){
+		return Math.round(ns / 100) / 10.0;
+	}
+
+}
@@ -0,0 +1,507 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * WebSocket server bound to the loopback interface, which streams the sensor
+ * samples to JavaScript without going through the Cordova bridge.
+ *
+ * Samples are sent as binary messages with the records of
+ * {@link BinaryEncoder}. The records posted while the server thread is busy
+ * are sent together in a single message, so the number of messages adapts to
+ * the load. Clients must connect to the URL with the random token returned by
+ * {@link #getSummary}; other connections are rejected. Clients which don't
+ * keep up lose messages instead of delaying the rest.
+ *
+ * Only the parts of RFC 6455 needed by this use are implemented: the server
+ * doesn't receive data messages, fragments or extensions.
+ *
+ */
+class LoopbackStreamServer{
+
+	private static final String TAG = LoopbackStreamServer.class.getSimpleName();
+	private static final PluginLog.Sampler DROP_LOG = new PluginLog.Sampler(5000);
+
+	static final int MAX_PENDING = 64 * 1024; //Bytes of records waiting for the server thread
+	static final int MAX_CLIENT_BACKLOG = 256 * 1024; //Unsent bytes per client
+	private static final int MAX_CLIENTS = 8;
+	private static final int MAX_REQUEST = 4096; //Handshake, and control frames afterwards
+	private static final String WS_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+	private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+	private static final int OP_BINARY = 0x2;
+	private static final int OP_CLOSE = 0x8;
+	private static final int OP_PING = 0x9;
+	private static final int OP_PONG = 0xA;
+
+	private static class Client{
+		final SocketChannel channel;
+		final ByteBuffer in = ByteBuffer.allocate(MAX_REQUEST);
+		ByteBuffer out = ByteBuffer.allocate(16 * 1024); //Ready to be written: flipped
+		boolean upgraded = false; //Handshake completed
+		boolean closing = false; //Closed once out is written
+		Client(SocketChannel channel) {
+			this.channel = channel;
+			out.flip();
+		}
+	}
+
+	final int streams; //MotionFrameJoiner streams mask
+	private final Selector mSelector;
+	private final ServerSocketChannel mServer;
+	private final int mPort;
+	private final String mToken;
+	private final List<Client> mClients = new ArrayList<Client>(); //Only used from the server thread
+	private final Object mLock = new Object(); //Guards mPending
+	private ByteBuffer mPending = ByteBuffer.allocate(MAX_PENDING);
+	private ByteBuffer mSending = ByteBuffer.allocate(MAX_PENDING); //Only used from the server thread
+	private volatile boolean mStopped = false;
+	private volatile int mUpgradedClients = 0;
+
+	//Statistics
+	private volatile long mSentMessages = 0;
+	private volatile long mDroppedRecords = 0; //Because the server thread didn't keep up
+	private volatile long mDroppedMessages = 0; //Because a client didn't keep up
+
+	private LoopbackStreamServer(int streams, Selector selector, ServerSocketChannel server, String token) {
+		this.streams = streams;
+		mSelector = selector;
+		mServer = server;
+		mPort = server.socket().getLocalPort();
+		mToken = token;
+	}
+
+	/**
+	 * Binds the server and starts its thread.
+	 * Options format: {streams: ["accel" | "gyro" | "rotation", ...], port: number}. Options can be null.
+	 * The port is 0 by default, which means any free port
+	 * @throws IllegalArgumentException if the options are not valid
+	 * @throws IOException if the server can't be bound
+	 */
+	static LoopbackStreamServer start(JSONObject options) throws IOException {
+		int streams = MotionFrameJoiner.ALL_STREAMS;
+		int port = 0;
+		if(options != null){
+			JSONArray names = options.optJSONArray("streams");
+			if(names != null){
+				streams = MotionFrameJoiner.parseStreams(names);
+			}
+			port = options.optInt("port", 0);
+			if(port < 0 || port > 65535){
+				throw new IllegalArgumentException("Invalid port: " + port);
+			}
+		}
+		byte[] tokenBytes = new byte[16];
+		new SecureRandom().nextBytes(tokenBytes);
+		StringBuilder token = new StringBuilder();
+		for(byte b : tokenBytes){
+			token.append(String.format(Locale.US, "%02x", b & 0xFF));
+		}
+		Selector selector = Selector.open();
+		ServerSocketChannel server = ServerSocketChannel.open();
+		try{
+			server.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+			server.configureBlocking(false);
+			server.register(selector, SelectionKey.OP_ACCEPT);
+		}catch(IOException e){
+			server.close();
+			selector.close();
+			throw e;
+		}
+		final LoopbackStreamServer res = new LoopbackStreamServer(streams, selector, server, token.toString());
+		new Thread(new Runnable() {
+			public void run() {
+				res.serve();
+			}
+		}, "MyoStreamServer").start();
+		PluginLog.d(TAG, "Streaming server listening on port {}", res.getPort());
+		return res;
+	}
+
+	void stop(){
+		mStopped = true;
+		mSelector.wakeup();
+	}
+
+	//Whether any client would receive the records. Samples don't need to be encoded otherwise
+	boolean hasClients(){
+		return mUpgradedClients > 0 && !mStopped;
+	}
+
+	/**
+	 * Queues a binary record, read from its position to its limit, to be sent to all the clients.
+	 * Called from the dispatcher thread
+	 */
+	void offer(ByteBuffer record){
+		boolean wakeup = false;
+		synchronized(mLock){
+			if(mPending.remaining() < record.remaining()){
+				mDroppedRecords++;
+				DROP_LOG.w(TAG, "Streaming server not keeping up, records dropped: {}", mDroppedRecords);
+				return;
+			}
+			wakeup = mPending.position() == 0; //Otherwise the server thread is already due to send
+			mPending.put(record);
+		}
+		if(wakeup){
+			mSelector.wakeup();
+		}
+	}
+
+	int getPort(){
+		return mPort;
+	}
+
+	//Summary format: {url, port, clients, sentMessages, droppedRecords, droppedMessages}
+	JSONObject getSummary(){
+		JSONObject res = new JSONObject();
+		try{
+			res.put("url", "ws://127.0.0.1:" + getPort() + "/" + mToken);
+			res.put("port", getPort());
+			res.put("clients", mUpgradedClients);
+			res.put("sentMessages", mSentMessages);
+			res.put("droppedRecords", mDroppedRecords);
+			res.put("droppedMessages", mDroppedMessages);
+		}catch(JSONException e){
+			//Not expected, as all the values are valid
+		}
+		return res;
+	}
+
+	private void serve(){
+		try{
+			while(!mStopped){
+				mSelector.select();
+				Iterator<SelectionKey> keys = mSelector.selectedKeys().iterator();
+				while(keys.hasNext()){
+					SelectionKey key = keys.next();
+					keys.remove();
+					try{
+						if(key.isValid() && key.isAcceptable()){
+							accept();
+						}
+						if(key.isValid() && key.isReadable()){
+							read(key);
+						}
+						if(key.isValid() && key.isWritable()){
+							write(key);
+						}
+					}catch(IOException e){
+						PluginLog.d(TAG, "Streaming client closed: {}", e.getMessage());
+						close(key);
+					}catch(RuntimeException e){ //Only the offending client is closed, not the server
+						PluginLog.e(TAG, "Exception handling a streaming client", e);
+						close(key);
+					}
+				}
+				broadcast();
+			}
+		}catch(Exception e){
+			PluginLog.e(TAG, "Exception in the streaming server", e);
+		}finally{
+			for(SelectionKey key : mSelector.keys()){
+				close(key);
+			}
+			try{
+				mSelector.close();
+			}catch(IOException e){
+				//Nothing else to do
+			}
+			mUpgradedClients = 0;
+			PluginLog.d(TAG, "Streaming server stopped");
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = mServer.accept();
+		if(channel == null){
+			return;
+		}
+		if(mClients.size() >= MAX_CLIENTS){
+			PluginLog.w(TAG, "Too many streaming clients, connection rejected");
+			channel.close();
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		Client client = new Client(channel);
+		channel.register(mSelector, SelectionKey.OP_READ, client);
+		mClients.add(client);
+	}
+
+	private void read(SelectionKey key) throws IOException {
+		Client client = (Client)key.attachment();
+		if(client.channel.read(client.in) < 0){
+			throw new IOException("End of stream");
+		}
+		client.in.flip();
+		if(!client.upgraded){
+			handshake(key, client);
+		}else{
+			readFrames(key, client);
+		}
+		client.in.compact();
+		if(!client.in.hasRemaining()){
+			throw new IOException("Request too long");
+		}
+	}
+
+	//Replies to the HTTP upgrade request, once it's complete
+	private void handshake(SelectionKey key, Client client) throws IOException {
+		String request = new String(client.in.array(), 0, client.in.limit(), "ISO-8859-1");
+		int end = request.indexOf("\r\n\r\n");
+		if(end < 0){
+			return; //Incomplete
+		}
+		client.in.position(end + 4);
+		String[] lines = request.substring(0, end).split("\r\n");
+		String wsKey = null;
+		for(int i = 1; i < lines.length; i++){
+			int colon = lines[i].indexOf(':');
+			if(colon > 0 && lines[i].substring(0, colon).trim().equalsIgnoreCase("Sec-WebSocket-Key")){
+				wsKey = lines[i].substring(colon + 1).trim();
+			}
+		}
+		String response;
+		if(wsKey != null && lines[0].startsWith("GET /" + mToken + " ")){
+			response = "HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+					+ "Sec-WebSocket-Accept: " + acceptKey(wsKey) + "\r\n\r\n";
+			client.upgraded = true;
+			mUpgradedClients++;
+			PluginLog.d(TAG, "Streaming client connected");
+		}else{
+			PluginLog.w(TAG, "Streaming connection rejected: {}", lines[0]);
+			response = "HTTP/1.1 403 Forbidden\r\nContent-Length: 0\r\nConnection: close\r\n\r\n";
+			client.closing = true;
+		}
+		enqueue(key, client, response.getBytes("ISO-8859-1"));
+	}
+
+	//Handles the control frames sent by the client. Data frames are ignored
+	private void readFrames(SelectionKey key, Client client) throws IOException {
+		ByteBuffer in = client.in;
+		while(in.remaining() >= 2){
+			int start = in.position();
+			int opcode = in.get(start) & 0x0F;
+			boolean masked = (in.get(start + 1) & 0x80) != 0;
+			long length = in.get(start + 1) & 0x7F;
+			int headerSize = 2;
+			if(length == 126 && in.remaining() >= 4){
+				length = in.getShort(start + 2) & 0xFFFF;
+				headerSize = 4;
+			}else if(length == 127 && in.remaining() >= 10){
+				length = in.getLong(start + 2);
+				headerSize = 10;
+			}else if(length >= 126){
+				return; //Incomplete header
+			}
+			headerSize += masked ? 4 : 0;
+			if(length < 0 || length > MAX_REQUEST - headerSize){ //Negative if the 64-bit length overflows
+				throw new IOException("Frame too long");
+			}
+			if(in.remaining() < headerSize + length){
+				return; //Incomplete
+			}
+			byte[] payload = new byte[(int)length];
+			for(int i = 0; i < payload.length; i++){
+				byte mask = masked ? in.get(start + headerSize - 4 + (i & 3)) : 0;
+				payload[i] = (byte)(in.get(start + headerSize + i) ^ mask);
+			}
+			in.position(start + headerSize + (int)length);
+			if(opcode == OP_CLOSE){
+				client.closing = true; //Once the reply is written
+				enqueueFrame(key, client, OP_CLOSE, payload);
+				return;
+			}else if(opcode == OP_PING){
+				enqueueFrame(key, client, OP_PONG, payload);
+			}
+		}
+	}
+
+	//Sends the pending records to all the clients, as a single message
+	private void broadcast() throws IOException {
+		synchronized(mLock){
+			ByteBuffer swap = mPending;
+			mPending = mSending;
+			mSending = swap;
+		}
+		mSending.flip();
+		if(mSending.hasRemaining()){
+			byte[] header = frameHeader(OP_BINARY, mSending.remaining());
+			for(Client client : mClients){
+				if(!client.upgraded || client.closing){
+					continue;
+				}
+				if(client.out.remaining() + header.length + mSending.remaining() > MAX_CLIENT_BACKLOG){
+					mDroppedMessages++;
+					DROP_LOG.w(TAG, "Streaming client not keeping up, messages dropped: {}", mDroppedMessages);
+					continue;
+				}
+				SelectionKey key = client.channel.keyFor(mSelector);
+				append(client, header);
+				append(client, mSending.duplicate());
+				flush(key, client);
+			}
+			mSentMessages++;
+		}
+		mSending.clear();
+	}
+
+	private void write(SelectionKey key) throws IOException {
+		flush(key, (Client)key.attachment());
+	}
+
+	//Writes as much as possible, and waits for the channel to be writable for the rest
+	private void flush(SelectionKey key, Client client) throws IOException {
+		if(key == null || !key.isValid()){
+			return;
+		}
+		try{
+			client.channel.write(client.out);
+		}catch(IOException e){
+			PluginLog.d(TAG, "Streaming client closed: {}", e.getMessage());
+			close(key);
+			return;
+		}
+		if(client.out.hasRemaining()){
+			key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}else if(client.closing){
+			close(key);
+		}else{
+			key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	private void enqueueFrame(SelectionKey key, Client client, int opcode, byte[] payload) throws IOException {
+		append(client, frameHeader(opcode, payload.length));
+		append(client, ByteBuffer.wrap(payload));
+		flush(key, client);
+	}
+
+	private void enqueue(SelectionKey key, Client client, byte[] data) throws IOException {
+		append(client, data);
+		flush(key, client);
+	}
+
+	private static void append(Client client, byte[] data){
+		append(client, ByteBuffer.wrap(data));
+	}
+
+	//Adds data to the unsent bytes of the client, growing its buffer if needed
+	private static void append(Client client, ByteBuffer data){
+		ByteBuffer out = client.out;
+		out.compact();
+		if(out.remaining() < data.remaining()){
+			ByteBuffer bigger = ByteBuffer.allocate(Math.max(2 * out.capacity(), out.position() + data.remaining()));
+			AllocationStats.bufferAllocated();
+			out.flip();
+			bigger.put(out);
+			out = bigger;
+			client.out = out;
+		}
+		out.put(data);
+		out.flip();
+	}
+
+	//Unmasked final frame
+	private static byte[] frameHeader(int opcode, int length){
+		byte[] res;
+		if(length < 126){
+			res = new byte[]{(byte)(0x80 | opcode), (byte)length};
+		}else if(length < 65536){
+			res = new byte[]{(byte)(0x80 | opcode), 126, (byte)(length >> 8), (byte)length};
+		}else{
+			res = new byte[10];
+			res[0] = (byte)(0x80 | opcode);
+			res[1] = 127;
+			for(int i = 0; i < 8; i++){
+				res[2 + i] = (byte)(((long)length) >> (8 * (7 - i)));
+			}
+		}
+		return res;
+	}
+
+	private void close(SelectionKey key){
+		Object attachment = key.attachment();
+		if(attachment instanceof Client){
+			Client client = (Client)attachment;
+			if(mClients.remove(client) && client.upgraded){
+				mUpgradedClients--;
+			}
+		}
+		key.cancel();
+		try{
+			key.channel().close();
+		}catch(IOException e){
+			//Nothing else to do
+		}
+	}
+
+	//Sec-WebSocket-Accept value for the key sent by the client
+	private static String acceptKey(String wsKey) throws IOException {
+		byte[] digest;
+		try{
+			digest = MessageDigest.getInstance("SHA-1").digest((wsKey + WS_GUID).getBytes("ISO-8859-1"));
+		}catch(NoSuchAlgorithmException e){
+			throw new IOException("SHA-1 not available");
+		}
+		StringBuilder sb = new StringBuilder();
+		for(int i = 0; i < digest.length; i += 3){
+			int b = (digest[i] & 0xFF) << 16;
+			b |= (i + 1 < digest.length) ? (digest[i + 1] & 0xFF) << 8 : 0;
+			b |= (i + 2 < digest.length) ? (digest[i + 2] & 0xFF) : 0;
+			sb.append(BASE64[(b >> 18) & 0x3F]).append(BASE64[(b >> 12) & 0x3F]);
+			sb.append((i + 1 < digest.length) ? BASE64[(b >> 6) & 0x3F] : '=');
+			sb.append((i + 2 < digest.length) ? BASE64[b & 0x3F] : '=');
+		}
+		return sb.toString();
+	}
+
+	@Override
+	public String toString() {
+		return "LoopbackStreamServer [port=" + getPort() + ", streams=" + streams + "]";
+	}
+
+}
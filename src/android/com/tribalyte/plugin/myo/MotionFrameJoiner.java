@@ -0,0 +1,175 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import java.util.Arrays;
+
+import org.json.JSONArray;
+
+import com.tribalyte.plugin.myo.MyoEventController.MyoWithJson;
+
+/**
+ * Joins the accelerometer, gyroscope and orientation samples of the same IMU
+ * tick of a Myo device into a single frame, for the "motionFrame" event.
+ *
+ * A frame is completed as soon as it contains all the requested streams.
+ * If a sample doesn't fit in the pending frame (its stream is already there
+ * or its timestamp is out of the tolerance window), the pending frame is
+ * delivered without the missing streams and a new one is started. Each
+ * device has two frames which are swapped, the pending one and the one being
+ * delivered, so no frame is allocated per sample.
+ *
+ */
+class MotionFrameJoiner{
+
+	static final long TOLERANCE_MS = 5;
+
+	//Streams masks are combinations of the following flags
+	static final int ACCEL = 1 << EventType.ACCELEROMETER.ordinal();
+	static final int GYRO = 1 << EventType.GYROSCOPE.ordinal();
+	static final int ORIENTATION = 1 << EventType.ORIENTATION.ordinal();
+	static final int ALL_STREAMS = ACCEL | GYRO | ORIENTATION;
+
+	//Names of the streams in JavaScript, which are also the keys of their values in the events
+	private static final String[] STREAM_NAMES = {"accel", "gyro", "rotation"};
+	private static final int[] STREAM_FLAGS = {ACCEL, GYRO, ORIENTATION};
+
+	static final class Frame{
+		MyoWithJson myoWithJson;
+		long timestamp;
+		int present = 0; //Streams mask
+		final SensorSample accel = new SensorSample(EventType.ACCELEROMETER, "accel");
+		final SensorSample gyro = new SensorSample(EventType.GYROSCOPE, "gyro");
+		final SensorSample orientation = new SensorSample(EventType.ORIENTATION, "rotation");
+
+		SensorSample get(EventType type){
+			SensorSample res = null;
+			switch(type){
+			case ACCELEROMETER:
+				res = accel;
+				break;
+			case GYROSCOPE:
+				res = gyro;
+				break;
+			case ORIENTATION:
+				res = orientation;
+				break;
+			default:
+				break;
+			}
+			return res;
+		}
+	}
+
+	//Two frames per Myo: the pending one and the last delivered one, which is reused afterwards
+	private Frame[][] mFrames = new Frame[0][];
+
+	/**
+	 * @param streams Streams to be joined (mask of the requested ones)
+	 * @return The frame to be delivered, if any. Only valid until the next call
+	 */
+	Frame add(MyoWithJson myoWithJson, SensorSample sample, int streams){
+		int stream = 1 << sample.type.ordinal();
+		if((stream & streams) == 0){
+			return null;
+		}
+		Frame[] frames = getFrames(myoWithJson);
+		Frame pending = frames[0];
+		Frame res = null;
+		if(pending.present != 0 && ((pending.present & stream) != 0
+				|| Math.abs(sample.timestamp - pending.timestamp) > TOLERANCE_MS)){
+			res = swap(frames); //Incomplete, deliver it with the streams it has
+			pending = frames[0];
+		}
+		if(pending.present == 0){
+			pending.myoWithJson = myoWithJson;
+			pending.timestamp = sample.timestamp;
+		}
+		pending.get(sample.type).copy(sample);
+		pending.present |= stream;
+		if((pending.present & streams) == streams){
+			res = swap(frames); //At most one stream is requested if a frame was already delivered
+		}
+		return res;
+	}
+
+	//Discards the pending frame of a Myo, e.g. when it's detached
+	void clear(int myoIndex){
+		if(myoIndex < mFrames.length){
+			mFrames[myoIndex] = null;
+		}
+	}
+
+	//Returns the pending frame and starts an empty one
+	private static Frame swap(Frame[] frames){
+		Frame res = frames[0];
+		frames[0] = frames[1];
+		frames[1] = res;
+		frames[0].present = 0;
+		return res;
+	}
+
+	private Frame[] getFrames(MyoWithJson myoWithJson){
+		int index = myoWithJson.index;
+		if(index >= mFrames.length){
+			mFrames = Arrays.copyOf(mFrames, index + 1);
+		}
+		Frame[] frames = mFrames[index];
+		if(frames == null){
+			frames = new Frame[]{new Frame(), new Frame()};
+			mFrames[index] = frames;
+			AllocationStats.bufferAllocated();
+		}else if(frames[0].myoWithJson != myoWithJson){ //Slot reused by another device
+			frames[0].present = 0;
+		}
+		return frames;
+	}
+
+	/**
+	 * @param names Array of stream names: "accel", "gyro", "rotation"
+	 * @throws IllegalArgumentException if a stream is unknown
+	 */
+	static int parseStreams(JSONArray names){
+		int res = 0;
+		for(int i = 0; i < names.length(); i++){
+			String name = names.optString(i);
+			int stream = 0;
+			for(int j = 0; j < STREAM_NAMES.length; j++){
+				if(STREAM_NAMES[j].equals(name)){
+					stream = STREAM_FLAGS[j];
+				}
+			}
+			if(stream == 0){
+				throw new IllegalArgumentException("Unsupported motion frame stream: " + name);
+			}
+			res |= stream;
+		}
+		if(res == 0){
+			throw new IllegalArgumentException("No motion frame streams requested");
+		}
+		return res;
+	}
+
+}
@@ -24,18 +24,24 @@
 
 package com.tribalyte.plugin.myo;
 
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaInterface;
 import org.apache.cordova.CordovaPlugin;
 import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
+
 import org.json.JSONArray;
 import org.json.JSONException;
+import org.json.JSONObject;
 
 import android.app.Activity;
 import android.bluetooth.BluetoothAdapter;
 import android.content.Context;
 import android.content.Intent;
-import android.util.Log;
 
 import com.thalmic.myo.Hub;
 import com.thalmic.myo.Myo;
@@ -49,8 +55,6 @@ import com.thalmic.myo.scanner.ScanActivity;
  */
 public class MyoApi extends CordovaPlugin {
 	
-	public static final boolean LOG_ENABLED = true;
-	
 	private static final String TAG = MyoApi.class.getSimpleName();	
 
 	/* Actions on Hub */
@@ -71,6 +75,24 @@ public class MyoApi extends CordovaPlugin {
 	private static final String ACTION_NOW = "now";
 	private static final String ACTION_ON = "on";
 	private static final String ACTION_OFF = "off";
+	private static final String ACTION_SET_BATCHING = "setBatching";
+	private static final String ACTION_ACK = "ack";
+	private static final String ACTION_GET_ALLOC_STATS = "getAllocationStats";
+	private static final String ACTION_GET_SUBSCRIPTION_STATS = "getSubscriptionStats";
+	private static final String ACTION_SET_OVERFLOW_POLICY = "setOverflowPolicy";
+	private static final String ACTION_GET_DISPATCH_STATS = "getDispatchStats";
+	private static final String ACTION_START_RECORDING = "startRecording";
+	private static final String ACTION_STOP_RECORDING = "stopRecording";
+	private static final String ACTION_START_REPLAY = "startReplay";
+	private static final String ACTION_STOP_REPLAY = "stopReplay";
+	private static final String ACTION_SET_METRICS_ENABLED = "setMetricsEnabled";
+	private static final String ACTION_GET_METRICS = "getMetrics";
+	private static final String ACTION_SET_LOG_LEVEL = "setLogLevel";
+	private static final String ACTION_BATCH = "batch";
+	private static final String ACTION_SET_GESTURES = "setGestures";
+	private static final String ACTION_SET_AUTO_REFERENCE = "setAutoReferenceOrientation";
+	private static final String ACTION_START_STREAMING = "startStreaming";
+	private static final String ACTION_STOP_STREAMING = "stopStreaming";
 	private static final String ACTION_OPEN_BLUETOOTH_CONFIG = "openBluetoothConfig";
 	private static final String ACTION_IS_BLUETOOTH_ENABLED = "isBluetoothEnabled";
 	/* Actions on Myo */
@@ -82,268 +104,591 @@ public class MyoApi extends CordovaPlugin {
 	private static final String ACTION_MYO_NOTIFY_USER = "myo_notifyUserAction";
 	private static final String ACTION_MYO_GET_CONNECT_STATE = "myo_getConnectionState";
 	private static final String ACTION_MYO_IS_CONNECTED = "myo_isConnected";
+	private static final String ACTION_MYO_SET_REFERENCE = "myo_setReferenceOrientation";
+	private static final String ACTION_MYO_CLEAR_REFERENCE = "myo_clearReferenceOrientation";
 	
 	private static final int REQ_CODE_ENABLE_BT = 1;
 
 	private final MyoEventController mController = new MyoEventController();
 	private Hub mHub = null;
 	private CallbackContext mOpenBtConfigCbc = null;
+	private SessionRecorder mRecorder = null; //Guarded by this
+	private SessionReplayer mReplayer = null; //Guarded by this
+	private final Map<String, PluginAction> mActions = new HashMap<String, PluginAction>(); //Filled in initialize
+	private boolean mListening = false; //Whether mController is a listener of the Hub. Only used from the UI thread
 
 	@Override
 	public void initialize(CordovaInterface cordova, CordovaWebView webView) {
 		super.initialize(cordova, webView);
+		String logLevel = preferences.getString(PluginLog.PREFERENCE, null);
+		if(logLevel != null){
+			int level = PluginLog.parseLevel(logLevel);
+			if(level >= 0){
+				PluginLog.setLevel(level);
+			}else{
+				PluginLog.w(TAG, "Unsupported log level in preferences: {}", logLevel);
+			}
+		}
 		mHub = Hub.getInstance();
-		logd("Plugin initialized");
+		mController.setHub(mHub);
+		registerActions();
+		PluginLog.d(TAG, "Plugin initialized");
 	}
 
 	@Override
 	public boolean execute(String action, JSONArray args, CallbackContext cbc)
 			throws JSONException {
 		boolean res = true;
-		logd("Execute: " + action + ", args len: " + args.length() + ", args: " + args.toString());
-		if(ACTION_INIT.equals(action)){
-			initHub(cbc);
-		}else if(ACTION_SHUTDOWN.equals(action)){
-			mHub.shutdown();
-			cbc.success();
-		}else if(ACTION_OPEN_SCAN_DLG.equals(action)){
-			startScanActivity(cbc);
-		}else if(ACTION_ATTACH_ADJ.equals(action)){
-			attachToAdjacentMyo(null, cbc);
-		}else if(ACTION_ATTACH_ADJS.equals(action)){
-			attachToAdjacentMyo(args.getInt(0), cbc);
-		}else if(ACTION_ATTACH_MAC.equals(action)){
-			attachToAdjacentMyo(args.getString(0), cbc);
-		}else if(ACTION_DETACH.equals(action)){
-			mHub.detach(args.getString(0));
-			cbc.success();
-		}else if(ACTION_SET_LOCK_POLICY.equals(action)){
-			mHub.setLockingPolicy(Hub.LockingPolicy.valueOf(args.getString(0)));
-			cbc.success();
-		}else if(ACTION_GET_LOCK_POLICY.equals(action)){
-			String policy = mHub.getLockingPolicy().name();
-			cbc.success(policy);
-		}else if(ACTION_SET_SENDUSAGE.equals(action)){
-			mHub.setSendUsageData(args.getBoolean(0));
-			cbc.success();
-		}else if(ACTION_IS_SENDUSAGE.equals(action)){
-			cbc.success(mHub.isSendingUsageData() ? 1 : 0);
-		}else if(ACTION_GET_ATTACH_ALLOWANCE.equals(action)){
-			cbc.success(mHub.getMyoAttachAllowance());
-		}else if(ACTION_SET_ATTACH_ALLOWANCE.equals(action)){
-			mHub.setMyoAttachAllowance(args.getInt(0));
-			cbc.success();
-		}else if(ACTION_GET_DEVICES.equals(action)){
-			JSONArray myoList = new JSONArray();
-			for(Myo myo : mHub.getConnectedDevices()){
-				myoList.put(JsonMapper.toJson(myo));
-			}
-			cbc.success(myoList);
-		}else if(ACTION_NOW.equals(action)){
-			cbc.success(Long.toString(mHub.now()));
-		}else if(ACTION_ON.equals(action)){
-			mController.setEventHandler(args.getString(0), cbc);
-		}else if(ACTION_OFF.equals(action)){
-			mController.removeEventHandler(args.getString(0));
-		}else if(ACTION_MYO_IS_UNLOCKED.equals(action)){
-			Myo myo = mController.getMyoOrErr(args.getString(0), cbc);
-			if(myo != null){
+		PluginLog.d(TAG, "Execute: {}, args: {}", action, args);
+		PluginAction command = mActions.get(action);
+		if(command == null){
+			PluginLog.w(TAG, "Action not supported: {}", action);
+			res = false; //Will result in a "MethodNotFound" error
+		}else if(command.mode == PluginAction.ExecMode.THREAD_POOL){
+			cordova.getThreadPool().execute(command.bind(action, args, cbc));
+		}else if(command.mode == PluginAction.ExecMode.UI_THREAD){
+			cordova.getActivity().runOnUiThread(command.bind(action, args, cbc));
+		}else{
+			command.run(args, cbc);
+		}
+
+		//TODO: add Hub.Scanner functionality?
+		
+		return res; 
+	}
+
+	private void registerActions(){
+		/* Actions on Hub */
+		mActions.put(ACTION_INIT, new PluginAction(PluginAction.ExecMode.UI_THREAD) {
+			void run(JSONArray args, CallbackContext cbc) { //Need to call Hub.init from the UI thread in order to use ScanActivity
+				initHub(cbc);
+			}
+		});
+		mActions.put(ACTION_SHUTDOWN, new PluginAction(PluginAction.ExecMode.INLINE) {
+			void run(JSONArray args, CallbackContext cbc) {
+				mHub.shutdown();
+				cbc.success();
+			}
+		});
+		mActions.put(ACTION_OPEN_SCAN_DLG, new PluginAction(PluginAction.ExecMode.UI_THREAD) {
+			void run(JSONArray args, CallbackContext cbc) { //The scan activity is only for test purposes
+				Activity ctx = cordova.getActivity();
+				ctx.startActivity(new Intent(ctx, ScanActivity.class));
+				PluginLog.d(TAG, "Test scan activity started");
+				cbc.success();
+			}
+		});
+		mActions.put(ACTION_ATTACH_ADJ, new PluginAction(PluginAction.ExecMode.THREAD_POOL) {
+			void run(JSONArray args, CallbackContext cbc) {
+				mHub.attachToAdjacentMyo();
+				PluginLog.d(TAG, "Attaching...");
+				cbc.success();
+			}
+		});
+		mActions.put(ACTION_ATTACH_ADJS, new PluginAction(PluginAction.ExecMode.THREAD_POOL) {
+			void run(JSONArray args, CallbackContext cbc) throws JSONException {
+				mHub.attachToAdjacentMyos(args.getInt(0));
+				PluginLog.d(TAG, "Attaching...");
+				cbc.success();
+			}
+		});
+		mActions.put(ACTION_ATTACH_MAC, new PluginAction(PluginAction.ExecMode.THREAD_POOL) {
+			void run(JSONArray args, CallbackContext cbc) throws JSONException {
+				mHub.attachByMacAddress(args.getString(0));
+				PluginLog.d(TAG, "Attaching...");
+				cbc.success();
+			}
+		});
+		mActions.put(ACTION_DETACH, new PluginAction(PluginAction.ExecMode.INLINE) {
+			void run(JSONArray args, CallbackContext cbc) throws JSONException {
+				mHub.detach(args.getString(0));
+				cbc.success();
+			}
+		});
+		mActions.put(ACTION_SET_LOCK_POLICY, new PluginAction(PluginAction.ExecMode.INLINE) {
+			void run(JSONArray args, CallbackContext cbc) throws JSONException {
+				mHub.setLockingPolicy(Hub.LockingPolicy.valueOf(args.getString(0)));
+				cbc.success();
+			}
+		});
+		mActions.put(ACTION_GET_LOCK_POLICY, new PluginAction(PluginAction.ExecMode.INLINE) {
+			void run(JSONArray args, CallbackContext cbc) {
+				cbc.success(mHub.getLockingPolicy().name());
+			}
+		});
+		mActions.put(ACTION_SET_SENDUSAGE, new PluginAction(PluginAction.ExecMode.INLINE) {
+			void run(JSONArray args, CallbackContext cbc) throws JSONException {
+				mHub.setSendUsageData(args.getBoolean(0));
+				cbc.success();
+			}
+		});
+		mActions.put(ACTION_IS_SENDUSAGE, new PluginAction(PluginAction.ExecMode.INLINE) {
+			void run(JSONArray args, CallbackContext cbc) {
+				cbc.success(mHub.isSendingUsageData() ? 1 : 0);
+			}
+		});
+		mActions.put(ACTION_GET_ATTACH_ALLOWANCE, new PluginAction(PluginAction.ExecMode.INLINE) {
+			void run(JSONArray args, CallbackContext cbc) {
+				cbc.success(mHub.getMyoAttachAllowance());
+			}
+		});
+		mActions.put(ACTION_SET_ATTACH_ALLOWANCE, new PluginAction(PluginAction.ExecMode.INLINE) {
+			void run(JSONArray args, CallbackContext cbc) throws JSONException {
+				mHub.setMyoAttachAllowance(args.getInt(0));
+				cbc.success();
+			}
+		});
+		mActions.put(ACTION_GET_DEVICES, new PluginAction(PluginAction.ExecMode.INLINE) {
+			void run(JSONArray args, CallbackContext cbc) { //Cached, rebuilt only when the devices change
+				cbc.success(mController.getMyoRegistry().getConnectedJson());
+			}
+		});
+		mActions.put(ACTION_NOW, new PluginAction(PluginAction.ExecMode.INLINE) {
+			void run(JSONArray args, CallbackContext cbc) {
+				cbc.success(Long.toString(mHub.now()));
+			}
+		});
+		mActions.put(ACTION_ON, new PluginAction(PluginAction.ExecMode.INLINE, false) { //Keeps the callback
+			void run(JSONArray args, CallbackContext cbc) throws JSONException {
+				mController.setEventHandler(args.getString(0), args.optJSONObject(1), optString(args, 2), cbc);
+			}
+		});
+		mActions.put(ACTION_OFF, new PluginAction(PluginAction.ExecMode.INLINE) {
+			void run(JSONArray args, CallbackContext cbc) throws JSONException {
+				mController.removeEventHandler(args.getString(0), optString(args, 1));
+			}
+		});
+		mActions.put(ACTION_SET_BATCHING, new PluginAction(PluginAction.ExecMode.INLINE, false) {
+			void run(JSONArray args, CallbackContext cbc) throws JSONException {
+				mController.setBatching(args.getString(0), args.optJSONObject(1), cbc);
+			}
+		});
+		mActions.put(ACTION_ACK, new PluginAction(PluginAction.ExecMode.INLINE) {
+			void run(JSONArray args, CallbackContext cbc) throws JSONException { //No reply, like "off"
+				mController.ack(args.getString(0), optString(args, 1), args.getInt(2));
+			}
+		});
+		mActions.put(ACTION_GET_ALLOC_STATS, new PluginAction(PluginAction.ExecMode.INLINE) {
+			void run(JSONArray args, CallbackContext cbc) {
+				cbc.success(AllocationStats.toJson());
+				if(args.optBoolean(0, false)){
+					AllocationStats.reset();
+				}
+			}
+		});
+		mActions.put(ACTION_GET_SUBSCRIPTION_STATS, new PluginAction(PluginAction.ExecMode.INLINE) {
+			void run(JSONArray args, CallbackContext cbc) {
+				cbc.success(mController.getSubscriptionStats());
+			}
+		});
+		mActions.put(ACTION_SET_OVERFLOW_POLICY, new PluginAction(PluginAction.ExecMode.INLINE) {
+			void run(JSONArray args, CallbackContext cbc) throws JSONException {
+				mController.setOverflowPolicy(args.getString(0), cbc);
+			}
+		});
+		mActions.put(ACTION_GET_DISPATCH_STATS, new PluginAction(PluginAction.ExecMode.INLINE) {
+			void run(JSONArray args, CallbackContext cbc) {
+				cbc.success(mController.getDispatchStats());
+			}
+		});
+		mActions.put(ACTION_START_RECORDING, new PluginAction(PluginAction.ExecMode.THREAD_POOL) {
+			void run(JSONArray args, CallbackContext cbc) {
+				startRecording(args.optJSONObject(0), cbc);
+			}
+		});
+		mActions.put(ACTION_STOP_RECORDING, new PluginAction(PluginAction.ExecMode.INLINE, false) { //Result sent asynchronously
+			void run(JSONArray args, CallbackContext cbc) {
+				stopRecording(cbc);
+			}
+		});
+		mActions.put(ACTION_START_REPLAY, new PluginAction(PluginAction.ExecMode.THREAD_POOL) {
+			void run(JSONArray args, CallbackContext cbc) throws JSONException {
+				startReplay(args.getJSONObject(0), cbc);
+			}
+		});
+		mActions.put(ACTION_STOP_REPLAY, new PluginAction(PluginAction.ExecMode.INLINE) {
+			void run(JSONArray args, CallbackContext cbc) {
+				stopReplay(cbc);
+			}
+		});
+		mActions.put(ACTION_SET_METRICS_ENABLED, new PluginAction(PluginAction.ExecMode.INLINE) {
+			void run(JSONArray args, CallbackContext cbc) throws JSONException {
+				PipelineMetrics.setEnabled(args.getBoolean(0));
+				cbc.success();
+			}
+		});
+		mActions.put(ACTION_GET_METRICS, new PluginAction(PluginAction.ExecMode.INLINE) {
+			void run(JSONArray args, CallbackContext cbc) throws JSONException {
+				JSONObject metrics = PipelineMetrics.toJson();
+				metrics.put("dispatcher", mController.getDispatchStats());
+				cbc.success(metrics);
+				if(args.optBoolean(0, false)){
+					PipelineMetrics.reset();
+				}
+			}
+		});
+		mActions.put(ACTION_SET_LOG_LEVEL, new PluginAction(PluginAction.ExecMode.INLINE) {
+			void run(JSONArray args, CallbackContext cbc) throws JSONException {
+				int level = PluginLog.parseLevel(args.getString(0));
+				if(level >= 0){
+					PluginLog.setLevel(level);
+					cbc.success();
+				}else{
+					cbc.error("Unsupported log level " + args.getString(0));
+				}
+			}
+		});
+		mActions.put(ACTION_SET_GESTURES, new PluginAction(PluginAction.ExecMode.INLINE) {
+			void run(JSONArray args, CallbackContext cbc) {
+				mController.setGestures(args.optJSONArray(0), cbc);
+			}
+		});
+		mActions.put(ACTION_SET_AUTO_REFERENCE, new PluginAction(PluginAction.ExecMode.INLINE) {
+			void run(JSONArray args, CallbackContext cbc) throws JSONException {
+				mController.setAutoReferenceOrientation(args.getBoolean(0));
+				cbc.success();
+			}
+		});
+		mActions.put(ACTION_START_STREAMING, new PluginAction(PluginAction.ExecMode.THREAD_POOL) {
+			void run(JSONArray args, CallbackContext cbc) { //Opens a socket
+				mController.startStreaming(args.optJSONObject(0), cbc);
+			}
+		});
+		mActions.put(ACTION_STOP_STREAMING, new PluginAction(PluginAction.ExecMode.INLINE) {
+			void run(JSONArray args, CallbackContext cbc) {
+				mController.stopStreaming(cbc);
+			}
+		});
+		mActions.put(ACTION_BATCH, new PluginAction(PluginAction.ExecMode.INLINE, false) {
+			void run(JSONArray args, CallbackContext cbc) throws JSONException {
+				JSONArray commands = args.getJSONArray(0);
+				JSONArray results = new JSONArray();
+				for(int i = 0; i < commands.length(); i++){
+					JSONObject command = commands.getJSONObject(i);
+					JSONArray commandArgs = command.optJSONArray("args");
+					results.put(runBatched(command.getString("action"),
+							(commandArgs != null) ? commandArgs : new JSONArray(), cbc.getCallbackId()));
+				}
+				cbc.success(results);
+			}
+		});
+		mActions.put(ACTION_OPEN_BLUETOOTH_CONFIG, new PluginAction(PluginAction.ExecMode.UI_THREAD) {
+			void run(JSONArray args, CallbackContext cbc) {
+				mOpenBtConfigCbc = cbc;
+				cordova.setActivityResultCallback(MyoApi.this);
+				cordova.getActivity().startActivityForResult(new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE), REQ_CODE_ENABLE_BT);
+				PluginLog.d(TAG, "BT configuration activity started");
+			}
+		});
+		mActions.put(ACTION_IS_BLUETOOTH_ENABLED, new PluginAction(PluginAction.ExecMode.INLINE) {
+			void run(JSONArray args, CallbackContext cbc) {
+				try{
+					cbc.success(BluetoothAdapter.getDefaultAdapter().isEnabled() ? 1 : 0);
+				}catch(Exception e){
+					PluginLog.e(TAG, "Error accessing Bluetooth adapter", e);
+					cbc.error("Error accessing Bluetooth adapter");
+				}
+			}
+		});
+		/* Actions on Myo */
+		mActions.put(ACTION_MYO_IS_UNLOCKED, new PluginAction.MyoAction(PluginAction.ExecMode.INLINE, mController) {
+			void run(Myo myo, JSONArray args, CallbackContext cbc) {
 				cbc.success(myo.isUnlocked() ? 1 : 0);
 			}
-		}else if(ACTION_MYO_LOCK.equals(action)){
-			Myo myo = mController.getMyoOrErr(args.getString(0), cbc);
-			if(myo != null){
+		});
+		mActions.put(ACTION_MYO_LOCK, new PluginAction.MyoAction(PluginAction.ExecMode.INLINE, mController) {
+			void run(Myo myo, JSONArray args, CallbackContext cbc) {
 				myo.lock();
 				cbc.success();
 			}
-		}else if(ACTION_MYO_UNLOCK.equals(action)){
-			Myo myo = mController.getMyoOrErr(args.getString(0), cbc);
-			if(myo != null){
+		});
+		mActions.put(ACTION_MYO_UNLOCK, new PluginAction.MyoAction(PluginAction.ExecMode.INLINE, mController) {
+			void run(Myo myo, JSONArray args, CallbackContext cbc) throws JSONException {
 				myo.unlock(Myo.UnlockType.valueOf(args.getString(1)));
 				cbc.success();
 			}
-		}else if(ACTION_MYO_REQUEST_RSSI.equals(action)){
-			Myo myo = mController.getMyoOrErr(args.getString(0), cbc);
-			if(myo != null){
+		});
+		mActions.put(ACTION_MYO_REQUEST_RSSI, new PluginAction.MyoAction(PluginAction.ExecMode.INLINE, mController) {
+			void run(Myo myo, JSONArray args, CallbackContext cbc) {
 				myo.requestRssi();
 				cbc.success();
 			}
-		}else if(ACTION_MYO_VIBRATE.equals(action)){
-			Myo myo = mController.getMyoOrErr(args.getString(0), cbc);
-			if(myo != null){
+		});
+		mActions.put(ACTION_MYO_VIBRATE, new PluginAction.MyoAction(PluginAction.ExecMode.INLINE, mController) {
+			void run(Myo myo, JSONArray args, CallbackContext cbc) throws JSONException {
 				myo.vibrate(Myo.VibrationType.valueOf(args.getString(1)));
 				cbc.success();
 			}
-		}else if(ACTION_MYO_NOTIFY_USER.equals(action)){
-			Myo myo = mController.getMyoOrErr(args.getString(0), cbc);
-			if(myo != null){
+		});
+		mActions.put(ACTION_MYO_NOTIFY_USER, new PluginAction.MyoAction(PluginAction.ExecMode.INLINE, mController) {
+			void run(Myo myo, JSONArray args, CallbackContext cbc) {
 				myo.notifyUserAction();
 				cbc.success();
 			}
-		}else if(ACTION_MYO_GET_CONNECT_STATE.equals(action)){
-			Myo myo = mController.getMyoOrErr(args.getString(0), cbc);
-			if(myo != null){
+		});
+		mActions.put(ACTION_MYO_GET_CONNECT_STATE, new PluginAction.MyoAction(PluginAction.ExecMode.INLINE, mController) {
+			void run(Myo myo, JSONArray args, CallbackContext cbc) {
 				cbc.success(myo.getConnectionState().name());
 			}
-		}else if(ACTION_MYO_IS_CONNECTED.equals(action)){
-			Myo myo = mController.getMyoOrErr(args.getString(0), cbc);
-			if(myo != null){
+		});
+		mActions.put(ACTION_MYO_IS_CONNECTED, new PluginAction.MyoAction(PluginAction.ExecMode.INLINE, mController) {
+			void run(Myo myo, JSONArray args, CallbackContext cbc) {
 				cbc.success(myo.isConnected() ? 1 : 0);
 			}
-		}else if(ACTION_IS_BLUETOOTH_ENABLED.equals(action)){
-			try{
-				cbc.success(BluetoothAdapter.getDefaultAdapter().isEnabled() ? 1 : 0);
-			}catch(Exception e){
-				loge("Error accessing Bluetooth adapter", e);
-				cbc.error("Error accessing Bluetooth adapter");
+		});
+		mActions.put(ACTION_MYO_SET_REFERENCE, new PluginAction.MyoAction(PluginAction.ExecMode.INLINE, mController) {
+			void run(Myo myo, JSONArray args, CallbackContext cbc) {
+				mController.setReferenceOrientation(myo, args.optJSONObject(1), cbc);
 			}
-		}else if(ACTION_OPEN_BLUETOOTH_CONFIG.equals(action)){
-			startBluetoothConfigActivity();
-			mOpenBtConfigCbc = cbc;
+		});
+		mActions.put(ACTION_MYO_CLEAR_REFERENCE, new PluginAction.MyoAction(PluginAction.ExecMode.INLINE, mController) {
+			void run(Myo myo, JSONArray args, CallbackContext cbc) {
+				mController.clearReferenceOrientation(myo, cbc);
+			}
+		});
+	}
+
+	//Runs one of the commands of a "batch" action. Returns its PluginAction.ResultCollector result
+	private JSONObject runBatched(String action, JSONArray args, String callbackId) throws JSONException {
+		PluginAction command = mActions.get(action);
+		PluginAction.ResultCollector collector = new PluginAction.ResultCollector(callbackId);
+		if(command == null || !command.batchable){
+			PluginLog.w(TAG, "Action not supported in batch: {}", action);
+			collector.error("Action not supported in batch: " + action);
 		}else{
-			logw("Action not supported: " + action);
-			res = false; //Will result in a "MethodNotFound" error
+			try{
+				command.run(args, collector);
+			}catch(JSONException e){
+				PluginLog.e(TAG, "Wrong arguments for action {}: {}", action, args);
+				collector.error("Wrong arguments for " + action + ": " + args);
+			}catch(RuntimeException e){
+				PluginLog.e(TAG, "Error executing action {}", action, e);
+				collector.error("Error executing " + action + ": " + e.getMessage());
+			}
 		}
-
-		//TODO: add Hub.Scanner functionality?
-		
-		return res; 
+		return collector.toJson();
 	}
 
-	private void initHub(final CallbackContext cbc) {
+	//Must be called from the UI thread
+	private void initHub(CallbackContext cbc) {
+		Context ctx = cordova.getActivity();
+		String appId = ctx.getPackageName();
+		if (mHub.init(ctx, appId)) {
+			if(!mListening && !isReplaying()){ //Otherwise added when the replay finishes
+				mHub.addListener(mController);
+			}
+			mListening = true;
+			PluginLog.d(TAG, "Myo Hub initialized with appId {}", appId);
+			cbc.success();
+		} else {
+			PluginLog.e(TAG, "Could not initialize the Hub");
+			cbc.error("Could not initialize the Hub");
+		}
+	}
+	
+	//Must be called from the thread pool
+	private void startRecording(JSONObject options, final CallbackContext cbc){
+		final SessionRecorder recorder;
+		synchronized(this){
+			if(mRecorder != null){
+				PluginLog.e(TAG, "Already recording");
+				cbc.error("Already recording");
+				return;
+			}
+			try{
+				File dir = new File(cordova.getActivity().getFilesDir(), "myo-recordings");
+				recorder = SessionRecorder.start(mController.getMyoRegistry(), dir, mHub.now(), options);
+			}catch(Exception e){
+				PluginLog.e(TAG, "Could not start recording", e);
+				cbc.error("Could not start recording: " + e.getMessage());
+				return;
+			}
+			mRecorder = recorder;
+		}
 		cordova.getActivity().runOnUiThread(new Runnable() {
-			public void run() { //Need to call Hubg.init from the UI thread in order to use ScanActivity
-				Context ctx = cordova.getActivity();
-				String appId = ctx.getPackageName();
-				if (mHub.init(ctx, appId)) {
-					mHub.addListener(mController);
-					logd("Myo Hub initialized with appId " + appId);
-					cbc.success();
-				} else {
-					loge("Could not initialize the Hub", null);
-					cbc.error("Could not initialize the Hub");
-				}
+			public void run() { //Listeners are registered from the UI thread, as in initHub
+				mHub.addListener(recorder);
+				cbc.success(recorder.getSummary());
 			}
 		});
 	}
-
-	//The scan activity is only for test purposes
-	private void startScanActivity(final CallbackContext cbc) {
+	
+	private void stopRecording(final CallbackContext cbc){
+		final SessionRecorder recorder;
+		synchronized(this){
+			recorder = mRecorder;
+			mRecorder = null;
+		}
+		if(recorder == null){
+			PluginLog.e(TAG, "Not recording");
+			cbc.error("Not recording");
+			return;
+		}
 		cordova.getActivity().runOnUiThread(new Runnable() {
 			public void run() {
-				Activity ctx = cordova.getActivity();
-				ctx.startActivity(new Intent(ctx, ScanActivity.class));
-				logd("Test scan activity started");
-				cbc.success();
+				mHub.removeListener(recorder);
+				cordova.getThreadPool().execute(new Runnable() {
+					public void run() {
+						cbc.success(recorder.stop());
+					}
+				});
 			}
 		});
 	}
 	
-	private void startBluetoothConfigActivity() {
+	/*
+	 * While replaying, the controller is removed from the Hub, as its events must
+	 * come from a single thread. The result is kept in order to also notify when
+	 * the replay finishes.
+	 */
+	private void startReplay(final JSONObject options, final CallbackContext cbc){
+		final SessionReplayer replayer;
+		synchronized(this){
+			if(mReplayer != null){
+				PluginLog.e(TAG, "Already replaying");
+				cbc.error("Already replaying");
+				return;
+			}
+			try{
+				replayer = SessionReplayer.open(mController, mHub, options);
+			}catch(Exception e){
+				PluginLog.e(TAG, "Could not start replay", e);
+				cbc.error("Could not start replay: " + e.getMessage());
+				return;
+			}
+			mReplayer = replayer;
+		}
 		cordova.getActivity().runOnUiThread(new Runnable() {
 			public void run() {
-				cordova.setActivityResultCallback(MyoApi.this);
-				cordova.getActivity().startActivityForResult(new Intent(BluetoothAdapter.ACTION_REQUEST_ENABLE), REQ_CODE_ENABLE_BT);
-				logd("BT configuration activity started");
+				if(mListening){
+					mHub.removeListener(mController);
+				}
+				replayer.start(new Runnable() {
+					public void run() {
+						onReplayFinished(replayer, cbc);
+					}
+				});
+				PluginResult pResult = new PluginResult(PluginResult.Status.OK, replayer.getSummary());
+				pResult.setKeepCallback(true);
+				cbc.sendPluginResult(pResult);
 			}
 		});
 	}
 	
-	private void attachToAdjacentMyo(final Object reqVal, final CallbackContext cbc){
-		cordova.getThreadPool().execute(new Runnable() {
-			public void run() {
-				boolean res = true;
-				if(reqVal == null){
-					mHub.attachToAdjacentMyo();
-				}else if(reqVal instanceof Number){
-					mHub.attachToAdjacentMyos((Integer)reqVal);
-				}else if(reqVal instanceof String){
-					mHub.attachByMacAddress((String)reqVal);
-				}else{
-					res = false;
+	private void onReplayFinished(final SessionReplayer replayer, final CallbackContext cbc){
+		cordova.getActivity().runOnUiThread(new Runnable() {
+			public void run() { //Cleared from the UI thread, so that initHub doesn't add the controller twice
+				synchronized(MyoApi.this){
+					if(mReplayer == replayer){
+						mReplayer = null;
+					}
 				}
-				if(res){
-					logd("Attaching...");
-					cbc.success();
+				if(mListening){
+					mHub.addListener(mController);
+				}
+				String error = replayer.getError();
+				if(error != null){
+					cbc.error("Replay aborted: " + error);
 				}else{
-					loge("Unsupported argument passed: " + reqVal, null);
-					cbc.error("Wrong argument passed: " + reqVal);
+					cbc.success(replayer.getSummary());
 				}
 			}
 		});
 	}
 	
-	private void logd(String msg) {
-		if (LOG_ENABLED) {
-			Log.d(TAG, msg);
+	private void stopReplay(CallbackContext cbc){
+		SessionReplayer replayer = null;
+		synchronized(this){
+			replayer = mReplayer;
 		}
-	}
-
-	private void logw(String msg) {
-		if (LOG_ENABLED) {
-			Log.w(TAG, msg);
+		if(replayer != null){
+			replayer.stop();
+			cbc.success(replayer.getSummary());
+		}else{
+			PluginLog.e(TAG, "Not replaying");
+			cbc.error("Not replaying");
 		}
 	}
-
-	private void loge(String msg, Throwable t) {
-		if (LOG_ENABLED) {
-			Log.d(TAG, msg, t);
-		}
+	
+	private synchronized boolean isReplaying(){
+		return mReplayer != null;
 	}
-
+	
+	//Unlike JSONArray.optString, returns null if the value is missing or null
+	private static String optString(JSONArray args, int index){
+		return args.isNull(index) ? null : args.optString(index);
+	}
+	
 	@Override
 	public void onPause(boolean multitasking) {
-		logd("onPause. Multitask: " + multitasking);
+		PluginLog.d(TAG, "onPause. Multitask: {}", multitasking);
+		mController.setPaused(true);
 		super.onPause(multitasking);
 	}
 
 	@Override
 	public void onResume(boolean multitasking) {
 		super.onResume(multitasking);
-		logd("onResume");
+		PluginLog.d(TAG, "onResume");
+		mController.setPaused(false);
 	}
 
 	@Override
 	public void onNewIntent(Intent intent) {
-		logd("onNewIntent");
+		PluginLog.d(TAG, "onNewIntent");
 		super.onNewIntent(intent);
 	}
 
 	@Override
 	public void onDestroy() {
-		logd("onDestroy. Shutting down Hub");
+		PluginLog.d(TAG, "onDestroy. Shutting down Hub");
 		try{
+			SessionRecorder recorder = null;
+			synchronized(this){
+				recorder = mRecorder;
+				mRecorder = null;
+				if(mReplayer != null){
+					mReplayer.stop();
+				}
+			}
 			if(mHub != null){
 				mHub.removeListener(mController);
+				if(recorder != null){
+					mHub.removeListener(recorder);
+				}
 				mHub.shutdown();
 			}
+			if(recorder != null){
+				recorder.stop();
+			}
+			mController.release();
 		}catch(Exception e){
-			logw("Exception while closing Hub: " + e.getLocalizedMessage());
+			PluginLog.w(TAG, "Exception while closing Hub: {}", e.getLocalizedMessage());
 		}
 		super.onDestroy();
 	}
 
 	@Override
 	public Object onMessage(String id, Object data) { //Receive messages from other plugins through the webView
-		logd("onMessage. Id: " + id + ", data: " + data);
+		PluginLog.d(TAG, "onMessage. Id: {}, data: {}", id, data);
 		return super.onMessage(id, data);
 	}
 
 	@Override
 	public void onReset() {
-		logd("onReset");
+		PluginLog.d(TAG, "onReset");
 		super.onReset();
 	}
 
 	@Override
 	public void onActivityResult(int requestCode, int resultCode, Intent intent) {
-		logd("onActivityResult. requestCode: " + requestCode + ", resultCode: " + resultCode);
+		PluginLog.d(TAG, "onActivityResult. requestCode: {}, resultCode: {}", requestCode, resultCode);
 		if(REQ_CODE_ENABLE_BT == requestCode){
 			if(mOpenBtConfigCbc != null){
 				mOpenBtConfigCbc.success((resultCode == Activity.RESULT_OK) ? 1 : 0);
 				mOpenBtConfigCbc = null;
 			}else{
-				loge("Received BT enable activity result but no callbacks were stored", null);
+				PluginLog.e(TAG, "Received BT enable activity result but no callbacks were stored");
 			}
 		}
 		super.onActivityResult(requestCode, resultCode, intent);
@@ -24,17 +24,22 @@
 
 package com.tribalyte.plugin.myo;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
-import android.util.Log;
-
 import com.thalmic.myo.Arm;
 import com.thalmic.myo.DeviceListener;
+import com.thalmic.myo.Hub;
 import com.thalmic.myo.Myo;
 import com.thalmic.myo.Pose;
 import com.thalmic.myo.Quaternion;
@@ -45,6 +50,7 @@ import com.thalmic.myo.XDirection;
 /**
  * Class responsible for managing the Myo events through the DeviceListener
  * interface and also for keeping track of the connected Myo devices.
+ * The events are encoded and delivered from the EventDispatcher thread.
  * 
  * @author rbarriuso
  *
@@ -52,186 +58,978 @@ import com.thalmic.myo.XDirection;
 class MyoEventController implements DeviceListener{
 	
 	private static final String TAG = MyoEventController.class.getSimpleName();
-	private final Map<String, CallbackContext> mEvHandlers = new HashMap<String, CallbackContext>();
-	private final Map<String, MyoWithJson> mMyoMap = new HashMap<String, MyoWithJson>();
-	private final Object mHandlersLock = new Object();
+	//Both may happen for every sensor event
+	private static final PluginLog.Sampler UNKNOWN_DEVICE_LOG = new PluginLog.Sampler(1000);
+	private static final PluginLog.Sampler HANDLER_ERROR_LOG = new PluginLog.Sampler(1000);
+	private final HandlerRegistry mEvHandlers = new HandlerRegistry();
+	private final MyoRegistry mMyoRegistry = new MyoRegistry();
+	private final Object mHandlersLock = new Object(); //Guards the batchers of the handlers, the scheduler and the stream server
+	private ScheduledExecutorService mScheduler = null;
+	private final EventDispatcher mDispatcher = new EventDispatcher(new EventDispatcher.Handler() {
+		public void onControlEvent(EventDispatcher.ControlEvent ev) {
+			callHandler(ev);
+			if(ev.type == EventType.POSE && mGestures.isActive()){
+				mGestures.onPose(ev.myoWithJson, Pose.valueOf((String)ev.extras[1]), ev.timestamp);
+			}else if(ev.type == EventType.DETACH){
+				flushBatches(ev.myoWithJson.index);
+				mFrameJoiner.clear(ev.myoWithJson.index);
+				mGestures.clear(ev.myoWithJson.index);
+				for(EventSubscription sub : mEvHandlers.get(EventType.FEATURES)){
+					sub.features.clear(ev.myoWithJson.index);
+				}
+				for(EventSubscription sub : mEvHandlers.get(EventType.SYNC_FRAME)){
+					sub.synchronizer.clear(ev.myoWithJson.index);
+				}
+			}
+		}
+		public void onSensorSample(MyoWithJson myoWithJson, SensorSample sample) {
+			if(sample.type == EventType.ORIENTATION && mGestures.needsOrientation()){
+				mGestures.onOrientation(myoWithJson, sample);
+			}
+			callSensorHandler(myoWithJson, sample);
+			callFrameHandler(myoWithJson, sample);
+			callFeatureHandler(myoWithJson, sample);
+			callSyncHandler(myoWithJson, sample);
+			callStreamServer(myoWithJson, sample);
+		}
+	}, EventDispatcher.DEFAULT_CAPACITY);
+	
+	//Reusable buffers, only used from the dispatcher thread
+	private final ByteBuffer mRecordBuf = BinaryEncoder.allocate(BinaryEncoder.MAX_RECORD_SIZE);
+	private final StringBuilder mJsonBuf = new StringBuilder(512);
+	private final StringBuilder mSampleJsonBuf = new StringBuilder(256);
+	private final ByteBuffer mFrameBuf = BinaryEncoder.allocate(BinaryEncoder.MAX_FRAME_SIZE);
+	private final MotionFrameJoiner mFrameJoiner = new MotionFrameJoiner();
+	private volatile boolean mAutoReference = false; //Whether the reference orientation is captured on arm sync
+	private volatile Hub mHub = null; //Clock of the sync frames. Their timestamps are not normalized without it
+	private volatile boolean mPaused = false; //Whether the application is in the background
+	private boolean mDispatchPaused = false; //mPaused as seen by the dispatcher thread, the only one which accesses it
+	private volatile LoopbackStreamServer mStreamServer = null; //Modified holding mHandlersLock
+	private final GestureDetector mGestures = new GestureDetector(new GestureDetector.Listener() {
+		public void onGesture(MyoWithJson myoWithJson, GestureDetector.Gesture gesture, long timestamp) {
+			PipelineMetrics.received(EventType.GESTURE);
+			callHandler(new EventDispatcher.ControlEvent(EventType.GESTURE, myoWithJson, timestamp,
+					new Object[]{"gesture", gesture.name}, 0, 0));
+		}
+	});
 	
 	static class MyoWithJson{
-		Myo myo;
-		Object myoJson;
-		MyoWithJson(Myo myo) {
+		final Myo myo;
+		final int index; //Slot in the MyoRegistry. Identifies the Myo in binary events
+		final Object myoJson;
+		final String myoJsonText;
+		boolean connected = false; //Guarded by the MyoRegistry lock
+		//Reference for relative orientations (see OrientationFilter). Set from any thread
+		volatile OrientationFilter.Reference reference = null;
+		volatile boolean captureReference = false; //Whether the next orientation sample becomes the reference
+		volatile boolean towardElbow = false; //XDirection of the last arm sync
+		//Last orientation of the device, only accessed from the dispatcher thread
+		boolean hasOrientation = false;
+		double qx;
+		double qy;
+		double qz;
+		double qw;
+		//Estimated offset from the timestamps of the device to the Hub clock (see FrameSynchronizer)
+		volatile double clockOffset = 0;
+		boolean hasClockOffset = false; //Only accessed from the listener thread
+		MyoWithJson(Myo myo, int index) {
 			this.myo = myo;
-			this.myoJson = JsonMapper.toJson(myo);
+			this.index = index;
+			JSONArray json = JsonMapper.toJson(myo);
+			json.put(index);
+			this.myoJson = json;
+			this.myoJsonText = json.toString();
 		}
 		@Override
 		public String toString() {
-			return "MyoWithJson [myo=" + myo + ", myoJson=" + myoJson + "]"; //TODO: improve
+			return "MyoWithJson [myo=" + myo + ", index=" + index + ", myoJson=" + myoJson + "]"; //TODO: improve
 		}
 	}
 	
 	@Override
 	public void onArmSync(Myo myo, long timestamp, Arm arm, XDirection xd) {
-		logd("onArmSync. Arm: " + arm + ", dir: " + xd);
-		callHandler("armSync", myo, timestamp, new String[]{"arm", arm.name(), "xdirection", xd.name()});
+		PluginLog.d(TAG, "onArmSync. Arm: {}, dir: {}", arm, xd);
+		MyoWithJson myoWithJson = mMyoRegistry.get(myo);
+		if(myoWithJson != null){
+			myoWithJson.towardElbow = (xd == XDirection.TOWARD_ELBOW);
+			if(mAutoReference){
+				myoWithJson.captureReference = true;
+			}
+		}
+		postControlEvent(EventType.ARM_SYNC, myo, timestamp, new String[]{"arm", arm.name(), "xdirection", xd.name()});
 	}
 
 	@Override
 	public void onArmUnsync(Myo myo, long timestamp) {
-		logd("onArmUnsync");
-		callHandler("armUnsync", myo, timestamp, null);
+		PluginLog.d(TAG, "onArmUnsync");
+		MyoWithJson myoWithJson = mMyoRegistry.get(myo);
+		if(myoWithJson != null){
+			myoWithJson.towardElbow = false;
+			if(mAutoReference){
+				myoWithJson.captureReference = false;
+				myoWithJson.reference = null;
+			}
+		}
+		postControlEvent(EventType.ARM_UNSYNC, myo, timestamp, null);
 	}
 
 	@Override
 	public void onAttach(Myo myo, long timestamp) {
-		logd("onAttach");
-		MyoWithJson myoWithJson = new MyoWithJson(myo);
-		mMyoMap.put(myo.getMacAddress(), myoWithJson);
-		logd("Added Myo instance to map: " + myoWithJson);
-		callHandler("attach", myo, timestamp, null);
+		PluginLog.d(TAG, "onAttach");
+		MyoWithJson myoWithJson = mMyoRegistry.add(myo);
+		PluginLog.d(TAG, "Added Myo instance to registry: {}", myoWithJson);
+		postControlEvent(EventType.ATTACH, myo, timestamp, null);
 	}
 
 	@Override
 	public void onDetach(Myo myo, long timestamp) {
-		logd("onDetach");
-		callHandler("detach", myo, timestamp, null);
-		MyoWithJson myoWithJson = mMyoMap.remove(myo.getMacAddress());
-		logd("Removed Myo instance from map: " + myoWithJson);
+		PluginLog.d(TAG, "onDetach");
+		if(mMyoRegistry.setConnected(myo, false)){ //Detached without being disconnected first
+			postDevicesChanged(myo, timestamp);
+		}
+		PipelineMetrics.received(EventType.DETACH);
+		MyoWithJson myoWithJson = mMyoRegistry.get(myo);
+		if(myoWithJson != null){
+			mDispatcher.postControlEvent(EventType.DETACH, myoWithJson, timestamp, null); //Also flushes its batches
+		}else{
+			PipelineMetrics.unknownDevice(EventType.DETACH);
+		}
+		myoWithJson = mMyoRegistry.remove(myo);
+		PluginLog.d(TAG, "Removed Myo instance from registry: {}", myoWithJson);
 	}
 	
 	@Override
 	public void onConnect(Myo myo, long timestamp) {
-		logd("onConnect");
-		callHandler("connect", myo, timestamp, null);
+		PluginLog.d(TAG, "onConnect");
+		postControlEvent(EventType.CONNECT, myo, timestamp, null);
+		if(mMyoRegistry.setConnected(myo, true)){
+			postDevicesChanged(myo, timestamp);
+		}
 	}		
 
 	@Override
 	public void onDisconnect(Myo myo, long timestamp) {
-		logd("onDisconnect");
-		callHandler("disconnect", myo, timestamp, null);
+		PluginLog.d(TAG, "onDisconnect");
+		postControlEvent(EventType.DISCONNECT, myo, timestamp, null);
+		if(mMyoRegistry.setConnected(myo, false)){
+			postDevicesChanged(myo, timestamp);
+		}
 	}
 
 	@Override
 	public void onLock(Myo myo, long timestamp) {
-		logd("onLock");
-		callHandler("lock", myo, timestamp, null);
+		PluginLog.d(TAG, "onLock");
+		postControlEvent(EventType.LOCK, myo, timestamp, null);
 	}
 
 	@Override
 	public void onUnlock(Myo myo, long timestamp) {
-		logd("onUnlock");
-		callHandler("unlock", myo, timestamp, null);
+		PluginLog.d(TAG, "onUnlock");
+		postControlEvent(EventType.UNLOCK, myo, timestamp, null);
 	}
 	
 	@Override
 	public void onPose(Myo myo, long timestamp, Pose pose) {
-		logd("onPose");
-		callHandler("pose", myo, timestamp, new String[]{"pose", pose.name()});
+		PluginLog.d(TAG, "onPose");
+		postControlEvent(EventType.POSE, myo, timestamp, new String[]{"pose", pose.name()});
 	}
 
 	@Override
 	public void onAccelerometerData(Myo myo, long timestamp, Vector3 accel) {
-		//logd("onAccelerometerData. accel: " + accel);
-		callHandler("accelerometerData", myo, timestamp, new Object[]{"accel", JsonMapper.toJson(accel)});
+		//PluginLog.v(TAG, "onAccelerometerData. accel: {}", accel);
+		postSample(myo, EventType.ACCELEROMETER, timestamp, 3, accel.x(), accel.y(), accel.z(), 0);
 	}
 
 	@Override
 	public void onGyroscopeData(Myo myo, long timestamp, Vector3 gyro) {
-		//logd("onGyroscopeData. gyro: " + gyro);
-		callHandler("gyroscopeData", myo, timestamp, new Object[]{"gyro", JsonMapper.toJson(gyro)});
+		//PluginLog.v(TAG, "onGyroscopeData. gyro: {}", gyro);
+		postSample(myo, EventType.GYROSCOPE, timestamp, 3, gyro.x(), gyro.y(), gyro.z(), 0);
 	}
 
 	@Override
 	public void onOrientationData(Myo myo, long timestamp, Quaternion rotation) {
-		//logd("onOrientationData. rotation: " + rotation);
-		callHandler("orientationData", myo, timestamp, new Object[]{"rotation", JsonMapper.toJson(rotation)});
+		//PluginLog.v(TAG, "onOrientationData. rotation: {}", rotation);
+		postSample(myo, EventType.ORIENTATION, timestamp, 4, rotation.x(), rotation.y(), rotation.z(), rotation.w());
 	}
 
 	@Override
 	public void onRssi(Myo myo, long timestamp, int rssi) {
-		//logd("onRssi. rssi: " + rssi);
-		callHandler("rssi", myo, timestamp, new Object[]{"rssi", rssi});
+		//PluginLog.v(TAG, "onRssi. rssi: {}", rssi);
+		postSample(myo, EventType.RSSI, timestamp, 1, rssi, 0, 0, 0);
+	}
+	
+	/**
+	 * Registers a handler for the given event type. Several handlers can be registered for the
+	 * same type; a handler registered with the id of an existing one replaces it.
+	 * See EventSubscription.fromJson for the options format. Options can be null
+	 */
+	public void setEventHandler(String evType, JSONObject options, String id, CallbackContext cbc){
+		PluginLog.d(TAG, "Adding event handler for type: {}, id: {}", evType, id);
+		EventType type = EventType.fromName(evType);
+		if(type == null){
+			PluginLog.e(TAG, "Unsupported event type {}", evType);
+			cbc.error("Unsupported event type " + evType);
+			return;
+		}
+		EventSubscription sub = null;
+		try{
+			sub = EventSubscription.fromJson(type, (id != null) ? id : cbc.getCallbackId(), cbc, options);
+		}catch(IllegalArgumentException e){
+			PluginLog.e(TAG, e.getMessage());
+			cbc.error(e.getMessage());
+			return;
+		}
+		if(!sub.hasValidOptions()){
+			PluginLog.e(TAG, "Options not supported for event type {}: {}", evType, options);
+			cbc.error("Options not supported for event type " + evType + ": " + options);
+			return;
+		}
+		JSONObject batchCfg = (options != null) ? options.optJSONObject("batch") : null;
+		if(batchCfg != null && !type.isBatchable()){
+			PluginLog.e(TAG, "Batching not supported for event type {}", evType);
+			cbc.error("Batching not supported for event type " + evType);
+			return;
+		}
+		if(batchCfg != null){
+			synchronized(mHandlersLock){
+				startBatcher(sub, batchCfg);
+			}
+		}
+		mDispatcher.start();
+		EventSubscription prevSub = mEvHandlers.add(sub);
+		if(prevSub != null){
+			PluginLog.d(TAG, "Event handler already registered with the same id, removing previous one");
+			stopBatcher(prevSub);
+			sendRemovedResultToHandler(prevSub.cbc);
+		}
 	}
 	
-	public void setEventHandler(String evType, CallbackContext cbc){ //TODO: support multiple listeners per event
-		logd("Adding event handler for type: " + evType);
-		CallbackContext prevCbc = null;
+	//Removes the handler with the given id, or all the handlers of the event type if id is null
+	public void removeEventHandler(String evType, String id){
+		EventType type = EventType.fromName(evType);
+		if(type != null){
+			for(EventSubscription sub : mEvHandlers.remove(type, id)){
+				PluginLog.d(TAG, "Removing event handler for type {}, id: {}", evType, sub.id);
+				stopBatcher(sub);
+				sendRemovedResultToHandler(sub.cbc);
+			}
+		}
+	}
+	
+	//Enables (cfg != null) or disables (cfg == null) batching for the registered handlers of an event type
+	public void setBatching(String evType, JSONObject cfg, CallbackContext cbc){
+		EventType type = EventType.fromName(evType);
+		if(type == null || !type.isBatchable()){
+			PluginLog.e(TAG, "Batching not supported for event type {}", evType);
+			cbc.error("Batching not supported for event type " + evType);
+			return;
+		}
+		EventSubscription[] subs = mEvHandlers.get(type);
+		List<SampleBatcher> prevBatchers = new ArrayList<SampleBatcher>();
 		synchronized(mHandlersLock){
-			prevCbc = mEvHandlers.get(evType);
-			mEvHandlers.put(evType, cbc);
+			for(EventSubscription sub : subs){
+				if(sub.batcher != null){
+					prevBatchers.add(sub.batcher);
+					sub.batcher = null;
+				}
+				if(cfg != null){
+					startBatcher(sub, cfg);
+				}
+			}
+		}
+		for(SampleBatcher batcher : prevBatchers){
+			batcher.stop(true);
 		}
-		if(prevCbc != null){
-			logd("Event handler already registered, removing previous one");
-			sendRemovedResultToHandler(prevCbc);
+		if(subs.length > 0){
+			PluginLog.d(TAG, "Batching {} for event type {}", (cfg != null) ? "enabled" : "disabled", evType);
+			cbc.success();
+		}else{
+			PluginLog.e(TAG, "No handler registered for event type {}", evType);
+			cbc.error("No handler registered for event type " + evType);
+		}
+	}
+	
+	//Delivered and dropped events of every registered handler
+	public JSONArray getSubscriptionStats(){
+		JSONArray res = new JSONArray();
+		for(EventSubscription sub : mEvHandlers.getAll()){
+			res.put(sub.getStats());
 		}
+		return res;
 	}
 	
-	public void removeEventHandler(String evType){
-		CallbackContext cbc = null;
+	/**
+	 * Grants credits to the handler with the given id, or to all the handlers of the event type if id is null.
+	 * Handlers without flow control are ignored. There's no reply, as it's called for every processed event
+	 */
+	public void ack(String evType, String id, int credits){
+		EventType type = EventType.fromName(evType);
+		if(type == null || credits <= 0){
+			PluginLog.e(TAG, "Wrong ack for event type {}: {} credits", evType, credits);
+			return;
+		}
+		for(EventSubscription sub : mEvHandlers.get(type)){
+			if(sub.credits != null && (id == null || id.equals(sub.id))){
+				sub.credits.grant(credits);
+			}
+		}
+	}
+	
+	//Applies to the sensor samples queued when the dispatcher can't keep up: "dropOldest" or "dropNewest"
+	public void setOverflowPolicy(String policyName, CallbackContext cbc){
+		EventDispatcher.OverflowPolicy policy = EventDispatcher.OverflowPolicy.fromName(policyName);
+		if(policy != null){
+			mDispatcher.setOverflowPolicy(policy);
+			cbc.success();
+		}else{
+			PluginLog.e(TAG, "Unsupported overflow policy {}", policyName);
+			cbc.error("Unsupported overflow policy " + policyName);
+		}
+	}
+	
+	/**
+	 * Replaces the gestures detected from the pose events, delivered as "gesture" events.
+	 * An empty or null array disables the detection. See GestureDetector.Gesture.fromJson for the format
+	 */
+	public void setGestures(JSONArray definitions, CallbackContext cbc){
+		int count = (definitions != null) ? definitions.length() : 0;
+		GestureDetector.Gesture[] gestures = new GestureDetector.Gesture[count];
+		try{
+			for(int i = 0; i < count; i++){
+				JSONObject definition = definitions.optJSONObject(i);
+				if(definition == null){
+					throw new IllegalArgumentException("Wrong gesture definition: " + definitions.opt(i));
+				}
+				gestures[i] = GestureDetector.Gesture.fromJson(definition);
+			}
+		}catch(IllegalArgumentException e){
+			PluginLog.e(TAG, e.getMessage());
+			cbc.error(e.getMessage());
+			return;
+		}
+		mGestures.setGestures(gestures);
+		if(count > 0){
+			mDispatcher.start();
+		}
+		PluginLog.d(TAG, "Gestures set: {}", count);
+		cbc.success();
+	}
+	
+	/**
+	 * Sets the reference of the relative orientations of a Myo: either the given rotation
+	 * ({x, y, z, w}) or, if null, the next orientation sample of the device
+	 */
+	public void setReferenceOrientation(Myo myo, JSONObject rotation, CallbackContext cbc){
+		MyoWithJson myoWithJson = mMyoRegistry.get(myo);
+		if(myoWithJson == null){
+			cbc.error("Myo " + myo.getMacAddress() + " not found");
+		}else if(rotation == null){
+			myoWithJson.captureReference = true;
+			cbc.success();
+		}else{
+			try{
+				myoWithJson.reference = new OrientationFilter.Reference(rotation.optDouble("x", 0),
+						rotation.optDouble("y", 0), rotation.optDouble("z", 0), rotation.optDouble("w", 0),
+						myoWithJson.towardElbow);
+				myoWithJson.captureReference = false;
+				cbc.success();
+			}catch(IllegalArgumentException e){
+				PluginLog.e(TAG, "Wrong reference orientation: {}", rotation);
+				cbc.error(e.getMessage() + ": " + rotation);
+			}
+		}
+	}
+	
+	public void clearReferenceOrientation(Myo myo, CallbackContext cbc){
+		MyoWithJson myoWithJson = mMyoRegistry.get(myo);
+		if(myoWithJson != null){
+			myoWithJson.captureReference = false;
+			myoWithJson.reference = null;
+		}
+		cbc.success();
+	}
+	
+	/**
+	 * Called when the application goes to the background and back. While paused, sensor-derived events
+	 * are handled according to the pause policy of each handler, and the buffered ones are delivered on resume.
+	 * Control events are always delivered.
+	 * The change is applied on the dispatcher thread, so that no sample is buffered after the flush and the
+	 * buffered samples are delivered before the live ones
+	 */
+	public void setPaused(final boolean paused){
+		mPaused = paused; //Only decides which samples are queued
+		mDispatcher.postTask(new Runnable() {
+			public void run() {
+				if(!paused){
+					for(EventType type : EventType.values()){
+						for(EventSubscription sub : mEvHandlers.get(type)){
+							if(sub.pauseBuffer != null){
+								sub.pauseBuffer.flush();
+							}
+						}
+					}
+				}
+				mDispatchPaused = paused;
+			}
+		});
+	}
+	
+	/**
+	 * Starts the loopback WebSocket server which streams the sensor samples without going through the
+	 * Cordova bridge. See LoopbackStreamServer.start for the options format. Options can be null
+	 */
+	public void startStreaming(JSONObject options, CallbackContext cbc){
+		LoopbackStreamServer server = null;
+		synchronized(mHandlersLock){
+			if(mStreamServer != null){
+				PluginLog.e(TAG, "Already streaming");
+				cbc.error("Already streaming");
+				return;
+			}
+			try{
+				server = LoopbackStreamServer.start(options);
+			}catch(IllegalArgumentException e){
+				PluginLog.e(TAG, e.getMessage());
+				cbc.error(e.getMessage());
+				return;
+			}catch(IOException e){
+				PluginLog.e(TAG, "Could not start the streaming server", e);
+				cbc.error("Could not start the streaming server: " + e.getMessage());
+				return;
+			}
+			mStreamServer = server;
+		}
+		mDispatcher.start();
+		cbc.success(server.getSummary());
+	}
+	
+	public void stopStreaming(CallbackContext cbc){
+		LoopbackStreamServer server = null;
 		synchronized(mHandlersLock){
-			cbc = mEvHandlers.remove(evType);
+			server = mStreamServer;
+			mStreamServer = null;
 		}
-		if(cbc != null){
-			logd("Removing event handler for type " + evType);
-			sendRemovedResultToHandler(cbc);
+		if(server != null){
+			server.stop();
+			cbc.success(server.getSummary());
+		}else{
+			PluginLog.e(TAG, "Not streaming");
+			cbc.error("Not streaming");
 		}
 	}
 	
-	public Myo getMyoOrErr(String mac, CallbackContext cbc){
-		MyoWithJson res = mMyoMap.get(mac);
+	//The Hub clock is used to normalize the timestamps of the devices in sync frames
+	public void setHub(Hub hub){
+		mHub = hub;
+	}
+	
+	//Whether the reference orientation of each Myo is captured when it's synced with the arm
+	public void setAutoReferenceOrientation(boolean enabled){
+		mAutoReference = enabled;
+	}
+	
+	//Queue depths and overflow counters of the dispatcher
+	public JSONObject getDispatchStats(){
+		return mDispatcher.getStats();
+	}
+	
+	//Stops the dispatcher thread and the batching timers, and delivers the pending batched samples
+	public void release(){
+		mDispatcher.stop();
+		ScheduledExecutorService scheduler = null;
+		List<SampleBatcher> batchers = new ArrayList<SampleBatcher>();
+		synchronized(mHandlersLock){
+			for(EventSubscription sub : mEvHandlers.getAll()){
+				if(sub.batcher != null){
+					batchers.add(sub.batcher);
+					sub.batcher = null;
+				}
+			}
+			scheduler = mScheduler;
+			mScheduler = null;
+			if(mStreamServer != null){
+				mStreamServer.stop();
+				mStreamServer = null;
+			}
+		}
+		for(SampleBatcher batcher : batchers){
+			batcher.stop(true);
+		}
+		if(scheduler != null){
+			scheduler.shutdown();
+		}
+	}
+	
+	//Shared with other listeners of the Hub, which must be registered after this one
+	MyoRegistry getMyoRegistry(){
+		return mMyoRegistry;
+	}
+	
+	//The Myo can be identified either by its MAC address (String) or by its slot index (Number)
+	public Myo getMyoOrErr(Object id, CallbackContext cbc){
+		MyoWithJson res = null;
+		if(id instanceof Number){
+			res = mMyoRegistry.get(((Number)id).intValue());
+		}else if(id != null){
+			res = mMyoRegistry.get(id.toString());
+		}
 		if(res == null){
-			loge("Myo with MAC address " + mac + " not found", null);
-			cbc.error("Myo with MAC address " + mac + " not found");
+			PluginLog.e(TAG, "Myo {} not found", id);
+			cbc.error("Myo " + id + " not found");
 		}
-		return res.myo;
+		return (res != null) ? res.myo : null;
 	}
 	
+	//The event carries the Myo whose state changed and the new list of connected devices
+	private void postDevicesChanged(Myo myo, long timestamp){
+		if(mEvHandlers.get(EventType.DEVICES_CHANGED).length > 0){
+			JSONArray devices = new JSONArray();
+			for(MyoWithJson myoWithJson : mMyoRegistry.getConnected()){
+				devices.put(myoWithJson.myoJson);
+			}
+			postControlEvent(EventType.DEVICES_CHANGED, myo, timestamp, new Object[]{"devices", devices});
+		}
+	}
+
 	//Extras is an array whose even elements are keys (String) and odd elements are values (Object)
-	private void callHandler(String evType, Myo myo, long timestamp, Object[] extras){
-		CallbackContext cbc = null;
-		synchronized(mHandlersLock){
-			cbc = mEvHandlers.get(evType);
+	private void postControlEvent(EventType type, Myo myo, long timestamp, Object[] extras){
+		PipelineMetrics.received(type);
+		if(mEvHandlers.get(type).length > 0 || (type == EventType.POSE && mGestures.isActive())){
+			MyoWithJson myoWithJson = mMyoRegistry.get(myo);
+			if(myoWithJson != null){
+				mDispatcher.postControlEvent(type, myoWithJson, timestamp, extras);
+			}else{
+				PipelineMetrics.unknownDevice(type);
+				UNKNOWN_DEVICE_LOG.e(TAG, "JSON Myo not found for MAC {}", myo.getMacAddress());
+			}
 		}
-		if(cbc != null){
-			//logd("Sending event " + evType + " to registered caller");
-			MyoWithJson myoWithJson = mMyoMap.get(myo.getMacAddress());
+	}
+	
+	private void postSample(Myo myo, EventType type, long timestamp, int count, double x, double y, double z, double w){
+		PipelineMetrics.received(type);
+		if(isSampleNeeded(type)){
+			MyoWithJson myoWithJson = mMyoRegistry.get(myo);
 			if(myoWithJson != null){
-				try{
-					JSONObject res = new JSONObject();
-					res.put("eventName", evType);
-					res.put("myo", myoWithJson.myoJson);
-					res.put("timestamp", Long.valueOf(timestamp));
-					for(int i = 0; extras != null && i < extras.length; i+=2){
-						res.put((String)extras[i], extras[i+1]);
+				Hub hub = mHub;
+				if(hub != null && type.isBatchable() && mEvHandlers.get(EventType.SYNC_FRAME).length > 0){
+					FrameSynchronizer.updateClockOffset(myoWithJson, timestamp, hub.now());
+				}
+				mDispatcher.postSample(myoWithJson, type, timestamp, count, x, y, z, w);
+			}else{
+				PipelineMetrics.unknownDevice(type);
+				UNKNOWN_DEVICE_LOG.e(TAG, "JSON Myo not found for MAC {}", myo.getMacAddress());
+			}
+		}
+	}
+	
+	//Streams which nobody listens to are not even queued
+	private boolean isSampleNeeded(EventType type){
+		if(mPaused && !hasActiveStreamsWhilePaused()){
+			return type == EventType.ORIENTATION && mGestures.needsOrientation();
+		}
+		int frameStreams = getFrameStreams();
+		int otherStreams = getFeatureStreams() | getSyncStreams();
+		LoopbackStreamServer server = mStreamServer;
+		if(server != null && server.hasClients()){
+			otherStreams |= server.streams;
+		}
+		boolean res = mEvHandlers.get(type).length > 0 || ((frameStreams | otherStreams) & (1 << type.ordinal())) != 0;
+		if(type == EventType.ORIENTATION){ //Needed by the accelerometer too, to compute linear acceleration
+			res = res || mEvHandlers.get(EventType.ACCELEROMETER).length > 0
+					|| (frameStreams & MotionFrameJoiner.ACCEL) != 0 || mGestures.needsOrientation();
+		}
+		return res;
+	}
+	
+	//Whether any handler of sensor-derived events keeps receiving (or buffering) them while paused
+	private boolean hasActiveStreamsWhilePaused(){
+		for(EventType type : EventType.values()){
+			if(type.isStream()){
+				for(EventSubscription sub : mEvHandlers.get(type)){
+					if(sub.pausePolicy != EventSubscription.PausePolicy.DROP){
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+	
+	//Whether the events of the handler must not be delivered now. Called from the dispatcher thread
+	private boolean isPaused(EventSubscription sub){
+		return mDispatchPaused && sub.pausePolicy != EventSubscription.PausePolicy.DELIVER;
+	}
+	
+	//Streams requested by any of the motion frame handlers
+	private int getFrameStreams(){
+		int res = 0;
+		for(EventSubscription sub : mEvHandlers.get(EventType.MOTION_FRAME)){
+			res |= sub.streams;
+		}
+		return res;
+	}
+	
+	//Streams requested by any of the feature handlers
+	private int getFeatureStreams(){
+		int res = 0;
+		for(EventSubscription sub : mEvHandlers.get(EventType.FEATURES)){
+			res |= sub.features.streams;
+		}
+		return res;
+	}
+	
+	//Streams requested by any of the sync frame handlers
+	private int getSyncStreams(){
+		int res = 0;
+		for(EventSubscription sub : mEvHandlers.get(EventType.SYNC_FRAME)){
+			res |= sub.streams;
+		}
+		return res;
+	}
+	
+	//Called from the dispatcher thread
+	private void callHandler(EventDispatcher.ControlEvent ev){
+		EventSubscription[] subs = mEvHandlers.get(ev.type);
+		if(subs.length > 0){
+			//PluginLog.v(TAG, "Sending event {} to registered callers", ev.type);
+			try{
+				long startNs = PipelineMetrics.start();
+				JSONObject res = new JSONObject();
+				res.put("eventName", ev.type.jsName);
+				res.put("myo", ev.myoWithJson.myoJson);
+				res.put("timestamp", Long.valueOf(ev.timestamp));
+				for(int i = 0; ev.extras != null && i < ev.extras.length; i+=2){
+					res.put((String)ev.extras[i], ev.extras[i+1]);
+				}
+				PluginResult pResult = newResult(null, res);
+				PipelineMetrics.record(PipelineMetrics.Stage.ENCODE, startNs);
+				for(EventSubscription sub : subs){
+					sub.delivered++;
+					sendResult(sub, pResult);
+				}
+			}catch(Exception e){
+				HANDLER_ERROR_LOG.e(TAG, "Exception while calling handler: ", e);
+			}
+		}
+	}
+	
+	/**
+	 * Called from the dispatcher thread.
+	 * The samples which pass the rate limiters and deadband filters are encoded at most once per format (JSON,
+	 * JSON batch sample, binary) and field mask, and the payloads are shared by all the handlers.
+	 * Apart from the payloads, nothing is allocated.
+	 */
+	private void callSensorHandler(MyoWithJson myoWithJson, SensorSample sample){
+		if(sample.type == EventType.ORIENTATION){
+			if(myoWithJson.captureReference){
+				myoWithJson.captureReference = false;
+				myoWithJson.reference = new OrientationFilter.Reference(sample.x, sample.y, sample.z, sample.w,
+						myoWithJson.towardElbow);
+			}
+			myoWithJson.hasOrientation = true;
+			myoWithJson.qx = sample.x;
+			myoWithJson.qy = sample.y;
+			myoWithJson.qz = sample.z;
+			myoWithJson.qw = sample.w;
+		}else if(sample.type == EventType.ACCELEROMETER){
+			sample.setOrientation(myoWithJson.hasOrientation, myoWithJson.qx, myoWithJson.qy, myoWithJson.qz,
+					myoWithJson.qw);
+		}
+		EventSubscription[] subs = mEvHandlers.get(sample.type);
+		//Samples (and fields) currently encoded in each format. Handlers may deliver different samples and fields
+		SensorSample recordSample = null;
+		SensorSample sampleJsonSample = null;
+		SensorSample binaryResultSample = null;
+		SensorSample jsonResultSample = null;
+		int sampleJsonFields = 0;
+		int jsonResultFields = 0;
+		PluginResult binaryResult = null;
+		PluginResult jsonResult = null;
+		for(EventSubscription sub : subs){
+			SensorSample out = sample;
+			if(sub.orientation != null){
+				out = sub.orientation.apply(myoWithJson, out);
+			}
+			if(sub.rateLimiter != null){
+				out = sub.rateLimiter.offer(myoWithJson, out);
+			}
+			if(out == null || (sub.deadband != null && !sub.deadband.accept(myoWithJson, out))){
+				sub.dropped++;
+				continue;
+			}
+			if(isPaused(sub)){
+				if(sub.pauseBuffer != null){
+					sub.pauseBuffer.add(myoWithJson, out);
+				}else{
+					sub.dropped++;
+				}
+				continue;
+			}
+			sub.delivered++;
+			SampleBatcher batcher = sub.batcher;
+			if(sub.binary){
+				if(recordSample != out){
+					long startNs = PipelineMetrics.start();
+					mRecordBuf.clear();
+					BinaryEncoder.put(mRecordBuf, myoWithJson.index, out);
+					mRecordBuf.flip();
+					PipelineMetrics.record(PipelineMetrics.Stage.ENCODE, startNs);
+					recordSample = out;
+				}
+				if(batcher != null){
+					batcher.addRecord(myoWithJson, mRecordBuf);
+					mRecordBuf.rewind(); //The record can be added to other batchers
+				}else{
+					if(binaryResultSample != out){
+						long startNs = PipelineMetrics.start();
+						binaryResult = newResult(Arrays.copyOf(mRecordBuf.array(), mRecordBuf.limit()), null);
+						PipelineMetrics.record(PipelineMetrics.Stage.ENCODE, startNs);
+						binaryResultSample = out;
 					}
-					PluginResult pResult = new PluginResult(PluginResult.Status.OK, res);
-					pResult.setKeepCallback(true);
-					cbc.sendPluginResult(pResult);
-				}catch(Exception e){
-					loge("Exception while calling handler: ", e);
-					cbc.error(e.getLocalizedMessage());
+					sendResult(sub, myoWithJson.index, binaryResult);
 				}
+			}else if(batcher != null){
+				if(sampleJsonSample != out || sampleJsonFields != sub.fields){
+					long startNs = PipelineMetrics.start();
+					int capacity = mSampleJsonBuf.capacity();
+					mSampleJsonBuf.setLength(0);
+					JsonEventWriter.appendSample(mSampleJsonBuf, out, sub.fields);
+					if(mSampleJsonBuf.capacity() != capacity){
+						AllocationStats.bufferAllocated();
+					}
+					PipelineMetrics.record(PipelineMetrics.Stage.ENCODE, startNs);
+					sampleJsonSample = out;
+					sampleJsonFields = sub.fields;
+				}
+				batcher.add(myoWithJson, mSampleJsonBuf);
 			}else{
-				loge("ERROR: JSON Myo not found for MAC " + myo.getMacAddress(), null);
+				if(jsonResultSample != out || jsonResultFields != sub.fields){
+					long startNs = PipelineMetrics.start();
+					int capacity = mJsonBuf.capacity();
+					mJsonBuf.setLength(0);
+					JsonEventWriter.appendEvent(mJsonBuf, myoWithJson.myoJsonText, out, sub.fields);
+					if(mJsonBuf.capacity() != capacity){
+						AllocationStats.bufferAllocated();
+					}
+					jsonResult = newResult(null, new JsonEventWriter.EncodedJson(mJsonBuf.toString()));
+					PipelineMetrics.record(PipelineMetrics.Stage.ENCODE, startNs);
+					jsonResultSample = out;
+					jsonResultFields = sub.fields;
+				}
+				sendResult(sub, myoWithJson.index, jsonResult);
 			}
 		}
 	}
 	
-	private void sendRemovedResultToHandler(CallbackContext cbc){
-		PluginResult pluginResult = new PluginResult(PluginResult.Status.NO_RESULT, "Event handler removed");
-		pluginResult.setKeepCallback(false);
-		cbc.sendPluginResult(pluginResult);
+	/**
+	 * Called from the dispatcher thread, after callSensorHandler.
+	 * Frames are completed when they contain the streams requested by all the handlers; each handler
+	 * receives only its streams. Payloads are encoded once per format, streams and fields.
+	 */
+	private void callFrameHandler(MyoWithJson myoWithJson, SensorSample sample){
+		EventSubscription[] subs = mEvHandlers.get(EventType.MOTION_FRAME);
+		if(subs.length == 0 || !sample.type.isBatchable()){
+			return;
+		}
+		MotionFrameJoiner.Frame frame = mFrameJoiner.add(myoWithJson, sample, getFrameStreams());
+		if(frame == null){
+			return;
+		}
+		PluginResult binaryResult = null;
+		PluginResult jsonResult = null;
+		int binaryStreams = 0;
+		int jsonStreams = 0;
+		int jsonFields = 0;
+		for(EventSubscription sub : subs){
+			if(isPaused(sub)){
+				sub.dropped++;
+				continue;
+			}
+			sub.delivered++;
+			if(sub.binary){
+				if(binaryResult == null || binaryStreams != sub.streams){
+					long startNs = PipelineMetrics.start();
+					mFrameBuf.clear();
+					putFrameRecord(frame, frame.accel, sub.streams);
+					putFrameRecord(frame, frame.gyro, sub.streams);
+					putFrameRecord(frame, frame.orientation, sub.streams);
+					binaryResult = newResult(Arrays.copyOf(mFrameBuf.array(), mFrameBuf.position()), null);
+					PipelineMetrics.record(PipelineMetrics.Stage.ENCODE, startNs);
+					binaryStreams = sub.streams;
+				}
+				sendResult(sub, myoWithJson.index, binaryResult);
+			}else{
+				if(jsonResult == null || jsonStreams != sub.streams || jsonFields != sub.fields){
+					long startNs = PipelineMetrics.start();
+					int capacity = mJsonBuf.capacity();
+					mJsonBuf.setLength(0);
+					JsonEventWriter.appendFrame(mJsonBuf, myoWithJson.myoJsonText, frame, sub.streams, sub.fields);
+					if(mJsonBuf.capacity() != capacity){
+						AllocationStats.bufferAllocated();
+					}
+					jsonResult = newResult(null, new JsonEventWriter.EncodedJson(mJsonBuf.toString()));
+					PipelineMetrics.record(PipelineMetrics.Stage.ENCODE, startNs);
+					jsonStreams = sub.streams;
+					jsonFields = sub.fields;
+				}
+				sendResult(sub, myoWithJson.index, jsonResult);
+			}
+		}
 	}
 	
-	private static void logd(String msg) {
-		if(MyoApi.LOG_ENABLED){
-			Log.d(MyoEventController.TAG, msg);
+	/**
+	 * Called from the dispatcher thread, after callFrameHandler.
+	 * Each handler has its own windows, so the features are encoded per handler, once per hop.
+	 */
+	private void callFeatureHandler(MyoWithJson myoWithJson, SensorSample sample){
+		EventSubscription[] subs = mEvHandlers.get(EventType.FEATURES);
+		if(subs.length == 0 || sample.type == EventType.ORIENTATION || !sample.type.isBatchable()){
+			return;
+		}
+		for(EventSubscription sub : subs){
+			if(isPaused(sub)){
+				continue; //Not even computed
+			}
+			FeatureExtractor.State state = sub.features.add(myoWithJson, sample);
+			if(state != null){
+				sub.delivered++;
+				long startNs = PipelineMetrics.start();
+				int capacity = mJsonBuf.capacity();
+				mJsonBuf.setLength(0);
+				sub.features.appendEvent(mJsonBuf, state);
+				if(mJsonBuf.capacity() != capacity){
+					AllocationStats.bufferAllocated();
+				}
+				PluginResult jsonResult = newResult(null, new JsonEventWriter.EncodedJson(mJsonBuf.toString()));
+				PipelineMetrics.record(PipelineMetrics.Stage.ENCODE, startNs);
+				sendResult(sub, myoWithJson.index, jsonResult);
+			}
 		}
 	}
 	
-	private static void loge(String msg, Throwable t) {
-		if(MyoApi.LOG_ENABLED){
-			Log.d(TAG, msg, t);
+	/**
+	 * Called from the dispatcher thread, after callFeatureHandler.
+	 * Frames include all the connected devices, even the ones without samples (with null streams).
+	 */
+	private void callSyncHandler(MyoWithJson myoWithJson, SensorSample sample){
+		EventSubscription[] subs = mEvHandlers.get(EventType.SYNC_FRAME);
+		if(subs.length == 0 || !sample.type.isBatchable()){
+			return;
 		}
+		MyoWithJson[] connected = mMyoRegistry.getConnected();
+		for(EventSubscription sub : subs){
+			if(isPaused(sub)){
+				continue; //Not even aligned
+			}
+			sub.synchronizer.add(myoWithJson, sample);
+			while(sub.synchronizer.nextFrame(connected)){
+				sub.delivered++;
+				long startNs = PipelineMetrics.start();
+				int capacity = mJsonBuf.capacity();
+				mJsonBuf.setLength(0);
+				sub.synchronizer.appendFrame(mJsonBuf, sub.fields);
+				if(mJsonBuf.capacity() != capacity){
+					AllocationStats.bufferAllocated();
+				}
+				PluginResult jsonResult = newResult(null, new JsonEventWriter.EncodedJson(mJsonBuf.toString()));
+				PipelineMetrics.record(PipelineMetrics.Stage.ENCODE, startNs);
+				sendResult(sub, 0, jsonResult);
+			}
+		}
+	}
+	
+	//Called from the dispatcher thread. Samples are sent as they are, as binary records
+	private void callStreamServer(MyoWithJson myoWithJson, SensorSample sample){
+		LoopbackStreamServer server = mStreamServer;
+		if(server == null || mDispatchPaused || (server.streams & (1 << sample.type.ordinal())) == 0 || !server.hasClients()){
+			return;
+		}
+		mRecordBuf.clear();
+		BinaryEncoder.put(mRecordBuf, myoWithJson.index, sample);
+		mRecordBuf.flip();
+		server.offer(mRecordBuf);
+	}
+	
+	//Streams missing in the frame have no record
+	private void putFrameRecord(MotionFrameJoiner.Frame frame, SensorSample sample, int streams){
+		int stream = 1 << sample.type.ordinal();
+		if((streams & frame.present & stream) != 0){
+			BinaryEncoder.put(mFrameBuf, frame.myoWithJson.index, sample);
+		}
+	}
+	
+	//Creates a result with either a binary or a JSON payload, to be delivered to several handlers
+	private static PluginResult newResult(byte[] binaryPayload, JSONObject jsonPayload){
+		AllocationStats.payloadAllocated();
+		PluginResult pResult = (binaryPayload != null)
+				? new PluginResult(PluginResult.Status.OK, binaryPayload)
+				: new PluginResult(PluginResult.Status.OK, jsonPayload);
+		pResult.setKeepCallback(true);
+		return pResult;
+	}
+	
+	/**
+	 * Sends a result of a sensor-derived event, consuming a credit if the handler has flow control.
+	 * Called from the dispatcher thread
+	 * @param key Identifies the stream of the result among the ones of the handler, usually the Myo slot index
+	 */
+	private void sendResult(EventSubscription sub, int key, PluginResult pResult){
+		if(sub.credits == null){
+			sendResult(sub, pResult);
+		}else if(sub.credits.send(key, pResult)){
+			sub.delivered--; //The replaced result won't be delivered
+			sub.dropped++;
+		}
+	}
+	
+	private void sendResult(EventSubscription sub, PluginResult pResult){
+		try{
+			long startNs = PipelineMetrics.start();
+			sub.cbc.sendPluginResult(pResult);
+			PipelineMetrics.record(PipelineMetrics.Stage.SEND, startNs);
+			PipelineMetrics.delivered(sub.type);
+		}catch(Exception e){
+			HANDLER_ERROR_LOG.e(TAG, "Exception while calling handler: ", e);
+		}
+	}
+	
+	//Must be called holding mHandlersLock
+	private void startBatcher(EventSubscription sub, JSONObject cfg){
+		if(mScheduler == null){
+			mScheduler = Executors.newSingleThreadScheduledExecutor();
+		}
+		sub.batcher = SampleBatcher.fromJson(sub.type, sub.cbc, sub.binary, sub.credits, cfg);
+		sub.batcher.start(mScheduler);
+	}
+	
+	private void stopBatcher(EventSubscription sub){
+		SampleBatcher batcher = null;
+		synchronized(mHandlersLock){
+			batcher = sub.batcher;
+			sub.batcher = null;
+		}
+		if(batcher != null){
+			batcher.stop(true);
+		}
+	}
+	
+	private void flushBatches(int myoIndex){
+		List<SampleBatcher> batchers = new ArrayList<SampleBatcher>();
+		for(EventSubscription sub : mEvHandlers.getAll()){
+			SampleBatcher batcher = sub.batcher;
+			if(batcher != null){
+				batchers.add(batcher);
+			}
+		}
+		for(SampleBatcher batcher : batchers){
+			batcher.flush(myoIndex);
+		}
+	}
+	
+	private void sendRemovedResultToHandler(CallbackContext cbc){
+		PluginResult pluginResult = new PluginResult(PluginResult.Status.NO_RESULT, "Event handler removed");
+		pluginResult.setKeepCallback(false);
+		cbc.sendPluginResult(pluginResult);
 	}
 	
 }
\ No newline at end of file
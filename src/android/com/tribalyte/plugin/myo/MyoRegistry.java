@@ -0,0 +1,167 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.json.JSONArray;
+
+import com.thalmic.myo.Myo;
+import com.tribalyte.plugin.myo.MyoEventController.MyoWithJson;
+
+/**
+ * Registry of the attached Myo devices. Each device gets the lowest free slot
+ * index while it's attached, which identifies it in binary events and can be
+ * used to address it from the JavaScript API instead of its MAC address.
+ *
+ * Devices are added and removed from the Hub listener thread while they are
+ * looked up from both the listener thread and the Cordova threads, so the
+ * slots are kept in an array which is replaced on every modification
+ * (copy-on-write), and so is the identity map used by the event path to
+ * find the entry of a Myo without hashing its MAC address.
+ *
+ * The list of connected devices is kept as an immutable snapshot too, which
+ * is only rebuilt when a device is connected, disconnected or removed.
+ *
+ */
+class MyoRegistry{
+
+	private static final MyoWithJson[] EMPTY = new MyoWithJson[0];
+
+	private volatile MyoWithJson[] mSlots = EMPTY; //Free slots are null
+	private volatile IdentityHashMap<Myo, MyoWithJson> mByMyo = new IdentityHashMap<Myo, MyoWithJson>(); //Never modified once published
+	private final ConcurrentHashMap<String, MyoWithJson> mByMac = new ConcurrentHashMap<String, MyoWithJson>();
+	private volatile MyoWithJson[] mConnected = EMPTY;
+	private volatile JSONArray mConnectedJson = new JsonEventWriter.EncodedJsonArray("[]");
+
+	//Returns the already existing entry if the Myo was registered
+	synchronized MyoWithJson add(Myo myo){
+		MyoWithJson res = mByMac.get(myo.getMacAddress());
+		if(res == null){
+			MyoWithJson[] slots = mSlots;
+			int index = 0;
+			while(index < slots.length && slots[index] != null){
+				index++;
+			}
+			MyoWithJson[] updated = Arrays.copyOf(slots, Math.max(slots.length, index + 1));
+			res = new MyoWithJson(myo, index);
+			updated[index] = res;
+			mByMac.put(myo.getMacAddress(), res);
+			IdentityHashMap<Myo, MyoWithJson> byMyo = new IdentityHashMap<Myo, MyoWithJson>(mByMyo);
+			byMyo.put(myo, res);
+			mByMyo = byMyo;
+			mSlots = updated;
+			if(myo.isConnected()){ //E.g. if the listener was added after the connection
+				res.connected = true;
+				updateConnected();
+			}
+		}
+		return res;
+	}
+
+	//Returns the removed entry, if any
+	synchronized MyoWithJson remove(Myo myo){
+		MyoWithJson res = mByMac.remove(myo.getMacAddress());
+		if(res != null){
+			MyoWithJson[] updated = mSlots.clone();
+			updated[res.index] = null;
+			int length = updated.length;
+			while(length > 0 && updated[length - 1] == null){
+				length--;
+			}
+			mSlots = (length == 0) ? EMPTY : Arrays.copyOf(updated, length);
+			IdentityHashMap<Myo, MyoWithJson> byMyo = new IdentityHashMap<Myo, MyoWithJson>(mByMyo);
+			byMyo.remove(res.myo);
+			mByMyo = byMyo;
+			if(res.connected){
+				res.connected = false;
+				updateConnected();
+			}
+		}
+		return res;
+	}
+
+	//Returns whether the list of connected devices changed
+	synchronized boolean setConnected(Myo myo, boolean connected){
+		MyoWithJson entry = mByMac.get(myo.getMacAddress());
+		boolean res = (entry != null && entry.connected != connected);
+		if(res){
+			entry.connected = connected;
+			updateConnected();
+		}
+		return res;
+	}
+
+	//Must be called holding the lock
+	private void updateConnected(){
+		MyoWithJson[] slots = mSlots;
+		MyoWithJson[] connected = new MyoWithJson[slots.length];
+		StringBuilder json = new StringBuilder(128 * slots.length + 2).append('[');
+		int count = 0;
+		for(MyoWithJson entry : slots){
+			if(entry != null && entry.connected){
+				json.append((count > 0) ? "," : "").append(entry.myoJsonText);
+				connected[count++] = entry;
+			}
+		}
+		mConnected = Arrays.copyOf(connected, count);
+		mConnectedJson = new JsonEventWriter.EncodedJsonArray(json.append(']').toString());
+	}
+
+	/**
+	 * Lookup for the event path: compares by identity, as the Hub keeps one Myo instance per device
+	 * and the replayed ones are only registered with their own instance
+	 */
+	MyoWithJson get(Myo myo){
+		return mByMyo.get(myo);
+	}
+
+	MyoWithJson get(int index){
+		MyoWithJson[] slots = mSlots;
+		return (index >= 0 && index < slots.length) ? slots[index] : null;
+	}
+
+	MyoWithJson get(String mac){
+		return mByMac.get(mac);
+	}
+
+	//Snapshot of the slots. Free slots are null. The returned array must not be modified
+	MyoWithJson[] getSlots(){
+		return mSlots;
+	}
+
+	//Snapshot of the connected devices, in slot order. The returned array must not be modified
+	MyoWithJson[] getConnected(){
+		return mConnected;
+	}
+
+	//Already serialized array of the JSON of the connected devices. Only valid as a PluginResult message
+	JSONArray getConnectedJson(){
+		return mConnectedJson;
+	}
+
+}
@@ -0,0 +1,156 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import com.tribalyte.plugin.myo.MyoEventController.MyoWithJson;
+
+/**
+ * Transforms the orientation samples delivered to a handler, per Myo device,
+ * before they are rate limited, filtered and encoded:
+ * <ul>
+ * <li>Relative orientation: the sample is expressed relative to the reference
+ * orientation of the device (q' = inverse(reference) * q), so that the
+ * reference becomes the identity. Samples are delivered unchanged while the
+ * device has no reference.</li>
+ * <li>Smoothing: SLERP low-pass between the last delivered orientation and the
+ * new one, where the smoothing factor is the weight of the last one.</li>
+ * </ul>
+ *
+ */
+class OrientationFilter{
+
+	private static final double NLERP_THRESHOLD = 0.9995; //Above this cosine, SLERP is replaced by a normalized LERP
+
+	/**
+	 * Immutable reference orientation of a device, kept as its inverse. If flipped,
+	 * the relative orientation is also rotated 180 degrees around the Z axis, which
+	 * negates its roll and pitch, for armbands worn with the X axis toward the elbow.
+	 */
+	static final class Reference{
+		final double ix;
+		final double iy;
+		final double iz;
+		final double iw;
+		final boolean flipped;
+		Reference(double x, double y, double z, double w, boolean flipped) {
+			double norm = Math.sqrt(x * x + y * y + z * z + w * w);
+			if(norm == 0){
+				throw new IllegalArgumentException("Not a valid rotation quaternion");
+			}
+			ix = -x / norm;
+			iy = -y / norm;
+			iz = -z / norm;
+			iw = w / norm;
+			this.flipped = flipped;
+		}
+	}
+
+	private static class State{
+		final SensorSample out = new SensorSample(EventType.ORIENTATION, "rotation");
+		boolean smoothed = false; //Whether out holds the last delivered orientation
+	}
+
+	final boolean relative;
+	final double smoothing;
+	private final SlotStates<State> mStates = new SlotStates<State>() {
+		State newState(MyoWithJson myoWithJson, SensorSample sample) {
+			return new State();
+		}
+	};
+
+	/**
+	 * @param relative Whether the samples are made relative to the reference orientation
+	 * @param smoothing Weight of the last delivered orientation, in [0, 1). 0 means no smoothing
+	 */
+	OrientationFilter(boolean relative, double smoothing) {
+		this.relative = relative;
+		this.smoothing = smoothing;
+	}
+
+	/**
+	 * Returns a sample held by this object, only valid until the next call.
+	 */
+	SensorSample apply(MyoWithJson myoWithJson, SensorSample sample){
+		State state = mStates.get(myoWithJson, sample);
+		SensorSample out = state.out;
+		double x = sample.x;
+		double y = sample.y;
+		double z = sample.z;
+		double w = sample.w;
+		Reference ref = relative ? myoWithJson.reference : null;
+		if(ref != null){ //Hamilton product inverse(reference) * q
+			double rx = ref.iw * x + ref.ix * w + ref.iy * z - ref.iz * y;
+			double ry = ref.iw * y - ref.ix * z + ref.iy * w + ref.iz * x;
+			double rz = ref.iw * z + ref.ix * y - ref.iy * x + ref.iz * w;
+			w = ref.iw * w - ref.ix * x - ref.iy * y - ref.iz * z;
+			x = ref.flipped ? -rx : rx;
+			y = ref.flipped ? -ry : ry;
+			z = rz;
+		}
+		if(smoothing > 0 && state.smoothed){
+			slerp(out, x, y, z, w, 1.0 - smoothing);
+		}else{
+			out.x = x;
+			out.y = y;
+			out.z = z;
+			out.w = w;
+		}
+		state.smoothed = true;
+		out.timestamp = sample.timestamp;
+		out.count = sample.count;
+		return out;
+	}
+
+	//Moves the quaternion held by q toward (x, y, z, w) by the fraction t, along the shortest arc
+	static void slerp(SensorSample q, double x, double y, double z, double w, double t){
+		double cos = q.x * x + q.y * y + q.z * z + q.w * w;
+		if(cos < 0){ //q and -q are the same rotation
+			x = -x;
+			y = -y;
+			z = -z;
+			w = -w;
+			cos = -cos;
+		}
+		double s0 = 1.0 - t;
+		double s1 = t;
+		if(cos < NLERP_THRESHOLD){
+			double theta = Math.acos(cos);
+			double sin = Math.sin(theta);
+			s0 = Math.sin(s0 * theta) / sin;
+			s1 = Math.sin(s1 * theta) / sin;
+		}
+		q.x = s0 * q.x + s1 * x;
+		q.y = s0 * q.y + s1 * y;
+		q.z = s0 * q.z + s1 * z;
+		q.w = s0 * q.w + s1 * w;
+		q.divide(1); //Normalizes, as LERP doesn't keep the norm
+	}
+
+	@Override
+	public String toString() {
+		return "OrientationFilter [relative=" + relative + ", smoothing=" + smoothing + "]";
+	}
+
+}
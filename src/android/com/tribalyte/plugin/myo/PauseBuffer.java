@@ -0,0 +1,233 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+
+import com.tribalyte.plugin.myo.MyoEventController.MyoWithJson;
+
+/**
+ * Keeps the last samples of a subscription while the application is paused,
+ * so that they can be delivered at once when it's resumed instead of being
+ * encoded for a WebView which isn't running.
+ *
+ * Samples are stored as primitive values in a ring per Myo device, sized for
+ * the configured time at the IMU rate of the Myo; older samples are overwritten.
+ * On resume, each device gets a single result in the format of
+ * {@link SampleBatcher}: <code>{eventName: ..., myo: [...], samples: [...]}</code>,
+ * or the concatenation of the records for binary subscriptions. Samples of
+ * devices detached while paused are delivered too, even if another device
+ * takes their slot before the application is resumed.
+ *
+ */
+class PauseBuffer{
+
+	private static final String TAG = PauseBuffer.class.getSimpleName();
+
+	static final double DEFAULT_SECONDS = 10;
+	static final double MAX_SECONDS = 60;
+	private static final int SAMPLES_PER_SECOND = 50; //IMU rate of the Myo. RSSI is much slower
+	private static final int VALUES = 8; //x, y, z, w, qx, qy, qz, qw
+
+	private static class Ring{
+		final MyoWithJson myoWithJson;
+		final long[] timestamps;
+		final double[] values;
+		final boolean[] hasOrientation;
+		int next = 0;
+		int count = 0;
+		Ring(MyoWithJson myoWithJson, int capacity) {
+			this.myoWithJson = myoWithJson;
+			timestamps = new long[capacity];
+			values = new double[VALUES * capacity];
+			hasOrientation = new boolean[capacity];
+		}
+	}
+
+	private final EventType mType;
+	private final CallbackContext mCbc;
+	private final CreditGate mCredits; //Null if the handler has no flow control
+	private final boolean mBinary;
+	private final int mFields;
+	private final long mWindowMs;
+	private final int mCapacity;
+	private final SlotStates<Ring> mRings = new SlotStates<Ring>() { //Guarded by the PauseBuffer lock
+		Ring newState(MyoWithJson myoWithJson, SensorSample sample) {
+			return new Ring(myoWithJson, mCapacity);
+		}
+		@Override
+		void onReplaced(Ring ring) {
+			if(ring.count > 0){ //Drained now, as the ring is lost
+				mReplacedKeys.add(Integer.valueOf(ring.myoWithJson.index));
+				mReplacedPayloads.add(drain(ring));
+			}
+		}
+	};
+	//Samples of the replaced rings, delivered first on the next flush. Guarded by the PauseBuffer lock
+	private final List<Integer> mReplacedKeys = new ArrayList<Integer>();
+	private final List<Object> mReplacedPayloads = new ArrayList<Object>();
+	private SensorSample mScratch = null; //Created from the first sample, to keep its JSON key
+
+	/**
+	 * @param fields FieldMask flags of the JSON samples
+	 * @param seconds How long samples are kept
+	 * @param credits Flow control of the handler. Can be null
+	 */
+	PauseBuffer(EventType type, CallbackContext cbc, boolean binary, int fields, double seconds, CreditGate credits){
+		mType = type;
+		mCbc = cbc;
+		mCredits = credits;
+		mBinary = binary;
+		mFields = fields;
+		mWindowMs = Math.round(seconds * 1000);
+		mCapacity = Math.max(1, (int)Math.ceil(seconds * SAMPLES_PER_SECOND));
+	}
+
+	//Called from the dispatcher thread
+	synchronized void add(MyoWithJson myoWithJson, SensorSample sample){
+		if(mScratch == null){
+			mScratch = new SensorSample(sample.type, sample.key);
+		}
+		Ring ring = mRings.get(myoWithJson, sample);
+		int pos = ring.next;
+		ring.timestamps[pos] = sample.timestamp;
+		int base = VALUES * pos;
+		ring.values[base] = sample.x;
+		ring.values[base + 1] = sample.y;
+		ring.values[base + 2] = sample.z;
+		ring.values[base + 3] = sample.w;
+		ring.values[base + 4] = sample.qx;
+		ring.values[base + 5] = sample.qy;
+		ring.values[base + 6] = sample.qz;
+		ring.values[base + 7] = sample.qw;
+		ring.hasOrientation[pos] = sample.hasOrientation;
+		ring.next = (pos + 1) % mCapacity;
+		ring.count = Math.min(ring.count + 1, mCapacity);
+	}
+
+	/**
+	 * Delivers the samples of the last seconds of each Myo as a single batch and empties the buffer.
+	 * Rings are kept for the next pause
+	 */
+	void flush(){
+		List<Object> payloads = new ArrayList<Object>();
+		List<Integer> keys = new ArrayList<Integer>();
+		synchronized(this){
+			keys.addAll(mReplacedKeys);
+			payloads.addAll(mReplacedPayloads);
+			mReplacedKeys.clear();
+			mReplacedPayloads.clear();
+			for(int i = 0; i < mRings.size(); i++){
+				Ring ring = mRings.get(i);
+				if(ring != null && ring.count > 0){
+					keys.add(Integer.valueOf(ring.myoWithJson.index)); //Before draining, which resets the ring
+					payloads.add(drain(ring));
+				}
+			}
+		}
+		for(int i = 0; i < payloads.size(); i++){
+			send(keys.get(i).intValue(), payloads.get(i));
+		}
+	}
+
+	//Must be called holding the lock. Returns either a JSONObject or a byte array
+	private Object drain(Ring ring){
+		int count = sampleCount();
+		long newest = ring.timestamps[(ring.next + mCapacity - 1) % mCapacity];
+		int first = (ring.count == mCapacity) ? ring.next : 0; //Oldest sample
+		ByteBuffer records = mBinary ? BinaryEncoder.allocate(BinaryEncoder.MAX_RECORD_SIZE * ring.count) : null;
+		StringBuilder samples = mBinary ? null : new StringBuilder(128 * ring.count);
+		for(int i = 0; i < ring.count; i++){
+			int pos = (first + i) % mCapacity;
+			if(newest - ring.timestamps[pos] > mWindowMs){
+				continue;
+			}
+			int base = VALUES * pos;
+			double[] v = ring.values;
+			mScratch.set(ring.timestamps[pos], count, v[base], v[base + 1], v[base + 2], v[base + 3]);
+			mScratch.setOrientation(ring.hasOrientation[pos], v[base + 4], v[base + 5], v[base + 6], v[base + 7]);
+			if(records != null){
+				BinaryEncoder.put(records, ring.myoWithJson.index, mScratch);
+			}else{
+				if(samples.length() > 0){
+					samples.append(',');
+				}
+				JsonEventWriter.appendSample(samples, mScratch, mFields);
+			}
+		}
+		ring.next = 0;
+		ring.count = 0;
+		Object res = null;
+		if(records != null){
+			res = Arrays.copyOf(records.array(), records.position());
+		}else{
+			StringBuilder sb = new StringBuilder(samples.length() + 128);
+			JsonEventWriter.appendBatch(sb, mType.jsName, ring.myoWithJson.myoJsonText, samples);
+			res = new JsonEventWriter.EncodedJson(sb.toString());
+		}
+		return res;
+	}
+
+	//Number of components of the samples of the subscription
+	private int sampleCount(){
+		int res = 3;
+		if(mType == EventType.ORIENTATION){
+			res = 4;
+		}else if(mType == EventType.RSSI){
+			res = 1;
+		}
+		return res;
+	}
+
+	private void send(int key, Object payload){
+		AllocationStats.payloadAllocated();
+		try{
+			PluginResult pResult = (payload instanceof byte[])
+					? new PluginResult(PluginResult.Status.OK, (byte[])payload)
+					: new PluginResult(PluginResult.Status.OK, (JsonEventWriter.EncodedJson)payload);
+			pResult.setKeepCallback(true);
+			if(mCredits != null){
+				mCredits.send(key, pResult);
+			}else{
+				mCbc.sendPluginResult(pResult);
+				PipelineMetrics.delivered(mType);
+			}
+		}catch(Exception e){
+			PluginLog.e(TAG, "Exception while sending paused samples: ", e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "PauseBuffer [windowMs=" + mWindowMs + ", capacity=" + mCapacity + "]";
+	}
+
+}
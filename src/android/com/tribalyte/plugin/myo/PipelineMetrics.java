@@ -0,0 +1,160 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Counters and latency histograms of the stages of the event path, from the
+ * Myo SDK callbacks to the delivery of the results to Cordova.
+ *
+ * Collection is disabled by default. When disabled, the instrumented code only
+ * reads a flag: no clock is read and nothing is recorded.
+ *
+ */
+final class PipelineMetrics{
+
+	enum Stage{
+		QUEUE("queue"), //From the SDK callback until the dispatcher thread picks the event
+		DISPATCH("dispatch"), //Handling of an event by the dispatcher thread, encoding and sending included
+		ENCODE("encode"), //Creation of a payload, JSON or binary, and its PluginResult
+		SEND("send"); //CallbackContext.sendPluginResult
+
+		final String jsName;
+		final LatencyHistogram histogram = new LatencyHistogram();
+
+		Stage(String jsName) {
+			this.jsName = jsName;
+		}
+	}
+
+	private static volatile boolean sEnabled = false;
+	private static volatile long sSinceNs = System.nanoTime();
+	//Indexed by event type ordinal
+	private static final AtomicLongArray sReceived = new AtomicLongArray(EventType.COUNT);
+	private static final AtomicLongArray sDelivered = new AtomicLongArray(EventType.COUNT);
+	private static final AtomicLongArray sUnknownDevice = new AtomicLongArray(EventType.COUNT);
+
+	private PipelineMetrics(){
+	}
+
+	static boolean isEnabled(){
+		return sEnabled;
+	}
+
+	//Enabling the collection resets the metrics
+	static void setEnabled(boolean enabled){
+		if(enabled && !sEnabled){
+			reset();
+		}
+		sEnabled = enabled;
+	}
+
+	//Start time of a stage, to be passed to record. 0 if collection is disabled
+	static long start(){
+		return sEnabled ? System.nanoTime() : 0;
+	}
+
+	static void record(Stage stage, long startNs){
+		if(startNs != 0 && sEnabled){
+			stage.histogram.record(System.nanoTime() - startNs);
+		}
+	}
+
+	//Event received from the Myo SDK
+	static void received(EventType type){
+		if(sEnabled){
+			sReceived.incrementAndGet(type.ordinal());
+		}
+	}
+
+	//Result sent to a handler. Batches count once
+	static void delivered(EventType type){
+		if(sEnabled){
+			sDelivered.incrementAndGet(type.ordinal());
+		}
+	}
+
+	//Event discarded because its Myo is not in the registry
+	static void unknownDevice(EventType type){
+		if(sEnabled){
+			sUnknownDevice.incrementAndGet(type.ordinal());
+		}
+	}
+
+	/**
+	 * Format: {enabled: boolean, elapsed: ms, events: {<eventName>: {received, receivedPerSecond,
+	 * delivered, unknownDevice}}, stages: {<stage>: {count, mean, p50, p90, p99, p999, max}}}.
+	 * Durations in microseconds. Event types without any activity are omitted
+	 */
+	static JSONObject toJson(){
+		JSONObject res = new JSONObject();
+		try{
+			long elapsedMs = (System.nanoTime() - sSinceNs) / 1000000L;
+			res.put("enabled", sEnabled);
+			res.put("elapsed", elapsedMs);
+			JSONObject events = new JSONObject();
+			for(EventType type : EventType.values()){
+				int i = type.ordinal();
+				long received = sReceived.get(i);
+				long delivered = sDelivered.get(i);
+				long unknownDevice = sUnknownDevice.get(i);
+				if(received > 0 || delivered > 0 || unknownDevice > 0){
+					JSONObject counters = new JSONObject();
+					counters.put("received", received);
+					counters.put("receivedPerSecond", (elapsedMs > 0) ? Math.round(received * 10000.0 / elapsedMs) / 10.0 : 0);
+					counters.put("delivered", delivered);
+					counters.put("unknownDevice", unknownDevice);
+					events.put(type.jsName, counters);
+				}
+			}
+			res.put("events", events);
+			JSONObject stages = new JSONObject();
+			for(Stage stage : Stage.values()){
+				stages.put(stage.jsName, stage.histogram.toJson());
+			}
+			res.put("stages", stages);
+		}catch(JSONException e){
+			//Not expected, as all the values are valid
+		}
+		return res;
+	}
+
+	static void reset(){
+		for(int i = 0; i < EventType.COUNT; i++){
+			sReceived.set(i, 0);
+			sDelivered.set(i, 0);
+			sUnknownDevice.set(i, 0);
+		}
+		for(Stage stage : Stage.values()){
+			stage.histogram.reset();
+		}
+		sSinceNs = System.nanoTime();
+	}
+
+}
@@ -0,0 +1,191 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+import com.thalmic.myo.Myo;
+import com.tribalyte.plugin.myo.MyoEventController.MyoWithJson;
+
+/**
+ * Command executed by {@link MyoApi} for one of the plugin actions. Each
+ * command declares the thread it must run on, so that the dispatcher can
+ * hand it over without the command having to do it by itself.
+ *
+ */
+abstract class PluginAction{
+
+	private static final String TAG = PluginAction.class.getSimpleName();
+
+	enum ExecMode{
+		INLINE, //In the thread calling MyoApi.execute
+		THREAD_POOL, //In the Cordova thread pool, for blocking operations
+		UI_THREAD //In the UI thread, e.g. for starting activities
+	}
+
+	//Target of the "myo_*" actions which addresses all the connected devices
+	static final String ALL_MYOS = "*";
+
+	final ExecMode mode;
+	final boolean batchable; //Whether it can be part of a "batch" action, which runs it inline
+
+	PluginAction(ExecMode mode) {
+		this(mode, mode == ExecMode.INLINE);
+	}
+
+	PluginAction(ExecMode mode, boolean batchable) {
+		this.mode = mode;
+		this.batchable = batchable;
+	}
+
+	abstract void run(JSONArray args, CallbackContext cbc) throws JSONException;
+
+	/**
+	 * Wraps the command for its execution in another thread. Errors are
+	 * reported through the callback context, as the exceptions can't be
+	 * returned to Cordova from there.
+	 */
+	Runnable bind(final String action, final JSONArray args, final CallbackContext cbc){
+		return new Runnable() {
+			public void run() {
+				try{
+					PluginAction.this.run(args, cbc);
+				}catch(JSONException e){
+					PluginLog.e(TAG, "Wrong arguments for action {}: {}", action, args);
+					cbc.sendPluginResult(new PluginResult(PluginResult.Status.JSON_EXCEPTION));
+				}catch(RuntimeException e){
+					PluginLog.e(TAG, "Error executing action {}", action, e);
+					cbc.error("Error executing " + action + ": " + e.getMessage());
+				}
+			}
+		};
+	}
+
+	/**
+	 * Command on a single Myo, identified by the first argument (either its
+	 * index or its MAC address). The callback gets an error if it's not found.
+	 * If the argument is {@link #ALL_MYOS}, the command runs on every connected
+	 * Myo and the callback gets an array with a {@link ResultCollector#toJson()}
+	 * object per device, with its index.
+	 */
+	abstract static class MyoAction extends PluginAction{
+
+		private final MyoEventController mController;
+
+		MyoAction(ExecMode mode, MyoEventController controller) {
+			super(mode);
+			mController = controller;
+		}
+
+		@Override
+		final void run(JSONArray args, CallbackContext cbc) throws JSONException {
+			Object id = args.get(0);
+			if(ALL_MYOS.equals(id)){
+				JSONArray results = new JSONArray();
+				for(MyoWithJson myoWithJson : mController.getMyoRegistry().getConnected()){
+					ResultCollector collector = new ResultCollector(cbc.getCallbackId());
+					run(myoWithJson.myo, args, collector);
+					results.put(collector.toJson().put("index", myoWithJson.index));
+				}
+				cbc.success(results);
+			}else{
+				Myo myo = mController.getMyoOrErr(id, cbc);
+				if(myo != null){
+					run(myo, args, cbc);
+				}
+			}
+		}
+
+		abstract void run(Myo myo, JSONArray args, CallbackContext cbc) throws JSONException;
+
+	}
+
+	/**
+	 * Callback context which keeps the result of a command run on behalf of
+	 * another action, instead of sending it to JavaScript.
+	 */
+	static class ResultCollector extends CallbackContext{
+
+		private PluginResult mResult = null;
+
+		ResultCollector(String callbackId) {
+			super(callbackId, null);
+		}
+
+		@Override
+		public synchronized void sendPluginResult(PluginResult pluginResult) {
+			if(mResult == null){
+				mResult = pluginResult;
+			}
+		}
+
+		/**
+		 * Result format: {ok: true, result: value} or {ok: false, error: value}.
+		 * The value is missing if the command only sent a status. Binary values
+		 * are Base64 strings, and multipart results are reported as errors.
+		 */
+		synchronized JSONObject toJson() throws JSONException {
+			JSONObject res = new JSONObject();
+			boolean ok = (mResult == null || mResult.getStatus() == PluginResult.Status.OK.ordinal());
+			Object value = null;
+			if(mResult != null){
+				switch(mResult.getMessageType()){
+				case PluginResult.MESSAGE_TYPE_STRING:
+					//Cordova uses the status message when there isn't another one, e.g. for success()
+					String str = mResult.getStrMessage();
+					value = str.equals(PluginResult.StatusMessages[mResult.getStatus()]) ? null : str;
+					break;
+				case PluginResult.MESSAGE_TYPE_JSON:
+				case PluginResult.MESSAGE_TYPE_NUMBER:
+				case PluginResult.MESSAGE_TYPE_BOOLEAN:
+					value = new JSONTokener(mResult.getMessage()).nextValue();
+					break;
+				case PluginResult.MESSAGE_TYPE_ARRAYBUFFER:
+				case PluginResult.MESSAGE_TYPE_BINARYSTRING:
+					value = mResult.getMessage(); //Already Base64 encoded by Cordova
+					break;
+				case PluginResult.MESSAGE_TYPE_MULTIPART:
+					ok = false;
+					value = "Multipart results can't be collected";
+					break;
+				default: //Null
+					break;
+				}
+			}
+			res.put("ok", ok);
+			if(value != null){
+				res.put(ok ? "result" : "error", value);
+			}
+			return res;
+		}
+
+	}
+
+}
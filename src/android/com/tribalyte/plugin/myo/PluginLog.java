@@ -0,0 +1,282 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+/**
+ * Level-gated logging of the plugin.
+ *
+ * Messages are templates whose "{}" placeholders are replaced by the arguments
+ * only if the level is enabled, so a disabled call costs a field read (plus the
+ * boxing of primitive arguments, if any). Setting {@link #ENABLED} to false
+ * removes the logging calls from the build altogether.
+ *
+ * The level is set with the "MyoLogLevel" preference of config.xml or at runtime
+ * with the "setLogLevel" action. Code on the high-frequency paths logs through a
+ * {@link Sampler}, which writes at most one message per interval.
+ *
+ */
+final class PluginLog{
+
+	static final boolean ENABLED = true; //Compile-time switch
+
+	static final int VERBOSE = Log.VERBOSE;
+	static final int DEBUG = Log.DEBUG;
+	static final int INFO = Log.INFO;
+	static final int WARN = Log.WARN;
+	static final int ERROR = Log.ERROR;
+	static final int NONE = Integer.MAX_VALUE;
+
+	static final String PREFERENCE = "MyoLogLevel";
+	private static final String[] LEVEL_NAMES = {"verbose", "debug", "info", "warn", "error", "none"};
+	private static final int[] LEVELS = {VERBOSE, DEBUG, INFO, WARN, ERROR, NONE};
+
+	private static volatile int sLevel = DEBUG;
+
+	private PluginLog(){
+	}
+
+	static boolean isLoggable(int level){
+		return ENABLED && level >= sLevel;
+	}
+
+	static void setLevel(int level){
+		sLevel = level;
+	}
+
+	static int getLevel(){
+		return sLevel;
+	}
+
+	//"verbose", "debug", "info", "warn", "error" or "none", case insensitive. Returns -1 if not valid
+	static int parseLevel(String name){
+		int res = -1;
+		for(int i = 0; name != null && i < LEVEL_NAMES.length; i++){
+			if(LEVEL_NAMES[i].equals(name.toLowerCase(Locale.US))){
+				res = LEVELS[i];
+			}
+		}
+		return res;
+	}
+
+	static void v(String tag, String msg){
+		if(isLoggable(VERBOSE)){
+			write(VERBOSE, tag, msg, null);
+		}
+	}
+
+	static void d(String tag, String msg){
+		if(isLoggable(DEBUG)){
+			write(DEBUG, tag, msg, null);
+		}
+	}
+
+	static void d(String tag, String template, Object arg1){
+		if(isLoggable(DEBUG)){
+			write(DEBUG, tag, format(template, 1, arg1, null, null), null);
+		}
+	}
+
+	static void d(String tag, String template, Object arg1, Object arg2){
+		if(isLoggable(DEBUG)){
+			write(DEBUG, tag, format(template, 2, arg1, arg2, null), null);
+		}
+	}
+
+	static void d(String tag, String template, Object arg1, Object arg2, Object arg3){
+		if(isLoggable(DEBUG)){
+			write(DEBUG, tag, format(template, 3, arg1, arg2, arg3), null);
+		}
+	}
+
+	static void i(String tag, String msg){
+		if(isLoggable(INFO)){
+			write(INFO, tag, msg, null);
+		}
+	}
+
+	static void i(String tag, String template, Object arg1){
+		if(isLoggable(INFO)){
+			write(INFO, tag, format(template, 1, arg1, null, null), null);
+		}
+	}
+
+	static void i(String tag, String template, Object arg1, Object arg2){
+		if(isLoggable(INFO)){
+			write(INFO, tag, format(template, 2, arg1, arg2, null), null);
+		}
+	}
+
+	static void i(String tag, String template, Object arg1, Object arg2, Object arg3){
+		if(isLoggable(INFO)){
+			write(INFO, tag, format(template, 3, arg1, arg2, arg3), null);
+		}
+	}
+
+	static void w(String tag, String msg){
+		if(isLoggable(WARN)){
+			write(WARN, tag, msg, null);
+		}
+	}
+
+	static void w(String tag, String template, Object arg1){
+		if(isLoggable(WARN)){
+			write(WARN, tag, format(template, 1, arg1, null, null), null);
+		}
+	}
+
+	static void w(String tag, String template, Object arg1, Object arg2){
+		if(isLoggable(WARN)){
+			write(WARN, tag, format(template, 2, arg1, arg2, null), null);
+		}
+	}
+
+	static void e(String tag, String msg){
+		if(isLoggable(ERROR)){
+			write(ERROR, tag, msg, null);
+		}
+	}
+
+	static void e(String tag, String msg, Throwable t){
+		if(isLoggable(ERROR)){
+			write(ERROR, tag, msg, t);
+		}
+	}
+
+	static void e(String tag, String template, Object arg1){
+		if(isLoggable(ERROR)){
+			write(ERROR, tag, format(template, 1, arg1, null, null), null);
+		}
+	}
+
+	static void e(String tag, String template, Object arg1, Throwable t){
+		if(isLoggable(ERROR)){
+			write(ERROR, tag, format(template, 1, arg1, null, null), t);
+		}
+	}
+
+	static void e(String tag, String template, Object arg1, Object arg2){
+		if(isLoggable(ERROR)){
+			write(ERROR, tag, format(template, 2, arg1, arg2, null), null);
+		}
+	}
+
+	/**
+	 * Writes at most one message per interval, for the code which may log on every
+	 * sensor event. The number of messages suppressed since the last one written is
+	 * appended to it. Thread safe and lock-free.
+	 */
+	static final class Sampler{
+
+		private final long mIntervalNs;
+		private final AtomicLong mNextNs = new AtomicLong(Long.MIN_VALUE);
+		private final AtomicLong mSuppressed = new AtomicLong();
+
+		Sampler(long intervalMs) {
+			mIntervalNs = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+		}
+
+		void w(String tag, String template, Object arg1){
+			if(isLoggable(WARN) && acquire()){
+				write(WARN, tag, suffix(format(template, 1, arg1, null, null)), null);
+			}
+		}
+
+		void e(String tag, String msg, Throwable t){
+			if(isLoggable(ERROR) && acquire()){
+				write(ERROR, tag, suffix(msg), t);
+			}
+		}
+
+		void e(String tag, String template, Object arg1){
+			if(isLoggable(ERROR) && acquire()){
+				write(ERROR, tag, suffix(format(template, 1, arg1, null, null)), null);
+			}
+		}
+
+		private boolean acquire(){
+			long now = System.nanoTime();
+			long next = mNextNs.get();
+			boolean res = (next == Long.MIN_VALUE || now - next >= 0) && mNextNs.compareAndSet(next, now + mIntervalNs);
+			if(!res){
+				mSuppressed.incrementAndGet();
+			}
+			return res;
+		}
+
+		private String suffix(String msg){
+			long suppressed = mSuppressed.getAndSet(0);
+			return (suppressed > 0) ? msg + " (" + suppressed + " similar messages suppressed)" : msg;
+		}
+	}
+
+	private static String format(String template, int argCount, Object arg1, Object arg2, Object arg3){
+		StringBuilder sb = new StringBuilder(template.length() + 32);
+		int start = 0;
+		for(int i = 0; i < argCount; i++){
+			int pos = template.indexOf("{}", start);
+			if(pos < 0){
+				break;
+			}
+			sb.append(template, start, pos).append((i == 0) ? arg1 : (i == 1) ? arg2 : arg3);
+			start = pos + 2;
+		}
+		return sb.append(template, start, template.length()).toString();
+	}
+
+	private static void write(int level, String tag, String msg, Throwable t){
+		switch(level){
+		case VERBOSE:
+			Log.v(tag, msg);
+			break;
+		case DEBUG:
+			Log.d(tag, msg);
+			break;
+		case INFO:
+			Log.i(tag, msg);
+			break;
+		case WARN:
+			if(t != null){
+				Log.w(tag, msg, t);
+			}else{
+				Log.w(tag, msg);
+			}
+			break;
+		default:
+			if(t != null){
+				Log.e(tag, msg, t);
+			}else{
+				Log.e(tag, msg);
+			}
+			break;
+		}
+	}
+
+}
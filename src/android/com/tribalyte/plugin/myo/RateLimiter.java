@@ -0,0 +1,119 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import com.tribalyte.plugin.myo.MyoEventController.MyoWithJson;
+
+/**
+ * Reduces the rate of the sensor samples delivered to a handler, per Myo
+ * device, before they are encoded. Samples are grouped in windows of
+ * 1 / rate seconds (according to their timestamp) and, depending on the
+ * policy, one sample per window is delivered:
+ * <ul>
+ * <li>DROP: the first sample of the window. The rest are discarded.</li>
+ * <li>LATEST: the last sample of the window. It's delivered when the first
+ * sample of the next window arrives.</li>
+ * <li>AVERAGE: the mean of the samples of the window (normalized for
+ * quaternions). It's delivered when the first sample of the next window
+ * arrives.</li>
+ * </ul>
+ * Samples are only copied into preallocated holders, so suppressing them has
+ * no cost apart from a timestamp comparison.
+ *
+ */
+class RateLimiter{
+
+	enum Policy{
+		DROP, LATEST, AVERAGE
+	}
+
+	final double rate;
+	final Policy policy;
+	private final long mIntervalMs;
+	private final SlotStates<State> mStates = new SlotStates<State>() {
+		State newState(MyoWithJson myoWithJson, SensorSample sample) {
+			return new State(sample);
+		}
+	};
+
+	private static class State{
+		final SensorSample pending;
+		final SensorSample out;
+		long windowEnd = Long.MIN_VALUE;
+		int count = 0; //Samples in the current window (held in pending)
+		State(SensorSample sample) {
+			this.pending = new SensorSample(sample.type, sample.key);
+			this.out = new SensorSample(sample.type, sample.key);
+		}
+	}
+
+	RateLimiter(double rate, Policy policy) {
+		this.rate = rate;
+		this.policy = policy;
+		mIntervalMs = Math.max(1, Math.round(1000.0 / rate));
+	}
+
+	/**
+	 * Returns the sample to be delivered, which can be the given one or a
+	 * sample held by this object, or null if nothing has to be delivered.
+	 * The returned sample is only valid until the next call.
+	 */
+	SensorSample offer(MyoWithJson myoWithJson, SensorSample sample){
+		State state = mStates.get(myoWithJson, sample);
+		SensorSample res = null;
+		boolean newWindow = (sample.timestamp >= state.windowEnd);
+		if(policy == Policy.DROP){
+			if(newWindow){
+				state.windowEnd = sample.timestamp + mIntervalMs;
+				res = sample;
+			}
+		}else{
+			if(newWindow){
+				if(state.count > 0){
+					res = state.out.copy(state.pending);
+					if(policy == Policy.AVERAGE){
+						res.divide(state.count);
+					}
+				}
+				state.windowEnd = sample.timestamp + mIntervalMs;
+				state.pending.copy(sample);
+				state.count = 1;
+			}else if(policy == Policy.LATEST){
+				state.pending.copy(sample);
+				state.count = 1;
+			}else{
+				state.pending.accumulate(sample);
+				state.count++;
+			}
+		}
+		return res;
+	}
+
+	@Override
+	public String toString() {
+		return "RateLimiter [rate=" + rate + ", policy=" + policy + "]";
+	}
+
+}
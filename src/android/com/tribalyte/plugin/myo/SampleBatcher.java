@@ -0,0 +1,280 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cordova.CallbackContext;
+import org.apache.cordova.PluginResult;
+import org.json.JSONObject;
+
+import com.tribalyte.plugin.myo.MyoEventController.MyoWithJson;
+
+/**
+ * Accumulates the samples of one event type per Myo device and delivers them
+ * to the event handler as a single result, either when the configured number
+ * of samples is reached or when the flush interval expires.
+ *
+ * The delivered result has the form
+ * <code>{eventName: ..., myo: [...], samples: [{timestamp: ..., ...}, ...]}</code>,
+ * or the concatenation of the records if the subscription uses the binary format
+ * (see {@link BinaryEncoder}).
+ *
+ */
+class SampleBatcher{
+
+	private static final String TAG = SampleBatcher.class.getSimpleName();
+	private static final PluginLog.Sampler SEND_ERROR_LOG = new PluginLog.Sampler(1000);
+
+	static final int DEFAULT_SIZE = 10;
+	static final long DEFAULT_INTERVAL_MS = 200;
+
+	private final EventType mType;
+	private final String mEvType;
+	private final CallbackContext mCbc;
+	private final CreditGate mCredits; //Null if the handler has no flow control
+	private final boolean mBinary;
+	private final int mSize;
+	private final long mIntervalMs;
+	private Batch[] mBatches = new Batch[0]; //Indexed by Myo slot index
+	private final StringBuilder mDrainBuf = new StringBuilder(1024); //Guarded by this
+	private ScheduledFuture<?> mFlushTask = null;
+
+	//Samples are kept already encoded, either as JSON text or as binary records
+	private static class Batch{
+		final MyoWithJson myoWithJson;
+		StringBuilder samples = null;
+		ByteBuffer records = null;
+		int count = 0;
+		Batch(MyoWithJson myoWithJson, boolean binary, int size) {
+			this.myoWithJson = myoWithJson;
+			if(binary){
+				records = BinaryEncoder.allocate(BinaryEncoder.MAX_RECORD_SIZE * Math.max(size, DEFAULT_SIZE));
+			}else{
+				samples = new StringBuilder(256 * Math.max(size, DEFAULT_SIZE));
+			}
+		}
+	}
+
+	/**
+	 * @param size Number of samples per Myo which triggers a flush. 0 means no limit
+	 * @param intervalMs Maximum time a sample is retained. 0 means no periodic flush
+	 * @param credits Flow control of the handler, which is applied to each batch. Can be null
+	 */
+	SampleBatcher(EventType type, CallbackContext cbc, boolean binary, CreditGate credits, int size, long intervalMs){
+		mType = type;
+		mEvType = type.jsName;
+		mCbc = cbc;
+		mCredits = credits;
+		mBinary = binary;
+		mSize = size;
+		mIntervalMs = intervalMs;
+	}
+
+	//Configuration format: {size: number, interval: number}
+	static SampleBatcher fromJson(EventType type, CallbackContext cbc, boolean binary, CreditGate credits, JSONObject cfg){
+		int size = Math.max(0, cfg.optInt("size", DEFAULT_SIZE));
+		long intervalMs = Math.max(0, cfg.optLong("interval", DEFAULT_INTERVAL_MS));
+		if(size == 0 && intervalMs == 0){
+			size = DEFAULT_SIZE;
+			intervalMs = DEFAULT_INTERVAL_MS;
+		}
+		return new SampleBatcher(type, cbc, binary, credits, size, intervalMs);
+	}
+
+	synchronized void start(ScheduledExecutorService scheduler){
+		if(mIntervalMs > 0 && mFlushTask == null){
+			mFlushTask = scheduler.scheduleAtFixedRate(new Runnable() {
+				public void run() {
+					flushAll();
+				}
+			}, mIntervalMs, mIntervalMs, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	//Stops the periodic flush. Pending samples are delivered if requested
+	void stop(boolean flush){
+		synchronized(this){
+			if(mFlushTask != null){
+				mFlushTask.cancel(false);
+				mFlushTask = null;
+			}
+		}
+		if(flush){
+			flushAll();
+		}else{
+			synchronized(this){
+				Arrays.fill(mBatches, null);
+			}
+		}
+	}
+
+	//The sample is already encoded by JsonEventWriter.appendSample. Only for JSON subscriptions
+	void add(MyoWithJson myoWithJson, CharSequence sampleJson){
+		Object payload = null;
+		synchronized(this){
+			Batch batch = getBatch(myoWithJson);
+			int capacity = batch.samples.capacity();
+			if(batch.count > 0){
+				batch.samples.append(',');
+			}
+			batch.samples.append(sampleJson);
+			if(batch.samples.capacity() != capacity){
+				AllocationStats.bufferAllocated();
+			}
+			payload = onSampleAdded(batch);
+		}
+		if(payload != null){
+			send(myoWithJson.index, payload);
+		}
+	}
+
+	//The record is read from its position to its limit. Only for binary subscriptions
+	void addRecord(MyoWithJson myoWithJson, ByteBuffer record){
+		Object payload = null;
+		synchronized(this){
+			Batch batch = getBatch(myoWithJson);
+			if(batch.records.remaining() < record.remaining()){
+				ByteBuffer bigger = BinaryEncoder.allocate(2 * batch.records.capacity() + record.remaining());
+				AllocationStats.bufferAllocated();
+				batch.records.flip();
+				bigger.put(batch.records);
+				batch.records = bigger;
+			}
+			batch.records.put(record);
+			payload = onSampleAdded(batch);
+		}
+		if(payload != null){
+			send(myoWithJson.index, payload);
+		}
+	}
+
+	//Delivers and forgets the pending samples of a Myo, e.g. when it's detached
+	void flush(int myoIndex){
+		Object payload = null;
+		synchronized(this){
+			Batch batch = (myoIndex < mBatches.length) ? mBatches[myoIndex] : null;
+			if(batch != null){
+				mBatches[myoIndex] = null;
+				if(batch.count > 0){
+					payload = drain(batch);
+				}
+			}
+		}
+		if(payload != null){
+			send(myoIndex, payload);
+		}
+	}
+
+	void flushAll(){
+		List<Object> payloads = new ArrayList<Object>();
+		List<Integer> keys = new ArrayList<Integer>();
+		synchronized(this){
+			for(Batch batch : mBatches){
+				if(batch != null && batch.count > 0){
+					payloads.add(drain(batch));
+					keys.add(Integer.valueOf(batch.myoWithJson.index));
+				}
+			}
+		}
+		for(int i = 0; i < payloads.size(); i++){
+			send(keys.get(i).intValue(), payloads.get(i));
+		}
+	}
+
+	//Must be called holding the lock
+	private Batch getBatch(MyoWithJson myoWithJson){
+		int index = myoWithJson.index;
+		if(index >= mBatches.length){
+			mBatches = Arrays.copyOf(mBatches, index + 1);
+		}
+		Batch batch = mBatches[index];
+		if(batch == null || batch.myoWithJson != myoWithJson){
+			if(batch != null && batch.count > 0){
+				PluginLog.w(TAG, "Discarding samples of a detached Myo: {}", batch.myoWithJson);
+			}
+			batch = new Batch(myoWithJson, mBinary, mSize);
+			mBatches[index] = batch;
+			AllocationStats.bufferAllocated();
+		}
+		return batch;
+	}
+
+	//Must be called holding the lock. Returns the payload to be sent, if the batch is full
+	private Object onSampleAdded(Batch batch){
+		batch.count++;
+		return (mSize > 0 && batch.count >= mSize) ? drain(batch) : null;
+	}
+
+	//Must be called holding the lock. Returns either a JSONObject or a byte array
+	private Object drain(Batch batch){
+		Object res = null;
+		if(mBinary){
+			res = Arrays.copyOf(batch.records.array(), batch.records.position());
+			batch.records.clear();
+		}else{
+			int capacity = mDrainBuf.capacity();
+			mDrainBuf.setLength(0);
+			JsonEventWriter.appendBatch(mDrainBuf, mEvType, batch.myoWithJson.myoJsonText, batch.samples);
+			if(mDrainBuf.capacity() != capacity){
+				AllocationStats.bufferAllocated();
+			}
+			res = new JsonEventWriter.EncodedJson(mDrainBuf.toString());
+			batch.samples.setLength(0);
+		}
+		batch.count = 0;
+		return res;
+	}
+
+	//The key is the Myo slot index, for the flow control
+	private void send(int key, Object payload){
+		AllocationStats.payloadAllocated();
+		try{
+			long startNs = PipelineMetrics.start();
+			PluginResult pResult = (payload instanceof byte[])
+					? new PluginResult(PluginResult.Status.OK, (byte[])payload)
+					: new PluginResult(PluginResult.Status.OK, (JSONObject)payload);
+			pResult.setKeepCallback(true);
+			PipelineMetrics.record(PipelineMetrics.Stage.ENCODE, startNs);
+			if(mCredits != null){
+				mCredits.send(key, pResult); //Only the latest batch of the Myo is kept without credits
+				return;
+			}
+			startNs = PipelineMetrics.start();
+			mCbc.sendPluginResult(pResult);
+			PipelineMetrics.record(PipelineMetrics.Stage.SEND, startNs);
+			PipelineMetrics.delivered(mType);
+		}catch(Exception e){
+			SEND_ERROR_LOG.e(TAG, "Exception while sending batch: ", e);
+		}
+	}
+
+}
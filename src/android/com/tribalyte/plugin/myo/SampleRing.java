@@ -0,0 +1,160 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.tribalyte.plugin.myo.MyoEventController.MyoWithJson;
+
+/**
+ * Bounded single-producer / single-consumer ring buffer of sensor samples,
+ * with preallocated entries so that neither side allocates objects.
+ *
+ * The producer claims an entry, fills it and publishes it. When the ring is
+ * full, the producer either discards the new sample or the oldest pending
+ * one. In the latter case the producer advances the read position, so the
+ * consumer validates every read with a CAS and retries if the entry was
+ * discarded (and possibly overwritten) while it was being copied.
+ *
+ */
+final class SampleRing{
+
+	static final class Entry{
+		MyoWithJson myoWithJson;
+		EventType type;
+		long timestamp;
+		int count;
+		double x;
+		double y;
+		double z;
+		double w;
+		long postedNs; //PipelineMetrics start time, 0 if not collected
+
+		void copyTo(Entry dst){
+			dst.myoWithJson = myoWithJson;
+			dst.type = type;
+			dst.timestamp = timestamp;
+			dst.count = count;
+			dst.x = x;
+			dst.y = y;
+			dst.z = z;
+			dst.w = w;
+			dst.postedNs = postedNs;
+		}
+	}
+
+	private final Entry[] mEntries;
+	private final int mMask;
+	private final AtomicLong mHead = new AtomicLong(); //Next position to write. Only advanced by the producer
+	private final AtomicLong mTail = new AtomicLong(); //Next position to read
+	//Written only by the producer
+	private volatile long mOverflows = 0;
+	private volatile int mMaxDepth = 0;
+
+	//The capacity is rounded up to a power of two
+	SampleRing(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		mEntries = new Entry[size];
+		for(int i = 0; i < size; i++){
+			mEntries[i] = new Entry();
+		}
+		mMask = size - 1;
+	}
+
+	/**
+	 * Producer only. Returns the entry to be filled and then published, or null if the ring
+	 * is full and the oldest sample must not be discarded.
+	 */
+	Entry claim(boolean dropOldest){
+		long head = mHead.get();
+		long oldest = head - mEntries.length;
+		if(mTail.get() <= oldest){
+			if(!dropOldest){
+				mOverflows++;
+				return null;
+			}
+			if(mTail.compareAndSet(oldest, oldest + 1)){ //Fails if the consumer has just read it
+				mOverflows++;
+			}
+		}
+		return mEntries[(int)(head & mMask)];
+	}
+
+	//Producer only. Makes the last claimed entry visible to the consumer
+	void publish(){
+		long head = mHead.get() + 1;
+		mHead.lazySet(head);
+		int depth = (int)(head - mTail.get());
+		if(depth > mMaxDepth){
+			mMaxDepth = depth;
+		}
+	}
+
+	//Consumer only. Copies the oldest pending entry into dst. Returns false if the ring is empty
+	boolean poll(Entry dst){
+		while(true){
+			long tail = mTail.get();
+			if(tail >= mHead.get()){
+				return false;
+			}
+			mEntries[(int)(tail & mMask)].copyTo(dst);
+			if(mTail.compareAndSet(tail, tail + 1)){
+				return true;
+			}
+			//Discarded by the producer while being copied, try the next one
+		}
+	}
+
+	//Number of entries published so far
+	long published(){
+		return mHead.get();
+	}
+
+	//Number of entries consumed or discarded so far
+	long consumed(){
+		return mTail.get();
+	}
+
+	boolean isEmpty(){
+		return mTail.get() >= mHead.get();
+	}
+
+	int capacity(){
+		return mEntries.length;
+	}
+
+	int depth(){
+		return (int)Math.max(0, mHead.get() - mTail.get());
+	}
+
+	int maxDepth(){
+		return mMaxDepth;
+	}
+
+	long overflows(){
+		return mOverflows;
+	}
+
+}
@@ -0,0 +1,206 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import com.thalmic.myo.Quaternion;
+import com.thalmic.myo.Vector3;
+
+/**
+ * Mutable holder of a sensor sample (accelerometer, gyroscope, orientation or
+ * RSSI) using primitive fields. Instances are preallocated per event type and
+ * reused for every sample, so that the event path doesn't allocate objects.
+ *
+ */
+final class SensorSample{
+
+	final EventType type;
+	final String evType;
+	final String key; //Name of the property which holds the value in JSON events
+	final int binaryType;
+	long timestamp;
+	int count; //Number of valid components: 3 for vectors, 4 for quaternions and 1 for scalars
+	double x;
+	double y;
+	double z;
+	double w;
+	//Orientation of the device when the sample was taken. Only set for accelerometer samples
+	boolean hasOrientation;
+	double qx;
+	double qy;
+	double qz;
+	double qw;
+
+	SensorSample(EventType type, String key) {
+		this.type = type;
+		this.evType = type.jsName;
+		this.key = key;
+		this.binaryType = BinaryEncoder.typeOf(type);
+	}
+
+	SensorSample set(long timestamp, Vector3 v3){
+		this.timestamp = timestamp;
+		this.count = 3;
+		this.x = v3.x();
+		this.y = v3.y();
+		this.z = v3.z();
+		this.w = 0;
+		return this;
+	}
+
+	SensorSample set(long timestamp, Quaternion q){
+		this.timestamp = timestamp;
+		this.count = 4;
+		this.x = q.x();
+		this.y = q.y();
+		this.z = q.z();
+		this.w = q.w();
+		return this;
+	}
+
+	SensorSample set(long timestamp, int count, double x, double y, double z, double w){
+		this.timestamp = timestamp;
+		this.count = count;
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.w = w;
+		return this;
+	}
+
+	SensorSample set(long timestamp, double value){
+		this.timestamp = timestamp;
+		this.count = 1;
+		this.x = value;
+		this.y = 0;
+		this.z = 0;
+		this.w = 0;
+		return this;
+	}
+
+	SensorSample setOrientation(boolean hasOrientation, double qx, double qy, double qz, double qw){
+		this.hasOrientation = hasOrientation;
+		this.qx = qx;
+		this.qy = qy;
+		this.qz = qz;
+		this.qw = qw;
+		return this;
+	}
+
+	SensorSample copy(SensorSample other){
+		this.timestamp = other.timestamp;
+		this.count = other.count;
+		this.x = other.x;
+		this.y = other.y;
+		this.z = other.z;
+		this.w = other.w;
+		return setOrientation(other.hasOrientation, other.qx, other.qy, other.qz, other.qw);
+	}
+
+	//Adds the components of another sample, keeping its timestamp and orientation. Quaternions are added in the same hemisphere
+	SensorSample accumulate(SensorSample other){
+		double sign = 1.0;
+		if(count == 4 && (x * other.x + y * other.y + z * other.z + w * other.w) < 0){
+			sign = -1.0;
+		}
+		this.timestamp = other.timestamp;
+		setOrientation(other.hasOrientation, other.qx, other.qy, other.qz, other.qw);
+		this.x += sign * other.x;
+		this.y += sign * other.y;
+		this.z += sign * other.z;
+		this.w += sign * other.w;
+		return this;
+	}
+
+	//Turns accumulated components into their mean. Quaternions are normalized instead
+	SensorSample divide(int n){
+		if(count == 4){
+			double norm = Math.sqrt(x * x + y * y + z * z + w * w);
+			if(norm > 0){
+				x /= norm;
+				y /= norm;
+				z /= norm;
+				w /= norm;
+			}
+		}else if(n > 0){
+			x /= n;
+			y /= n;
+			z /= n;
+			w /= n;
+		}
+		return this;
+	}
+
+	//Same results as Quaternion.roll / pitch / yaw, without requiring a Quaternion instance
+	double roll(){
+		return Math.atan2(2.0 * (w * x + y * z), 1.0 - 2.0 * (x * x + y * y));
+	}
+
+	double pitch(){
+		return Math.asin(Math.max(-1.0, Math.min(1.0, 2.0 * (w * y - z * x))));
+	}
+
+	double yaw(){
+		return Math.atan2(2.0 * (w * z + x * y), 1.0 - 2.0 * (y * y + z * z));
+	}
+
+	//Element of the rotation matrix of a quaternion sample, row-major
+	double matrix(int row, int col){
+		double res = 0;
+		switch(row * 3 + col){
+		case 0: res = 1.0 - 2.0 * (y * y + z * z); break;
+		case 1: res = 2.0 * (x * y - w * z); break;
+		case 2: res = 2.0 * (x * z + w * y); break;
+		case 3: res = 2.0 * (x * y + w * z); break;
+		case 4: res = 1.0 - 2.0 * (x * x + z * z); break;
+		case 5: res = 2.0 * (y * z - w * x); break;
+		case 6: res = 2.0 * (x * z - w * y); break;
+		case 7: res = 2.0 * (y * z + w * x); break;
+		case 8: res = 1.0 - 2.0 * (x * x + y * y); break;
+		default: break;
+		}
+		return res;
+	}
+
+	//Components of an accelerometer sample without gravity (1 g upwards in world coordinates, rotated into
+	//the device frame using the orientation). Only meaningful if hasOrientation
+	double linearX(){
+		return x - 2.0 * (qx * qz - qw * qy);
+	}
+
+	double linearY(){
+		return y - 2.0 * (qy * qz + qw * qx);
+	}
+
+	double linearZ(){
+		return z - (1.0 - 2.0 * (qx * qx + qy * qy));
+	}
+
+	@Override
+	public String toString() {
+		return "SensorSample [evType=" + evType + ", timestamp=" + timestamp + ", x=" + x + ", y=" + y
+				+ ", z=" + z + ", w=" + w + "]";
+	}
+
+}
@@ -0,0 +1,278 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.thalmic.myo.AbstractDeviceListener;
+import com.thalmic.myo.Myo;
+import com.thalmic.myo.Pose;
+import com.thalmic.myo.Quaternion;
+import com.thalmic.myo.Vector3;
+import com.tribalyte.plugin.myo.MyoEventController.MyoWithJson;
+
+/**
+ * Records the sensor samples and poses of the attached Myo devices to a file, without
+ * crossing the JavaScript bridge. It's registered as an additional listener
+ * of the Hub and appends fixed width records to the file through a memory
+ * mapped buffer, which is remapped in chunks as the file grows.
+ *
+ * File layout (little endian):
+ * <pre>
+ * offset  size  content
+ * 0       8     magic "MYOREC01"
+ * 8       4     header size (32)
+ * 12      4     record size (28)
+ * 16      8     wall clock time when the recording started (ms since epoch)
+ * 24      8     Hub time when the recording started (ms, same clock as the timestamps)
+ * 32      ...   records, with the layout of {@link BinaryEncoder}, padded with zeros to the record size
+ * </pre>
+ *
+ */
+class SessionRecorder extends AbstractDeviceListener{
+
+	private static final String TAG = SessionRecorder.class.getSimpleName();
+
+	static final int HEADER_SIZE = 32;
+	static final int RECORD_SIZE = BinaryEncoder.MAX_RECORD_SIZE;
+	private static final byte[] MAGIC = {'M', 'Y', 'O', 'R', 'E', 'C', '0', '1'};
+	private static final long CHUNK_SIZE = 1024 * 1024;
+
+	private final MyoRegistry mMyoRegistry;
+	private final File mFile;
+	private final int mEvents; //Mask of the recorded event types (1 << ordinal)
+	private final RandomAccessFile mRaf;
+	private final FileChannel mChannel;
+	private MappedByteBuffer mBuffer;
+	private long mBufferOffset; //Position of the mapped chunk in the file
+	private boolean mClosed = false;
+	private String mError = null;
+
+	//Statistics, guarded by this
+	private long mRecords = 0;
+	private final long[] mCounts = new long[EventType.COUNT];
+	private long mFirstTimestamp = -1;
+	private long mLastTimestamp = -1;
+	private final MyoWithJson[] mDevices = new MyoWithJson[256]; //Recorded devices, indexed by slot
+
+	private final SensorSample mAccelSample = new SensorSample(EventType.ACCELEROMETER, "accel");
+	private final SensorSample mGyroSample = new SensorSample(EventType.GYROSCOPE, "gyro");
+	private final SensorSample mOrientationSample = new SensorSample(EventType.ORIENTATION, "rotation");
+	private final SensorSample mRssiSample = new SensorSample(EventType.RSSI, "rssi");
+	private final SensorSample mPoseSample = new SensorSample(EventType.POSE, "pose");
+
+	private SessionRecorder(MyoRegistry myoRegistry, File file, int events) throws IOException {
+		mMyoRegistry = myoRegistry;
+		mFile = file;
+		mEvents = events;
+		mRaf = new RandomAccessFile(file, "rw");
+		mChannel = mRaf.getChannel();
+	}
+
+	/**
+	 * Creates the file and writes its header. Options format: {path: string,
+	 * events: ["accelerometerData" | "gyroscopeData" | "orientationData" | "rssi" | "pose", ...]}.
+	 * Options can be null. By default, all of them are recorded
+	 * @param defaultDir Directory of the file if no path is given
+	 * @param hubTime Current time of the Hub
+	 * @throws IllegalArgumentException if the options are not valid
+	 */
+	static SessionRecorder start(MyoRegistry myoRegistry, File defaultDir, long hubTime, JSONObject options)
+			throws IOException {
+		String path = (options != null) ? options.optString("path", null) : null;
+		File file = (path != null) ? new File(path) : new File(defaultDir, "session-" + System.currentTimeMillis() + ".myorec");
+		int events = 0;
+		JSONArray names = (options != null) ? options.optJSONArray("events") : null;
+		if(names != null){
+			for(int i = 0; i < names.length(); i++){
+				EventType type = EventType.fromName(names.optString(i));
+				if(type == null || !isRecordable(type)){
+					throw new IllegalArgumentException("Event type can't be recorded: " + names.optString(i));
+				}
+				events |= 1 << type.ordinal();
+			}
+		}else{
+			for(EventType type : EventType.values()){
+				events |= isRecordable(type) ? (1 << type.ordinal()) : 0;
+			}
+		}
+		File dir = file.getAbsoluteFile().getParentFile();
+		if(dir != null && !dir.isDirectory() && !dir.mkdirs()){
+			throw new IOException("Could not create directory " + dir);
+		}
+		SessionRecorder res = new SessionRecorder(myoRegistry, file, events);
+		try{
+			res.mChannel.truncate(0);
+			res.map(0);
+			res.mBuffer.put(MAGIC);
+			res.mBuffer.putInt(HEADER_SIZE);
+			res.mBuffer.putInt(RECORD_SIZE);
+			res.mBuffer.putLong(System.currentTimeMillis());
+			res.mBuffer.putLong(hubTime);
+		}catch(IOException e){
+			res.stop();
+			throw e;
+		}
+		PluginLog.d(TAG, "Recording to {}", file);
+		return res;
+	}
+
+	static boolean isRecordable(EventType type){
+		return type.isSensor() || type == EventType.POSE;
+	}
+
+	@Override
+	public void onPose(Myo myo, long timestamp, Pose pose) {
+		record(myo, mPoseSample, timestamp, 1, pose.ordinal(), 0, 0, 0);
+	}
+
+	@Override
+	public void onAccelerometerData(Myo myo, long timestamp, Vector3 accel) {
+		record(myo, mAccelSample, timestamp, 3, accel.x(), accel.y(), accel.z(), 0);
+	}
+
+	@Override
+	public void onGyroscopeData(Myo myo, long timestamp, Vector3 gyro) {
+		record(myo, mGyroSample, timestamp, 3, gyro.x(), gyro.y(), gyro.z(), 0);
+	}
+
+	@Override
+	public void onOrientationData(Myo myo, long timestamp, Quaternion rotation) {
+		record(myo, mOrientationSample, timestamp, 4, rotation.x(), rotation.y(), rotation.z(), rotation.w());
+	}
+
+	@Override
+	public void onRssi(Myo myo, long timestamp, int rssi) {
+		record(myo, mRssiSample, timestamp, 1, rssi, 0, 0, 0);
+	}
+
+	//Stops recording and closes the file, truncated to the recorded data. Returns the summary
+	synchronized JSONObject stop(){
+		if(!mClosed){
+			mClosed = true;
+			long size = (mBuffer != null) ? mBufferOffset + mBuffer.position() : 0;
+			try{
+				if(mBuffer != null){
+					mBuffer.force();
+				}
+				mChannel.truncate(size);
+			}catch(IOException e){
+				PluginLog.e(TAG, "Error closing recording {}", mFile, e);
+				mError = e.toString();
+			}
+			mBuffer = null; //The mapping is released when garbage collected
+			try{
+				mRaf.close();
+			}catch(IOException e){
+				PluginLog.e(TAG, "Error closing recording {}", mFile, e);
+			}
+			PluginLog.d(TAG, "Recording stopped: {}, records: {}", mFile, mRecords);
+		}
+		return getSummary();
+	}
+
+	//Summary format: {path, recording, records, bytes, durationMs, events: {<eventName>: count}, devices: [myo...], error}
+	synchronized JSONObject getSummary(){
+		JSONObject res = new JSONObject();
+		try{
+			res.put("path", mFile.getAbsolutePath());
+			res.put("recording", !mClosed);
+			res.put("records", mRecords);
+			res.put("bytes", HEADER_SIZE + mRecords * RECORD_SIZE);
+			res.put("durationMs", (mFirstTimestamp >= 0) ? mLastTimestamp - mFirstTimestamp : 0);
+			JSONObject counts = new JSONObject();
+			for(EventType type : EventType.values()){
+				if((mEvents & (1 << type.ordinal())) != 0){
+					counts.put(type.jsName, mCounts[type.ordinal()]);
+				}
+			}
+			res.put("events", counts);
+			JSONArray devices = new JSONArray();
+			for(MyoWithJson myoWithJson : mDevices){
+				if(myoWithJson != null){
+					devices.put(myoWithJson.myoJson);
+				}
+			}
+			res.put("devices", devices);
+			if(mError != null){
+				res.put("error", mError);
+			}
+		}catch(JSONException e){
+			//Not expected, as all the values are valid
+		}
+		return res;
+	}
+
+	private synchronized void record(Myo myo, SensorSample sample, long timestamp, int count,
+			double x, double y, double z, double w){
+		if(mClosed || (mEvents & (1 << sample.type.ordinal())) == 0){
+			return;
+		}
+		MyoWithJson myoWithJson = mMyoRegistry.get(myo);
+		if(myoWithJson == null || myoWithJson.index >= mDevices.length){
+			return;
+		}
+		try{
+			if(mBuffer.remaining() < RECORD_SIZE){
+				map(mBufferOffset + mBuffer.position());
+			}
+			int start = mBuffer.position();
+			BinaryEncoder.put(mBuffer, myoWithJson.index, sample.set(timestamp, count, x, y, z, w));
+			mBuffer.position(start + RECORD_SIZE); //Padding, the mapped region is zero-filled
+		}catch(IOException e){
+			PluginLog.e(TAG, "Error writing recording {}, stopping", mFile, e);
+			mError = e.toString();
+			stop();
+			return;
+		}
+		mRecords++;
+		mCounts[sample.type.ordinal()]++;
+		if(mFirstTimestamp < 0){
+			mFirstTimestamp = timestamp;
+		}
+		mLastTimestamp = timestamp;
+		mDevices[myoWithJson.index] = myoWithJson;
+	}
+
+	//Maps the chunk of the file which starts at the given position, extending the file
+	private void map(long offset) throws IOException {
+		if(mBuffer != null){
+			mBuffer.force();
+		}
+		mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, offset, CHUNK_SIZE);
+		mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+		mBufferOffset = offset;
+	}
+
+}
@@ -0,0 +1,326 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.thalmic.myo.DeviceListener;
+import com.thalmic.myo.FirmwareVersion;
+import com.thalmic.myo.Hub;
+import com.thalmic.myo.Myo;
+import com.thalmic.myo.Pose;
+import com.thalmic.myo.Quaternion;
+import com.thalmic.myo.Vector3;
+import com.thalmic.myo.internal.ble.Address;
+
+/**
+ * Replays a file written by {@link SessionRecorder} through the callbacks of
+ * a DeviceListener, from a dedicated thread, at real time, accelerated or as
+ * fast as possible.
+ *
+ * Each recorded device is replaced by a synthetic Myo instance (MAC address
+ * 02:00:00:00:00:&lt;index&gt;), which is attached and connected before its first
+ * event and disconnected and detached at the end. The replayed timestamps are
+ * the recorded ones shifted by a constant offset, so that the output of the
+ * timestamp based stages (rate limiting, motion frames...) doesn't depend on
+ * the replay speed.
+ *
+ * Events must not be delivered to the same listener from other threads (e.g.
+ * the Hub) while replaying.
+ *
+ */
+class SessionReplayer{
+
+	private static final String TAG = SessionReplayer.class.getSimpleName();
+
+	private static final long SPIN_THRESHOLD_NS = TimeUnit.MICROSECONDS.toNanos(500); //Park until then, spin afterwards
+	private static final int MAX_DEVICES = 256;
+
+	private final File mFile;
+	private final DeviceListener mListener;
+	private final Hub mHub;
+	private final double mSpeed; //0 means as fast as possible
+	private final boolean mLoop;
+	private final MappedByteBuffer mBuffer;
+	private final int mRecords;
+	private final long mFirstTimestamp;
+	private final long mLastTimestamp;
+	private final Myo[] mDevices = new Myo[MAX_DEVICES]; //Indexed by recorded slot. Only used from the replay thread
+	private volatile Thread mThread = null;
+	private volatile boolean mStopped = false;
+	private volatile String mError = null; //Why the replay was aborted, null if it wasn't
+
+	//Statistics, written only from the replay thread
+	private volatile long mReplayed = 0;
+	private volatile long mMaxLagNs = 0;
+
+	private SessionReplayer(File file, DeviceListener listener, Hub hub, double speed, boolean loop,
+			MappedByteBuffer buffer) {
+		mFile = file;
+		mListener = listener;
+		mHub = hub;
+		mSpeed = speed;
+		mLoop = loop;
+		mBuffer = buffer;
+		mRecords = (buffer.limit() - SessionRecorder.HEADER_SIZE) / SessionRecorder.RECORD_SIZE;
+		mFirstTimestamp = (mRecords > 0) ? (long)buffer.getDouble(recordOffset(0) + 4) : 0;
+		mLastTimestamp = (mRecords > 0) ? (long)buffer.getDouble(recordOffset(mRecords - 1) + 4) : 0;
+	}
+
+	/**
+	 * Options format: {path: string, speed: number (1 is real time, 0 as fast as possible), loop: boolean}
+	 * @throws IllegalArgumentException if the options are not valid
+	 * @throws IOException if the file can't be read or is not a recording, or if
+	 * the replayed devices can't be created with this version of the Myo SDK
+	 */
+	static SessionReplayer open(DeviceListener listener, Hub hub, JSONObject options) throws IOException {
+		String path = options.optString("path", null);
+		if(path == null){
+			throw new IllegalArgumentException("Missing path of the recording");
+		}
+		double speed = options.optDouble("speed", 1.0);
+		if(!(speed >= 0) || Double.isInfinite(speed)){
+			throw new IllegalArgumentException("Invalid replay speed: " + speed);
+		}
+		File file = new File(path);
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		MappedByteBuffer buffer = null;
+		try{
+			FileChannel channel = raf.getChannel();
+			if(channel.size() < SessionRecorder.HEADER_SIZE || channel.size() > Integer.MAX_VALUE){
+				throw new IOException("Not a recording: " + path);
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+		}finally{
+			raf.close(); //The mapping remains valid
+		}
+		byte[] magic = new byte[8];
+		buffer.get(magic);
+		if(!"MYOREC01".equals(new String(magic, "US-ASCII")) || buffer.getInt(8) != SessionRecorder.HEADER_SIZE
+				|| buffer.getInt(12) != SessionRecorder.RECORD_SIZE){
+			throw new IOException("Not a recording: " + path);
+		}
+		try{
+			newMyo(hub, 0); //Fails now instead of on the replay thread
+		}catch(Exception e){
+			throw new IOException("Could not create replayed devices: " + e, e);
+		}
+		return new SessionReplayer(file, listener, hub, speed, options.optBoolean("loop", false), buffer);
+	}
+
+	/**
+	 * Starts the replay thread
+	 * @param onFinished Called from the replay thread when the replay finishes or is stopped. Can be null
+	 */
+	synchronized void start(final Runnable onFinished){
+		if(mThread == null){
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					try{
+						replay();
+					}catch(Exception e){
+						PluginLog.e(TAG, "Exception while replaying {}", mFile, e);
+						mError = e.toString();
+					}
+					if(onFinished != null){
+						onFinished.run();
+					}
+				}
+			}, "MyoSessionReplayer");
+			mThread = thread;
+			thread.start();
+		}
+	}
+
+	void stop(){
+		mStopped = true;
+		Thread thread = mThread;
+		if(thread != null){
+			LockSupport.unpark(thread);
+		}
+	}
+
+	//Returns why the replay was aborted, or null if it finished or was stopped normally
+	String getError(){
+		return mError;
+	}
+
+	//Summary format: {path, replaying, records, durationMs, speed, loop, replayed, maxLagMs}
+	JSONObject getSummary(){
+		JSONObject res = new JSONObject();
+		try{
+			res.put("path", mFile.getAbsolutePath());
+			res.put("replaying", mThread != null && mThread.isAlive() && !mStopped);
+			res.put("records", mRecords);
+			res.put("durationMs", mLastTimestamp - mFirstTimestamp);
+			res.put("speed", mSpeed);
+			res.put("loop", mLoop);
+			res.put("replayed", mReplayed);
+			res.put("maxLagMs", mMaxLagNs / 1e6);
+		}catch(JSONException e){
+			//Not expected, as all the values are valid
+		}
+		return res;
+	}
+
+	private void replay(){
+		PluginLog.d(TAG, "Replaying {}, records: {}, speed: {}", mFile, mRecords, mSpeed);
+		long offset = mHub.now() - mFirstTimestamp;
+		long elapsed = 0; //Replayed time, in the recording clock, at the start of the current loop
+		long startNs = System.nanoTime();
+		do{
+			for(int i = 0; i < mRecords && !mStopped; i++){
+				int pos = recordOffset(i);
+				long timestamp = (long)mBuffer.getDouble(pos + 4);
+				if(mSpeed > 0){
+					waitUntil(startNs + (long)((elapsed + timestamp - mFirstTimestamp) * 1e6 / mSpeed));
+				}
+				dispatch(pos, timestamp + offset + elapsed);
+			}
+			elapsed += mLastTimestamp - mFirstTimestamp + 1; //Next loop starts right after the last event
+		}while(mLoop && !mStopped && mRecords > 0);
+		for(Myo myo : mDevices){
+			if(myo != null){
+				long now = mHub.now();
+				mListener.onDisconnect(myo, now);
+				mListener.onDetach(myo, now);
+			}
+		}
+		Arrays.fill(mDevices, null);
+		PluginLog.d(TAG, "Replay finished: {}, replayed: {}", mFile, mReplayed);
+	}
+
+	private void dispatch(int pos, long timestamp){
+		int type = mBuffer.get(pos) & 0xFF;
+		int index = mBuffer.get(pos + 1) & 0xFF;
+		int values = pos + BinaryEncoder.HEADER_SIZE;
+		Myo myo = getDevice(index, timestamp);
+		if(myo == null){
+			return;
+		}
+		switch(type){
+		case BinaryEncoder.TYPE_ACCELEROMETER:
+			mListener.onAccelerometerData(myo, timestamp, readVector3(values));
+			break;
+		case BinaryEncoder.TYPE_GYROSCOPE:
+			mListener.onGyroscopeData(myo, timestamp, readVector3(values));
+			break;
+		case BinaryEncoder.TYPE_ORIENTATION:
+			mListener.onOrientationData(myo, timestamp, new Quaternion(mBuffer.getFloat(values),
+					mBuffer.getFloat(values + 4), mBuffer.getFloat(values + 8), mBuffer.getFloat(values + 12)));
+			break;
+		case BinaryEncoder.TYPE_RSSI:
+			mListener.onRssi(myo, timestamp, (int)mBuffer.getFloat(values));
+			break;
+		case BinaryEncoder.TYPE_POSE:
+			mListener.onPose(myo, timestamp, readPose(values));
+			break;
+		default:
+			return; //Unknown record type, skip it
+		}
+		mReplayed++;
+	}
+
+	private Vector3 readVector3(int pos){
+		return new Vector3(mBuffer.getFloat(pos), mBuffer.getFloat(pos + 4), mBuffer.getFloat(pos + 8));
+	}
+
+	private Pose readPose(int pos){
+		int ordinal = (int)mBuffer.getFloat(pos);
+		return (ordinal >= 0 && ordinal < Pose.values().length) ? Pose.values()[ordinal] : Pose.UNKNOWN;
+	}
+
+	//Attaches a synthetic device the first time its index is found
+	private Myo getDevice(int index, long timestamp){
+		Myo res = mDevices[index];
+		if(res == null){
+			try{
+				res = newMyo(mHub, index);
+			}catch(Exception e){
+				PluginLog.e(TAG, "Could not create replayed Myo {}", index, e);
+				mError = "Could not create replayed Myo " + index + ": " + e;
+				mStopped = true;
+				return null;
+			}
+			mDevices[index] = res;
+			mListener.onAttach(res, timestamp);
+			mListener.onConnect(res, timestamp);
+		}
+		return res;
+	}
+
+	//Parks the thread for most of the time and spins for the last part, for sub-millisecond accuracy
+	private void waitUntil(long dueNs){
+		long remaining = dueNs - System.nanoTime();
+		while(remaining > 0 && !mStopped){
+			if(remaining > SPIN_THRESHOLD_NS){
+				LockSupport.parkNanos(this, remaining - SPIN_THRESHOLD_NS);
+			}else{
+				Thread.yield();
+			}
+			remaining = dueNs - System.nanoTime();
+		}
+		if(-remaining > mMaxLagNs){
+			mMaxLagNs = -remaining;
+		}
+	}
+
+	private static int recordOffset(int record){
+		return SessionRecorder.HEADER_SIZE + record * SessionRecorder.RECORD_SIZE;
+	}
+
+	//The Myo constructor and setters are not public in the SDK
+	static Myo newMyo(Hub hub, int index) throws Exception {
+		Constructor<Myo> constructor = Myo.class.getDeclaredConstructor(Hub.class, Address.class);
+		constructor.setAccessible(true);
+		Myo res = constructor.newInstance(hub, new Address(String.format(Locale.US, "02:00:00:00:00:%02X", index)));
+		Method setName = Myo.class.getDeclaredMethod("setName", String.class);
+		setName.setAccessible(true);
+		setName.invoke(res, "Replay " + index);
+		Constructor<FirmwareVersion> fwConstructor = FirmwareVersion.class.getDeclaredConstructor(
+				int.class, int.class, int.class, int.class);
+		fwConstructor.setAccessible(true);
+		Method setFirmwareVersion = Myo.class.getDeclaredMethod("setFirmwareVersion", FirmwareVersion.class);
+		setFirmwareVersion.setAccessible(true);
+		setFirmwareVersion.invoke(res, fwConstructor.newInstance(0, 0, 0, 0));
+		return res;
+	}
+
+}
@@ -0,0 +1,97 @@
+/*
+ * The MIT License (http://www.opensource.org/licenses/mit-license.html)
+ *
+ * Copyright (c) 2014 Tribalyte Technologies S.L. (http://www.tribalyte.com/)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+
+package com.tribalyte.plugin.myo;
+
+import java.util.Arrays;
+
+import com.tribalyte.plugin.myo.MyoEventController.MyoWithJson;
+
+/**
+ * Per-device state of a filter or buffer, indexed by Myo slot index. The state
+ * of a slot is created by {@link #newState} the first time the slot is used,
+ * and again when the slot is reused by another device, so a detached device
+ * never leaks its state into the next one. Subclasses can still use the
+ * replaced state through {@link #onReplaced}.
+ *
+ * Not thread safe: callers either use it from a single thread or hold their
+ * own lock.
+ *
+ */
+abstract class SlotStates<T>{
+
+	private Object[] mStates = new Object[0];
+	private MyoWithJson[] mOwners = new MyoWithJson[0];
+
+	//The sample is the one being processed when the state is created
+	abstract T newState(MyoWithJson myoWithJson, SensorSample sample);
+
+	//Called with the state of a slot just before it's replaced by the state of another device
+	void onReplaced(T state){
+	}
+
+	@SuppressWarnings("unchecked")
+	T get(MyoWithJson myoWithJson, SensorSample sample){
+		int index = myoWithJson.index;
+		if(index >= mStates.length){
+			mStates = Arrays.copyOf(mStates, index + 1);
+			mOwners = Arrays.copyOf(mOwners, index + 1);
+		}
+		if(mOwners[index] != myoWithJson){
+			if(mStates[index] != null){
+				onReplaced((T)mStates[index]);
+			}
+			mStates[index] = newState(myoWithJson, sample);
+			mOwners[index] = myoWithJson;
+			AllocationStats.bufferAllocated();
+		}
+		return (T)mStates[index];
+	}
+
+	//Null if the Myo has no state yet, without creating it
+	@SuppressWarnings("unchecked")
+	T find(MyoWithJson myoWithJson){
+		int index = myoWithJson.index;
+		return (index < mOwners.length && mOwners[index] == myoWithJson) ? (T)mStates[index] : null;
+	}
+
+	//Null if the slot has no state
+	@SuppressWarnings("unchecked")
+	T get(int index){
+		return (index < mStates.length) ? (T)mStates[index] : null;
+	}
+
+	//Upper bound of the slot indexes with state
+	int size(){
+		return mStates.length;
+	}
+
+	void clear(int index){
+		if(index < mStates.length){
+			mStates[index] = null;
+			mOwners[index] = null;
+		}
+	}
+
+}
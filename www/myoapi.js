@@ -141,12 +141,26 @@ var Enum = {
 
 var execOperation = getExecOperationFn("MyoApi");
 
+//Binary event format. See BinaryEncoder.java
+var BINARY_HEADER_SIZE = 12;
+var BINARY_EVENT_TYPES = [null, "accelerometerData", "gyroscopeData", "orientationData", "rssi", "pose"];
+var BINARY_EVENT_KEYS = [null, "accel", "gyro", "rotation", "rssi", "pose"];
+//Pose records (only in recordings) hold the index of the pose in this array, as in the Myo SDK
+var BINARY_POSES = ["REST", "FIST", "WAVE_IN", "WAVE_OUT", "FINGERS_SPREAD", "DOUBLE_TAP", "UNKNOWN"];
+
+//Registered event listeners: {eventName: [{cb: function, id: string}, ...]}
+var listeners = {};
+var nextListenerId = 1;
+
+//WebSocket of the streaming server, see MyoApi.startStreaming
+var stream = null;
+
 /** Represents a Myo device
  * @constructor
  * @param {Array} dataArray Myo information fields as an array
  */
 var Myo = function(dataArray){
-	//dataArray format: [name, macAddress, fwVersion]
+	//dataArray format: [name, macAddress, fwVersion, index]
 
 	/** Given name of the Myo device
 	 * @type {string} */
@@ -157,6 +171,10 @@ var Myo = function(dataArray){
 	/** Firmware version of the Myo device (e.g. "1.1.4")
 	 * @type {string} */
 	this.fwVersion = dataArray[2];
+	/** Index which identifies the device in binary events while it's attached
+	 * (undefined if not known). Native actions accept it instead of the MAC address.
+	 * @type {number} */
+	this.index = dataArray[3];
 };
 Myo.prototype = {
 
@@ -248,6 +266,28 @@ Myo.prototype = {
 	 */
 	isConnected: function(sCb, eCb){
 		execOperation(sCb, eCb, "myo_isConnected", [this.macAddress]);
+	},
+
+	/** Sets the reference of the relative orientations of this device (see the "relative" option of
+	 * {@link MyoApi.on}). If the device is synced with the arm with its X axis toward the elbow, the roll
+	 * and pitch of the relative orientations are negated, so that they match the ones of the usual position.
+	 * See also {@link MyoApi.setAutoReferenceOrientation}.
+	 * @param {Object} [rotation] Quaternion with x, y, z and w properties, e.g. the "rotation" of an
+	 * "orientationData" event. If not given, the next orientation received from the device is used
+	 * @param {SuccessCallback} sCb Success callback
+	 * @param {ErrorCallback} eCb Error callback
+	 */
+	setReferenceOrientation: function(rotation, sCb, eCb){
+		execOperation(sCb, eCb, "myo_setReferenceOrientation", [this.macAddress, rotation || null]);
+	},
+
+	/** Removes the reference orientation of this device, so that relative orientations are delivered
+	 * as absolute ones again
+	 * @param {SuccessCallback} sCb Success callback
+	 * @param {ErrorCallback} eCb Error callback
+	 */
+	clearReferenceOrientation: function(sCb, eCb){
+		execOperation(sCb, eCb, "myo_clearReferenceOrientation", [this.macAddress]);
 	}
 };
 
@@ -269,6 +309,11 @@ var MyoApi = function(){
 		VibrationType: Enum.VibrationType,
 		/** @see {@link Enum.ConnectionState} */
 		ConnectionState: Enum.ConnectionState,
+		/** Target of the native "myo_*" actions (see {@link MyoApi.batch}) which addresses all the
+		 * connected devices instead of a single one. The result is then an array of {@link BatchResult}
+		 * objects, each one with the "index" of its device
+		 * @type {string} */
+		ALL_MYOS: "*",
 
 		/** Request to initialize the API. Will fail if the system doesn't support Bluetooth Low Energy
 		* @param {SuccessCallback} sCb Success callback
@@ -427,7 +472,8 @@ var MyoApi = function(){
 		 * @param {Array} devList An array of Myo objects which represents the
 		 * list of connected devices.
 		 */
-		/** Requests the list of currently connected Myo devices.
+		/** Requests the list of currently connected Myo devices. Instead of polling it, the
+		 * "devicesChanged" event can be listened to (see {@link MyoApi.on}).
 		 * @param {DeviceListCallback} sCb Callback to receive the result
 		 * @param {ErrorCallback} eCb
 		 * @todo TODO: return list synchronously?
@@ -458,36 +504,580 @@ var MyoApi = function(){
 		/** @typedef {Object} EventDataType
 		 * @property {string} eventName Name (type) of the event
 		 * @property {Myo} myo Myo device which originated the event
-		 * @property {number} timestamp Timestamp when the event occurred
+		 * @property {number} timestamp Timestamp when the event occurred. Not present in batched events.
+		 * @property {Array} samples Only in batched events: array of objects with the timestamp and the extra
+		 * properties of each sample.
 		 * @property ... Other extra properties depending on the specific type of event
 		 */
+		/** @typedef {Object} BatchOptions
+		 * @property {number} [size=10] Number of samples per device which triggers the delivery of a batch.
+		 * 0 means no limit.
+		 * @property {number} [interval=200] Maximum time (in milliseconds) a sample is retained before
+		 * being delivered. 0 means no periodic delivery.
+		 */
+		/** @typedef {Object} EventOptions
+		 * @property {BatchOptions} [batch] If present, samples are delivered in batches. Only supported for
+		 * "orientationData", "accelerometerData" and "gyroscopeData".
+		 * @property {boolean} [binary=false] If true, events are delivered as an ArrayBuffer in a compact binary
+		 * format, which can be decoded with {@link MyoApi.decodeBinaryEvents}. Only supported for "orientationData",
+		 * "accelerometerData", "gyroscopeData", "rssi" and "motionFrame" (one record per stream).
+		 * @property {number} [rate] Maximum number of events per second and device to be delivered. By default
+		 * all the events are delivered. Only supported for "orientationData", "accelerometerData", "gyroscopeData"
+		 * and "rssi".
+		 * @property {string} [policy="drop"] How the events are reduced when a rate is set: "drop" delivers the
+		 * first event of each period, "latest" the last one and "average" the mean of the period.
+		 * @property {number} [deadband] If set, an event is only delivered when its values differ from the last
+		 * delivered ones by more than this distance (Euclidean, in the units of the event). Only supported for
+		 * "orientationData", "accelerometerData", "gyroscopeData" and "rssi".
+		 * @property {number} [heartbeat] Maximum time in milliseconds without delivering an event when a deadband
+		 * is set, so that resting devices can be told from disconnected ones. By default there is no heartbeat.
+		 * @property {Array} [fields] Fields to be computed and delivered, so that only the ones used by the
+		 * application cost CPU time. For "orientationData": "raw" (x, y, z, w), "euler" (roll, pitch, yaw) and
+		 * "matrix" (rotation matrix as an array of 9 numbers, row-major), all of them in the "rotation" object.
+		 * By default ["raw", "euler"]. For "accelerometerData": "raw" ("accel" object) and "linear"
+		 * ("linearAccel" object with the acceleration without gravity, null until orientation data is received).
+		 * By default ["raw"]. For "motionFrame" and "syncFrame", they apply to each of the joined streams. Binary events only support "raw".
+		 * @property {Array} [streams] Only for "motionFrame": streams to be joined, any of "accel", "gyro" and
+		 * "rotation". By default all of them. Streams which nobody listens to are not sampled.
+		 * For "features": streams whose features are computed, "accel" and/or "gyro". By default both.
+		 * For "syncFrame": streams to be aligned, as for "motionFrame".
+		 * @property {number} [window=50] Only for "features": number of samples of the sliding window of each
+		 * stream (up to 1024). The Myo delivers 50 IMU samples per second.
+		 * @property {number} [hop] Only for "features": number of samples between consecutive events, counted in
+		 * the first of the streams. By default half the window.
+		 * @property {Array} [features] Only for "features": features computed for each axis and the magnitude,
+		 * any of "mean", "rms", "variance", "zeroCrossings" (sign changes around the mean), "peak" (maximum
+		 * absolute value) and "bands". By default ["mean", "rms", "variance"].
+		 * @property {number} [bands=4] Only for "features": number of equal-width frequency bands (up to half the
+		 * window) whose energy is computed from the spectrum of the magnitude. Requires a window which is a power of 2.
+		 * @property {number} [interval=20] Only for "syncFrame": time between ticks in milliseconds (up to 1000).
+		 * @property {number} [maxSkew=40] Only for "syncFrame": maximum time in milliseconds a tick waits for lagging
+		 * devices, and maximum distance to a sample for it to be used at a tick. Streams without samples that close are null.
+		 * @property {string} [onPause="drop"] What to do with the events while the application is paused (in the
+		 * background): "drop" doesn't even compute them, "deliver" keeps delivering them and "buffer" keeps the last
+		 * ones and delivers them when the application is resumed, as a single batch per device (in the format of the
+		 * "batch" option). Only for the events derived from sensor samples: "orientationData", "accelerometerData",
+		 * "gyroscopeData", "rssi" (the only ones which support "buffer"), "motionFrame", "features" and "syncFrame".
+		 * Other events (connect, disconnect, detach, pose, gesture...) are always delivered.
+		 * @property {number} [pauseBuffer=10] Seconds of events kept with the "buffer" policy (up to 60).
+		 * @property {boolean} [relative=false] Only for "orientationData": deliver the orientation relative to the
+		 * reference orientation of the device (see {@link Myo#setReferenceOrientation}), i.e. multiplied by the
+		 * inverse of the reference. The euler angles and matrix are computed from the relative orientation.
+		 * Orientations are absolute while the device has no reference.
+		 * @property {number} [smoothing=0] Only for "orientationData": smoothing factor in [0, 1) of a SLERP low-pass
+		 * filter, which reduces jitter. It's the weight of the last delivered orientation, so 0 means no smoothing
+		 * and higher values mean smoother (and more delayed) orientations.
+		 * @property {number} [credits] Enables flow control with this number of initial credits (up to 1048576).
+		 * Each delivered event (or batch) consumes a credit, and more are granted with {@link MyoApi.ack} once the
+		 * events are processed. Without credits, events are not queued: only the latest one of each device is kept,
+		 * replacing the previous one (counted as dropped, except for batches), and it's delivered when credits are granted. Only for the
+		 * events derived from sensor samples (see "onPause").
+		 */
 		/** @callback EventCallback
 		 * @param {EventDataType} eventData
 		 */
-		/** Registers an event listener. Use {@link MyoApi.off} to unregister
+		/** Registers an event listener. Use {@link MyoApi.off} to unregister.
+		 * Several listeners can be registered for the same event.
 		 * @param {string} eventName One of the supported events: "connect", "disconnect", "pose", "attach", "detach", "armSync", "armUnsync",
-		 * "unlock", "lock", "orientationData", "accelerometerData", "gyroscopeData", "rssi".
+		 * "unlock", "lock", "orientationData", "accelerometerData", "gyroscopeData", "rssi", "motionFrame", "devicesChanged", "gesture",
+		 * "features", "syncFrame".
+		 * "motionFrame" joins the accelerometer, gyroscope and orientation samples of the same instant into a single
+		 * event with "accel", "gyro" and "rotation" properties (null if a sample was missing).
+		 * "devicesChanged" is fired when a device is connected or disconnected (or detached while connected), with
+		 * the new list of connected devices in the "devices" property, as returned by {@link MyoApi.getConnectedDevices}.
+		 * "gesture" is fired when one of the gestures set with {@link MyoApi.setGestures} is completed, with its name in
+		 * the "gesture" property.
+		 * "features" delivers features of the last accelerometer and gyroscope samples, computed natively over a
+		 * sliding window, so that classifiers don't need the raw streams: "accel" and "gyro" properties, with an
+		 * object per axis ("x", "y", "z" and "magnitude") with the requested features, e.g. ev.accel.magnitude.rms.
+		 * "syncFrame" aligns the samples of all the connected devices to a common clock (the one of {@link MyoApi.now}),
+		 * with one event per tick: the "devices" property has an object per device with its "myo" and the "accel",
+		 * "gyro" and "rotation" values at the tick, interpolated from the samples around it.
 		 * @param {EventCallback} onEventCb Callback to be called when an event is received. The signature depends on event,
 		 * for example, for "pose": function(Myo myo, number timestamp, Pose pose)
 		 * @param {ErrorCallback} onErrCb Error callback.
+		 * @param {EventOptions} [options] Delivery options
 		 * @todo TODO: calculate edge and add parameter to event callback
-		 * @todo TODO: timer function to reduce false positives?
 		 */
-		on: function(eventName, onEventCb, onErrCb){
+		on: function(eventName, onEventCb, onErrCb, options){
+			var id = String(nextListenerId++);
+			listeners[eventName] = listeners[eventName] || [];
+			listeners[eventName].push({cb: onEventCb, id: id});
 			execOperation(function(res){
-				res.myo = new Myo(res.myo); //Wrap it with the myo object API
+				if(!(res instanceof ArrayBuffer)){
+					if(res.myo){ //Sync frames have a device per entry of "devices" instead
+						res.myo = new Myo(res.myo); //Wrap it with the myo object API
+					}
+					if(res.devices){
+						for(var i = 0; i < res.devices.length; ++i){
+							if(res.devices[i].myo){
+								res.devices[i].myo = new Myo(res.devices[i].myo);
+							}else{
+								res.devices[i] = new Myo(res.devices[i]);
+							}
+						}
+					}
+				}
 				onEventCb(res);
-			}, onErrCb, "on", eventName);
+			}, onErrCb, "on", [eventName, options || null, id]);
+			return this;
+		},
+
+		/** @typedef {Object} AllocationStats
+		 * @property {number} payloads Number of event payloads sent to JavaScript
+		 * @property {number} buffers Number of buffers created or grown by the sensor event path.
+		 * It's expected to stay constant under a steady load.
+		 */
+		/** @callback AllocationStatsCallback
+		 * @param {AllocationStats} stats Current allocation counters
+		 */
+		/** Retrieves the counters of the objects allocated by the sensor event path
+		 * ("orientationData", "accelerometerData", "gyroscopeData" and "rssi" events)
+		 * @param {boolean} reset Whether to reset the counters after reading them
+		 * @param {AllocationStatsCallback} sCb
+		 * @param {ErrorCallback} eCb
+		 */
+		getAllocationStats: function(reset, sCb, eCb){
+			execOperation(sCb, eCb, "getAllocationStats", [!!reset]);
+		},
+
+		/** @typedef {Object} SubscriptionStats
+		 * @property {string} eventName Name (type) of the event listened to
+		 * @property {string} id Identifier of the listener
+		 * @property {number} delivered Number of events delivered to the listener
+		 * @property {number} dropped Number of events discarded because of the rate limit or deadband, or while the
+		 * application was paused, or replaced by a newer one while the listener had no credits
+		 * @property {number} [credits] Credits left, only for listeners registered with the "credits" option
+		 */
+		/** @callback SubscriptionStatsCallback
+		 * @param {Array} stats Array of {@link SubscriptionStats}, one per registered listener
+		 */
+		/** Retrieves the number of delivered and dropped events of each registered listener
+		 * @param {SubscriptionStatsCallback} sCb
+		 * @param {ErrorCallback} eCb
+		 */
+		getSubscriptionStats: function(sCb, eCb){
+			execOperation(sCb, eCb, "getSubscriptionStats");
+		},
+
+		/** Sets what is discarded when sensor events are produced faster than they can be delivered
+		 * and the dispatch queue gets full. Control events (pose, lock, attach...) are never discarded
+		 * and are delivered before any pending sensor event.
+		 * @param {string} policy "dropOldest" (default) discards the oldest queued event,
+		 * "dropNewest" discards the new one
+		 * @param {SuccessCallback} sCb
+		 * @param {ErrorCallback} eCb
+		 */
+		setOverflowPolicy: function(policy, sCb, eCb){
+			execOperation(sCb, eCb, "setOverflowPolicy", [policy]);
+		},
+
+		/** @typedef {Object} DispatchStats
+		 * @property {boolean} running Whether the dispatcher thread is running
+		 * @property {number} capacity Maximum number of sensor events which can be queued
+		 * @property {number} queueDepth Number of sensor events currently queued
+		 * @property {number} maxQueueDepth Maximum number of sensor events queued at the same time
+		 * @property {number} controlQueueDepth Number of control events currently queued
+		 * @property {number} overflows Number of sensor events discarded because the queue was full
+		 * @property {string} overflowPolicy Current overflow policy (see {@link MyoApi.setOverflowPolicy})
+		 */
+		/** @callback DispatchStatsCallback
+		 * @param {DispatchStats} stats Current dispatch queue counters
+		 */
+		/** Retrieves the counters of the queue between the Myo SDK and the event listeners
+		 * @param {DispatchStatsCallback} sCb
+		 * @param {ErrorCallback} eCb
+		 */
+		getDispatchStats: function(sCb, eCb){
+			execOperation(sCb, eCb, "getDispatchStats");
+		},
+
+		/** @typedef {Object} RecordingOptions
+		 * @property {string} [path] Absolute path of the file to record to. By default, a new file in the
+		 * "myo-recordings" directory of the application files directory.
+		 * @property {Array} [events] Events to record, any of "orientationData", "accelerometerData",
+		 * "gyroscopeData", "rssi" and "pose". By default all of them.
+		 */
+		/** @typedef {Object} RecordingSummary
+		 * @property {string} path Absolute path of the recording file
+		 * @property {boolean} recording Whether the recording is still in progress
+		 * @property {number} records Number of recorded events
+		 * @property {number} bytes Size of the file
+		 * @property {number} durationMs Time between the first and the last recorded event
+		 * @property {Object} events Number of recorded events of each type, by event name
+		 * @property {Array} devices Recorded Myo devices, in the same format as the "myo" property of the events
+		 * @property {string} [error] Description of the error which stopped the recording, if any
+		 */
+		/** @callback RecordingCallback
+		 * @param {RecordingSummary} summary
+		 */
+		/** Starts recording the sensor events of the attached devices to a file, natively, without
+		 * delivering them to JavaScript. The file has a 32 byte header (magic "MYOREC01", header size,
+		 * record size, wall clock and Hub start times) followed by 28 byte records in the format
+		 * described in {@link MyoApi.decodeBinaryEvents}, padded with zeros.
+		 * Only one recording can be in progress.
+		 * @param {RecordingOptions} [options]
+		 * @param {RecordingCallback} sCb Called when the recording has started
+		 * @param {ErrorCallback} eCb
+		 */
+		startRecording: function(options, sCb, eCb){
+			execOperation(sCb, eCb, "startRecording", [options || null]);
+		},
+
+		/** Stops the recording in progress and closes its file
+		 * @param {RecordingCallback} sCb Called with the final summary of the recording
+		 * @param {ErrorCallback} eCb
+		 */
+		stopRecording: function(sCb, eCb){
+			execOperation(sCb, eCb, "stopRecording");
+		},
+
+		/** @typedef {Object} ReplayOptions
+		 * @property {string} path Absolute path of a file recorded with {@link MyoApi.startRecording}
+		 * @property {number} [speed=1] Replay speed: 1 is real time, 2 twice as fast... 0 replays as fast as possible
+		 * @property {boolean} [loop=false] Whether to start again when the end of the recording is reached
+		 */
+		/** @typedef {Object} ReplaySummary
+		 * @property {string} path Absolute path of the recording file
+		 * @property {boolean} replaying Whether the replay is in progress
+		 * @property {number} records Number of records in the file
+		 * @property {number} durationMs Duration of the recording
+		 * @property {number} speed Replay speed
+		 * @property {boolean} loop Whether the replay loops
+		 * @property {number} replayed Number of events replayed so far
+		 * @property {number} maxLagMs Maximum delay of an event with respect to its scheduled time
+		 */
+		/** @callback ReplayCallback
+		 * @param {ReplaySummary} summary
+		 */
+		/** Replays a recorded session through the event listeners registered with {@link MyoApi.on}, as if
+		 * the events came from the attached devices. Each recorded device is replaced by a synthetic one
+		 * (MAC address 02:00:00:00:00:XX, where XX is its recorded index), which is attached and connected
+		 * before its first event, and disconnected and detached at the end. Timestamps are the recorded
+		 * ones shifted to the current time, independently of the speed. The events of the real devices are
+		 * not delivered while replaying.
+		 * @param {ReplayOptions} options
+		 * @param {ReplayCallback} sCb Called when the replay starts and again when it finishes or is stopped
+		 * @param {ErrorCallback} eCb Called instead if the replay can't be started or is aborted by an error
+		 */
+		startReplay: function(options, sCb, eCb){
+			execOperation(sCb, eCb, "startReplay", [options]);
+		},
+
+		/** Stops the replay in progress
+		 * @param {ReplayCallback} sCb
+		 * @param {ErrorCallback} eCb
+		 */
+		stopReplay: function(sCb, eCb){
+			execOperation(sCb, eCb, "stopReplay");
+		},
+
+		/** Enables or disables the collection of the event path metrics (see {@link MyoApi.getMetrics}).
+		 * It's disabled by default and has no cost while disabled. Enabling it resets the metrics
+		 * @param {boolean} enabled
+		 * @param {SuccessCallback} sCb
+		 * @param {ErrorCallback} eCb
+		 */
+		setMetricsEnabled: function(enabled, sCb, eCb){
+			execOperation(sCb, eCb, "setMetricsEnabled", [!!enabled]);
+		},
+
+		/** @typedef {Object} EventMetrics
+		 * @property {number} received Number of events received from the Myo SDK
+		 * @property {number} receivedPerSecond Average rate of received events since the metrics were reset
+		 * @property {number} delivered Number of results sent to the listeners (a batch counts once)
+		 * @property {number} unknownDevice Number of events discarded because the Myo wasn't attached
+		 */
+		/** @typedef {Object} StageMetrics
+		 * Durations in microseconds
+		 * @property {number} count Number of measurements
+		 * @property {number} mean
+		 * @property {number} p50
+		 * @property {number} p90
+		 * @property {number} p99
+		 * @property {number} p999
+		 * @property {number} max
+		 */
+		/** @typedef {Object} Metrics
+		 * @property {boolean} enabled Whether the metrics are being collected
+		 * @property {number} elapsed Milliseconds since the metrics were reset
+		 * @property {Object} events {@link EventMetrics} by event name, only for the events received
+		 * @property {Object} stages {@link StageMetrics} of each stage of the event path: "queue" (waiting
+		 * for the dispatcher thread), "dispatch" (handling of an event by the dispatcher thread), "encode"
+		 * (creation of a JSON or binary payload) and "send" (delivery of a payload to Cordova)
+		 * @property {DispatchStats} dispatcher Current dispatch queue counters
+		 */
+		/** @callback MetricsCallback
+		 * @param {Metrics} metrics
+		 */
+		/** Retrieves the counters and latency percentiles of the event path, collected while
+		 * enabled with {@link MyoApi.setMetricsEnabled}
+		 * @param {boolean} reset Whether to reset the metrics after reading them
+		 * @param {MetricsCallback} sCb
+		 * @param {ErrorCallback} eCb
+		 */
+		getMetrics: function(reset, sCb, eCb){
+			execOperation(sCb, eCb, "getMetrics", [!!reset]);
+		},
+
+		/** Sets the minimum level of the messages written by the plugin to the Android log.
+		 * The initial level can be set with the "MyoLogLevel" preference of config.xml
+		 * @param {string} level "verbose", "debug" (default), "info", "warn", "error" or "none"
+		 * @param {SuccessCallback} sCb
+		 * @param {ErrorCallback} eCb
+		 */
+		setLogLevel: function(level, sCb, eCb){
+			execOperation(sCb, eCb, "setLogLevel", [level]);
+		},
+
+		/** Enables or disables the automatic capture of the reference orientation of each device (see
+		 * {@link Myo#setReferenceOrientation}) when it's synced with the arm. The reference is cleared when it
+		 * becomes unsynced.
+		 * @param {boolean} enabled
+		 * @param {SuccessCallback} sCb
+		 * @param {ErrorCallback} eCb
+		 */
+		setAutoReferenceOrientation: function(enabled, sCb, eCb){
+			execOperation(sCb, eCb, "setAutoReferenceOrientation", [!!enabled]);
+		},
+
+		/** @typedef {Object} GestureDefinition
+		 * @property {string} name Name delivered in the "gesture" event
+		 * @property {Array} poses Sequence of {@link MyoApi.Pose} values (except REST and UNKNOWN) to be performed.
+		 * REST and UNKNOWN poses between them are ignored
+		 * @property {number} [hold=0] Minimum time (in milliseconds) each pose must be held to count, e.g. to
+		 * discard false positives
+		 * @property {number} [gap=1000] Maximum time (in milliseconds) between a pose of the sequence and the next one
+		 * @property {Array} [roll] Range [min, max] (in radians) of the roll of the device when the gesture is
+		 * completed. If min is greater than max, the range wraps around
+		 * @property {Array} [pitch] Same as roll, for the pitch
+		 * @property {Array} [yaw] Same as roll, for the yaw
+		 */
+		/** Sets the gestures detected natively from the pose events of each device, which are delivered as
+		 * "gesture" events (see {@link MyoApi.on}). Only completed gestures are delivered, so the raw "pose"
+		 * events don't need to be listened to. Replaces the previous gestures
+		 * @param {Array} gestures {@link GestureDefinition} objects. An empty array disables the detection
+		 * @param {SuccessCallback} sCb
+		 * @param {ErrorCallback} eCb Called if any definition is not valid
+		 */
+		setGestures: function(gestures, sCb, eCb){
+			execOperation(sCb, eCb, "setGestures", [gestures || []]);
+		},
+
+		/** @typedef {Object} StreamingOptions
+		 * @property {Array} [streams] Streams to be sent, any of "accel", "gyro" and "rotation". By default all of them
+		 * @property {number} [port=0] Local port of the server. By default any free one
+		 */
+		/** @typedef {Object} StreamingInfo
+		 * @property {string} url WebSocket URL of the server, which includes a random token. Connections to other
+		 * URLs are rejected
+		 * @property {number} port Local port of the server
+		 * @property {number} clients Number of connected clients
+		 * @property {number} sentMessages Number of messages sent
+		 * @property {number} droppedRecords Number of samples discarded because the server didn't keep up
+		 * @property {number} droppedMessages Number of messages discarded because a client didn't keep up
+		 */
+		/** @callback StreamingCallback
+		 * @param {StreamingInfo} info
+		 */
+		/** @callback StreamDataCallback
+		 * @param {ArrayBuffer} data Binary records of one or more samples, to be decoded with {@link MyoApi.decodeBinaryEvents}
+		 */
+		/** Starts a WebSocket server, only reachable from the device itself, which streams the sensor samples
+		 * of all the devices without going through the Cordova bridge, and connects to it. This has lower and more
+		 * stable latency than the events of {@link MyoApi.on}, which are still delivered, e.g. for control events.
+		 * Samples are sent in binary format, several of them per message under load. Nothing is sent while the
+		 * application is paused. Other clients (e.g. a native part of the application) can also connect to the URL
+		 * @param {StreamingOptions} [options]
+		 * @param {StreamDataCallback} onData Called with each message received
+		 * @param {StreamingCallback} sCb Called when connected
+		 * @param {ErrorCallback} eCb
+		 */
+		startStreaming: function(options, onData, sCb, eCb){
+			execOperation(function(info){
+				var ws = new WebSocket(info.url);
+				var opened = false;
+				var fail = function(){
+					if(eCb){
+						eCb("Could not connect to the streaming server");
+					}
+				};
+				ws.binaryType = "arraybuffer";
+				ws.onopen = function(){
+					opened = true;
+					if(sCb){
+						sCb(info);
+					}
+				};
+				ws.onerror = function(){
+					if(opened){
+						return; //sCb was already called
+					}
+					if(stream !== ws){
+						fail(); //Already stopped or restarted, the server isn't ours anymore
+						return;
+					}
+					//Stops the server which couldn't be reached before reporting the error
+					stream = null;
+					execOperation(fail, fail, "stopStreaming");
+				};
+				ws.onmessage = function(ev){
+					onData(ev.data);
+				};
+				stream = ws;
+			}, eCb, "startStreaming", [options || null]);
+		},
+
+		/** Stops the streaming server started with {@link MyoApi.startStreaming}
+		 * @param {StreamingCallback} sCb Receives the final statistics of the server
+		 * @param {ErrorCallback} eCb
+		 */
+		stopStreaming: function(sCb, eCb){
+			if(stream){
+				stream.close();
+				stream = null;
+			}
+			execOperation(sCb, eCb, "stopStreaming");
+		},
+
+		/** @typedef {Object} BatchCommand
+		 * @property {string} action Name of the native action, e.g. "myo_vibrate" or "getConnectedDevices".
+		 * The actions of a {@link Myo} are the name of its method with the "myo_" prefix, and take the MAC
+		 * address or index of the device (or {@link MyoApi.ALL_MYOS}) as the first argument
+		 * @property {Array} [args] Arguments of the action
+		 */
+		/** @typedef {Object} BatchResult
+		 * @property {boolean} ok Whether the command succeeded
+		 * @property [result] Result of the command, if it succeeded
+		 * @property [error] Error of the command, if it failed
+		 */
+		/** @callback BatchCallback
+		 * @param {Array} results {@link BatchResult} of each command, in the same order
+		 */
+		/** Runs several actions in a single call to the native side, e.g. to vibrate all the devices:
+		 * <code>MyoApi.batch([{action: "myo_vibrate", args: [MyoApi.ALL_MYOS, MyoApi.VibrationType.SHORT]}])</code>.
+		 * Commands are run in order, and a failed command doesn't stop the rest. Actions which start
+		 * activities, attach devices, keep their callback or answer asynchronously ("init", "openScanDialog",
+		 * "attachToAdjacentMyo", "on", "setBatching", "startRecording", "stopRecording", "startReplay",
+		 * "openBluetoothConfig", "startStreaming" and "batch" itself) are not supported
+		 * @param {Array} commands {@link BatchCommand} objects
+		 * @param {BatchCallback} sCb
+		 * @param {ErrorCallback} eCb Called if the commands are malformed
+		 */
+		batch: function(commands, sCb, eCb){
+			execOperation(sCb, eCb, "batch", [commands]);
+		},
+
+		/** @typedef {Object} BinaryEventDataType
+		 * @property {string} eventName Name (type) of the event
+		 * @property {number} myoIndex Index of the Myo device which originated the event (see {@link Myo#index})
+		 * @property {number} timestamp Timestamp when the event occurred
+		 * @property ... "accel", "gyro" or "rotation" object with the x, y, z (and w) components,
+		 * or "rssi" value, depending on the type of event
+		 */
+		/** Decodes the events received in binary format (see the "binary" option of {@link MyoApi.on}).
+		 * Every event is a little endian record with: event type (uint8), Myo index (uint8), number of
+		 * components (uint8), reserved (uint8), timestamp (float64) and the components (float32 each).
+		 * @param {ArrayBuffer} buffer Data received by the event callback
+		 * @returns {Array} Array of {@link BinaryEventDataType} objects
+		 */
+		decodeBinaryEvents: function(buffer){
+			var res = [];
+			var view = new DataView(buffer);
+			var offset = 0;
+			while(offset + BINARY_HEADER_SIZE <= buffer.byteLength){
+				var type = view.getUint8(offset);
+				var count = view.getUint8(offset + 2);
+				var ev = {
+					eventName: BINARY_EVENT_TYPES[type],
+					myoIndex: view.getUint8(offset + 1),
+					timestamp: view.getFloat64(offset + 4, true)
+				};
+				var pos = offset + BINARY_HEADER_SIZE;
+				if(BINARY_EVENT_TYPES[type] === "pose"){
+					ev.pose = BINARY_POSES[view.getFloat32(pos, true)] || "UNKNOWN";
+				}else if(count === 1){
+					ev[BINARY_EVENT_KEYS[type]] = view.getFloat32(pos, true);
+				}else{
+					var value = {
+						x: view.getFloat32(pos, true),
+						y: view.getFloat32(pos + 4, true),
+						z: view.getFloat32(pos + 8, true)
+					};
+					if(count > 3){
+						value.w = view.getFloat32(pos + 12, true);
+					}
+					ev[BINARY_EVENT_KEYS[type]] = value;
+				}
+				res.push(ev);
+				offset = pos + 4 * count;
+			}
+			return res;
+		},
+
+		/** Enables or disables the batched delivery of samples for an event listener
+		 * registered with {@link MyoApi.on}. When enabled, the samples of each device are
+		 * accumulated and delivered together in the "samples" property of the event data.
+		 * @param {string} eventName One of "orientationData", "accelerometerData" or "gyroscopeData"
+		 * @param {BatchOptions|null} batchOptions Batching options, or null to disable batching
+		 * @param {SuccessCallback} sCb
+		 * @param {ErrorCallback} eCb
+		 */
+		setBatching: function(eventName, batchOptions, sCb, eCb){
+			execOperation(sCb, eCb, "setBatching", [eventName, batchOptions || null]);
 			return this;
 		},
 
-		/** Unregisters an event listener registered with {@link MyoApi.on}
+		/** Grants credits to event listeners registered with the "credits" option (see {@link EventOptions}),
+		 * usually after processing the events they received. The latest pending event of each device, if any,
+		 * is delivered right away. There's no reply, so that it can be called for every event.
+		 * @param {string} eventName Name / type of the event
+		 * @param {number} credits Number of events which can be delivered
+		 * @param {EventCallback} [onEventCb] Listener to grant the credits to. If not given, all the
+		 * listeners of the event with flow control get them.
+		 */
+		ack: function(eventName, credits, onEventCb){
+			var id = null;
+			if(onEventCb){
+				var list = listeners[eventName] || [];
+				for(var i = 0; i < list.length && id === null; ++i){
+					if(list[i].cb === onEventCb){
+						id = list[i].id;
+					}
+				}
+				if(id === null){
+					plgLog("Listener not registered for event " + eventName);
+					return this;
+				}
+			}
+			cordova.exec(null, null, "MyoApi", "ack", [eventName, id, credits]); //No callbacks to keep
+			return this;
+		},
+
+		/** Unregisters event listeners registered with {@link MyoApi.on}
 		 * @param {string} eventName Name / type of event to unregister
 		 * @param {SuccessCallback} sCb
 		 * @param {ErrorCallback} eCb
+		 * @param {EventCallback} [onEventCb] Listener to unregister. If not given, all the
+		 * listeners of the event are unregistered.
 		 */
-		off: function(eventName, sCb, eCb){
-			execOperation(sCb, eCb, "off", eventName);
+		off: function(eventName, sCb, eCb, onEventCb){
+			var list = listeners[eventName] || [];
+			if(onEventCb){
+				for(var i = 0; i < list.length; ++i){
+					if(list[i].cb === onEventCb){
+						execOperation(sCb, eCb, "off", [eventName, list[i].id]);
+						list.splice(i, 1);
+						return this;
+					}
+				}
+				if(eCb){
+					eCb("Listener not registered for event " + eventName);
+				}
+			}else{
+				delete listeners[eventName];
+				execOperation(sCb, eCb, "off", eventName);
+			}
 			return this;
 		}
 	};